@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Concurrency limit which adapts to the observed latency, based on the
+ * gradient of the short term and the long term (no load) round trip time.
+ * <p>
+ * Latency samples are aggregated in windows of about one round trip. While
+ * the average latency of a window stays close to the long term average, the
+ * limit grows by a queue allowance of sqrt(limit) per window. When
+ * the latency inflates beyond the tolerated ratio, the limit shrinks in
+ * proportion to the ratio of the long and short term latencies. Requests
+ * above the limit are not queued, they are expected to be shed by the
+ * caller.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+  /**
+   * The limit can shrink to at most half of the current value per sample.
+   */
+  private static final double MIN_GRADIENT = 0.5;
+
+  /**
+   * Weight of a new sample in the limit.
+   */
+  private static final double SMOOTHING = 0.2;
+
+  /**
+   * Number of windows in the long term exponential moving average.
+   */
+  private static final int LONG_WINDOW = 100;
+
+  /**
+   * Number of windows in the no load latency average, while the limit is
+   * close to the minimum.
+   */
+  private static final int MIN_LIMIT_WINDOW = 10;
+
+  /**
+   * Minimum number of samples in a window.
+   */
+  private static final int MIN_WINDOW_SAMPLES = 10;
+
+  private final int minLimit;
+
+  private final int maxLimit;
+
+  private final double rttTolerance;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private volatile double limit;
+
+  private volatile long rttNanos;
+
+  private double noLoadRttNanos;
+
+  private long windowRttSum;
+
+  private int windowSamples;
+
+  private int windowMaxInFlight;
+
+  public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit,
+      int maxLimit, double rttTolerance) {
+    Preconditions.checkArgument(minLimit > 0 && minLimit <= maxLimit,
+        "Invalid limit range: %s - %s", minLimit, maxLimit);
+    Preconditions.checkArgument(rttTolerance >= 1.0,
+        "RTT tolerance should be at least 1.0: %s", rttTolerance);
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.rttTolerance = rttTolerance;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+  }
+
+  /**
+   * Try to start a request.
+   *
+   * @return the number of requests in flight (including this one) if the
+   * request is allowed, 0 if the limit is reached.
+   */
+  public int tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= (int) limit) {
+        return 0;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return current + 1;
+      }
+    }
+  }
+
+  /**
+   * Finish a request started by a successful {@link #tryAcquire()}, and
+   * adjust the limit by its latency.
+   *
+   * @param startInFlight the value returned by tryAcquire()
+   * @param rtt latency of the request in nanoseconds
+   */
+  public void release(int startInFlight, long rtt) {
+    inFlight.decrementAndGet();
+    onSample(startInFlight, rtt);
+  }
+
+  private synchronized void onSample(int startInFlight, long rtt) {
+    if (rtt <= 0) {
+      return;
+    }
+    windowRttSum += rtt;
+    windowSamples++;
+    windowMaxInFlight = Math.max(windowMaxInFlight, startInFlight);
+    double currentLimit = limit;
+    // Adjust about once per round trip, a single sample is too noisy.
+    if (windowSamples < Math.max(MIN_WINDOW_SAMPLES, currentLimit)) {
+      return;
+    }
+    long windowRtt = windowRttSum / windowSamples;
+    int maxInFlight = windowMaxInFlight;
+    windowRttSum = 0;
+    windowSamples = 0;
+    windowMaxInFlight = 0;
+
+    rttNanos = windowRtt;
+    // Requests are not limited by us, so the window tells nothing about
+    // a higher limit.
+    boolean appLimited = maxInFlight < currentLimit / 2;
+
+    // The no load latency is learned only from windows which are not taken
+    // under overload, otherwise a long overload period would drag it up and
+    // the limit would never shrink. Close to the minimum limit there is no
+    // lower load to learn from: the latency measured there is accepted as
+    // the new baseline, so that the limit can recover when the baseline
+    // latency itself grows.
+    if (noLoadRttNanos == 0) {
+      noLoadRttNanos = windowRtt;
+    } else if (currentLimit < 2 * minLimit) {
+      noLoadRttNanos += (windowRtt - noLoadRttNanos) / MIN_LIMIT_WINDOW;
+    } else if (appLimited || windowRtt < noLoadRttNanos) {
+      noLoadRttNanos += (windowRtt - noLoadRttNanos) / LONG_WINDOW;
+    }
+
+    if (appLimited) {
+      return;
+    }
+
+    double gradient = Math.max(MIN_GRADIENT,
+        Math.min(1.0, rttTolerance * noLoadRttNanos / windowRtt));
+    double newLimit = currentLimit * gradient + Math.sqrt(currentLimit);
+    newLimit = currentLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+    limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+  }
+
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * @return average latency of the last sample window in nanoseconds.
+   */
+  public long getRttNanos() {
+    return rttNanos;
+  }
+
+  /**
+   * @return long term average latency in nanoseconds.
+   */
+  public synchronized long getNoLoadRttNanos() {
+    return (long) noLoadRttNanos;
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.client.OzoneBucket;
+import org.apache.hadoop.ozone.om.exceptions.OMException;
+import org.apache.hadoop.ozone.om.exceptions.OMException.ResultCodes;
+import org.apache.hadoop.ozone.s3.exception.S3ErrorTable;
+import org.apache.hadoop.ozone.s3.metrics.S3GatewayMetrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes a list of keys of a bucket, as requested by the S3 DeleteObjects
+ * API.
+ * <p>
+ * The keys are grouped into batches deleted with a single OM call each,
+ * and the batches of a request are deleted in parallel by a shared thread
+ * pool, which bounds the number of batch calls in flight. Keys are not
+ * checked for existence before the delete: a missing key is reported as
+ * deleted, as S3 does. When a batch call fails, the batch is split in
+ * halves which are deleted again, down to the single keys, so that only
+ * the keys around a failing one are retried and the result of each key is
+ * found with few calls.
+ */
+public final class BatchKeyDeleter {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(BatchKeyDeleter.class);
+
+  /**
+   * Maximum number of keys deleted with one OM call.
+   */
+  public static final String OZONE_S3G_DELETE_BATCH_SIZE =
+      "ozone.s3g.delete.batch-size";
+  public static final int OZONE_S3G_DELETE_BATCH_SIZE_DEFAULT = 100;
+
+  /**
+   * Number of threads deleting batches, shared by all requests. With 0 the
+   * batches are deleted sequentially by the request thread.
+   */
+  public static final String OZONE_S3G_DELETE_THREADS =
+      "ozone.s3g.delete.threads";
+  public static final int OZONE_S3G_DELETE_THREADS_DEFAULT = 8;
+
+  /**
+   * Number of batches waiting for a thread. When the queue is full the
+   * request thread deletes its batch itself.
+   */
+  public static final String OZONE_S3G_DELETE_QUEUE_SIZE =
+      "ozone.s3g.delete.queue-size";
+  public static final int OZONE_S3G_DELETE_QUEUE_SIZE_DEFAULT = 1000;
+
+  private static BatchKeyDeleter instance;
+
+  private final S3GatewayMetrics metrics;
+
+  private final ExecutorService executor;
+
+  private final int batchSize;
+
+  private BatchKeyDeleter(OzoneConfiguration conf) {
+    this.metrics = S3GatewayMetrics.create();
+    this.batchSize = Math.max(1, conf.getInt(OZONE_S3G_DELETE_BATCH_SIZE,
+        OZONE_S3G_DELETE_BATCH_SIZE_DEFAULT));
+    int threads = conf.getInt(OZONE_S3G_DELETE_THREADS,
+        OZONE_S3G_DELETE_THREADS_DEFAULT);
+    int queueSize = Math.max(1, conf.getInt(OZONE_S3G_DELETE_QUEUE_SIZE,
+        OZONE_S3G_DELETE_QUEUE_SIZE_DEFAULT));
+    if (threads > 0) {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+          60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueSize),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("S3G-BatchKeyDeleter-%d").build(),
+          (task, threadPool) -> {
+            if (threadPool.isShutdown()) {
+              throw new RejectedExecutionException("Deleter is stopped");
+            }
+            task.run();
+          });
+      pool.allowCoreThreadTimeOut(true);
+      this.executor = pool;
+    } else {
+      this.executor = null;
+    }
+  }
+
+  /**
+   * Create and returns the BatchKeyDeleter instance.
+   *
+   * @return BatchKeyDeleter
+   */
+  public static synchronized BatchKeyDeleter create(OzoneConfiguration conf) {
+    if (instance == null) {
+      instance = new BatchKeyDeleter(conf);
+    }
+    return instance;
+  }
+
+  /**
+   * Stop the threads and drop the instance, the next create() call reads
+   * the configuration again.
+   */
+  @VisibleForTesting
+  public static synchronized void reset() {
+    if (instance != null && instance.executor != null) {
+      instance.executor.shutdownNow();
+    }
+    instance = null;
+  }
+
+  /**
+   * Delete the keys.
+   *
+   * @return the result of each key, in the order of the keys
+   * @throws IOException if the deletion is interrupted
+   */
+  public List<Result> delete(OzoneBucket bucket, List<String> keys)
+      throws IOException {
+    List<List<String>> batches = new ArrayList<>();
+    for (int i = 0; i < keys.size(); i += batchSize) {
+      batches.add(keys.subList(i, Math.min(keys.size(), i + batchSize)));
+    }
+    List<Result> results = new ArrayList<>(keys.size());
+    if (executor == null || batches.size() == 1) {
+      for (List<String> batch : batches) {
+        results.addAll(deleteBatch(bucket, batch));
+      }
+      return results;
+    }
+
+    List<Future<List<Result>>> futures = new ArrayList<>(batches.size());
+    try {
+      for (List<String> batch : batches) {
+        futures.add(executor.submit(() -> deleteBatch(bucket, batch)));
+      }
+      for (Future<List<Result>> future : futures) {
+        results.addAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      futures.forEach(future -> future.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while deleting keys");
+    } catch (ExecutionException e) {
+      // deleteBatch() reports the failures in the results
+      futures.forEach(future -> future.cancel(true));
+      throw new IOException("Failed to delete keys", e.getCause());
+    } catch (RejectedExecutionException e) {
+      futures.forEach(future -> future.cancel(true));
+      throw new IOException("Failed to delete keys", e);
+    }
+    return results;
+  }
+
+  private List<Result> deleteBatch(OzoneBucket bucket, List<String> batch) {
+    long start = System.nanoTime();
+    List<Result> results = new ArrayList<>(batch.size());
+    try {
+      bucket.deleteKeys(batch);
+      for (String key : batch) {
+        results.add(new Result(key, null));
+      }
+    } catch (IOException ex) {
+      LOG.debug("Batch delete of {} keys failed, deleting them again in " +
+          "smaller batches", batch.size(), ex);
+      metrics.incDeleteBatchFallback();
+      retry(bucket, batch, results);
+    }
+    int failed = 0;
+    for (Result result : results) {
+      if (!result.isDeleted()) {
+        failed++;
+      }
+    }
+    metrics.addDeleteBatch(batch.size(), failed, System.nanoTime() - start);
+    return results;
+  }
+
+  /**
+   * Delete the keys of a failed batch in halves, and add their results.
+   */
+  private void retry(OzoneBucket bucket, List<String> keys,
+      List<Result> results) {
+    if (keys.size() == 1) {
+      results.add(deleteKey(bucket, keys.get(0)));
+      return;
+    }
+    int middle = keys.size() / 2;
+    for (List<String> half : Arrays.asList(keys.subList(0, middle),
+        keys.subList(middle, keys.size()))) {
+      if (half.size() == 1) {
+        results.add(deleteKey(bucket, half.get(0)));
+        continue;
+      }
+      try {
+        bucket.deleteKeys(half);
+        for (String key : half) {
+          results.add(new Result(key, null));
+        }
+      } catch (IOException ex) {
+        retry(bucket, half, results);
+      }
+    }
+  }
+
+  private Result deleteKey(OzoneBucket bucket, String key) {
+    try {
+      bucket.deleteKey(key);
+      return new Result(key, null);
+    } catch (OMException ex) {
+      if (ex.getResult() == ResultCodes.KEY_NOT_FOUND) {
+        return new Result(key, null);
+      } else if (ex.getResult() == ResultCodes.PERMISSION_DENIED) {
+        return new Result(key, S3ErrorTable.ACCESS_DENIED.getCode());
+      }
+      LOG.error("Failed to delete key {}", key, ex);
+      return new Result(key, S3ErrorTable.INTERNAL_ERROR.getCode());
+    } catch (IOException ex) {
+      LOG.error("Failed to delete key {}", key, ex);
+      return new Result(key, S3ErrorTable.INTERNAL_ERROR.getCode());
+    }
+  }
+
+  /**
+   * Result of the deletion of one key.
+   */
+  public static final class Result {
+
+    private final String key;
+
+    private final String errorCode;
+
+    private Result(String key, String errorCode) {
+      this.key = key;
+      this.errorCode = errorCode;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public boolean isDeleted() {
+      return errorCode == null;
+    }
+
+    /**
+     * @return the S3 error code, or null if the key is deleted.
+     */
+    public String getErrorCode() {
+      return errorCode;
+    }
+  }
+}
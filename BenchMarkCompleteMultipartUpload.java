@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.genesis;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.ozone.s3.endpoint.CompleteMultipartUploadParts;
+import org.apache.hadoop.ozone.s3.endpoint.CompleteMultipartUploadPartsReader;
+import org.apache.hadoop.ozone.s3.endpoint.CompleteMultipartUploadRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Benchmark reading the part list of CompleteMultipartUpload requests:
+ * JAXB unmarshalling copied to a LinkedHashMap, compared to the StAX reader
+ * filling the compact part table. Run with -prof gc to compare the
+ * allocation per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BenchMarkCompleteMultipartUpload {
+
+  @Param({"10", "100", "1000", "10000"})
+  private int partCount;
+
+  private byte[] body;
+
+  private Unmarshaller unmarshaller;
+
+  @Setup(Level.Trial)
+  public void initialize() throws JAXBException {
+    StringBuilder sb = new StringBuilder("<CompleteMultipartUpload " +
+        "xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+    for (int i = 1; i <= partCount; i++) {
+      sb.append("<Part><PartNumber>").append(i)
+          .append("</PartNumber><ETag>\"").append(i)
+          .append("-0123456789abcdef0123456789abcdef\"</ETag></Part>");
+    }
+    body = sb.append("</CompleteMultipartUpload>").toString()
+        .getBytes(UTF_8);
+    unmarshaller = JAXBContext.newInstance(
+        CompleteMultipartUploadRequest.class).createUnmarshaller();
+  }
+
+  @Benchmark
+  public Map<Integer, String> jaxbToLinkedHashMap() throws JAXBException {
+    CompleteMultipartUploadRequest request =
+        (CompleteMultipartUploadRequest) unmarshaller.unmarshal(
+            new ByteArrayInputStream(body));
+    Map<Integer, String> partsMap = new LinkedHashMap<>();
+    for (CompleteMultipartUploadRequest.Part part : request.getPartList()) {
+      partsMap.put(part.getPartNumber(), part.geteTag());
+    }
+    return partsMap;
+  }
+
+  @Benchmark
+  public CompleteMultipartUploadParts staxToPartTable()
+      throws XMLStreamException {
+    return CompleteMultipartUploadPartsReader.read(
+        new ByteArrayInputStream(body));
+  }
+}
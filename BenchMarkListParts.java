@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.genesis;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.hadoop.ozone.client.OzoneBucket;
+import org.apache.hadoop.ozone.client.OzoneClient;
+import org.apache.hadoop.ozone.client.OzoneClientStub;
+import org.apache.hadoop.ozone.client.OzoneMultipartUploadPartListParts;
+import org.apache.hadoop.ozone.client.io.OzoneOutputStream;
+import org.apache.hadoop.ozone.s3.endpoint.ListPartsOutput;
+import org.apache.hadoop.ozone.s3.endpoint.ListPartsResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark writing ListParts responses: the ListPartsResponse object
+ * graph marshalled by JAXB, compared to the XML streamed from the part
+ * list. Run with -prof gc to compare the allocation per response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BenchMarkListParts {
+
+  private static final String BUCKET = "bucket";
+
+  private static final String KEY = "key";
+
+  @Param({"10", "100", "1000"})
+  private int partCount;
+
+  private String uploadID;
+
+  private OzoneMultipartUploadPartListParts partList;
+
+  private Marshaller marshaller;
+
+  private final OutputStream out = NullOutputStream.NULL_OUTPUT_STREAM;
+
+  @Setup(Level.Trial)
+  public void initialize() throws IOException, JAXBException {
+    OzoneClient client = new OzoneClientStub();
+    client.getObjectStore().createS3Bucket(BUCKET);
+    OzoneBucket bucket = client.getObjectStore().getS3Bucket(BUCKET);
+    uploadID = bucket.initiateMultipartUpload(KEY).getUploadID();
+    for (int i = 1; i <= partCount; i++) {
+      try (OzoneOutputStream part =
+               bucket.createMultipartKey(KEY, 1, i, uploadID)) {
+        part.write(i);
+      }
+    }
+    partList = bucket.listParts(KEY, uploadID, 0, partCount);
+    marshaller = JAXBContext.newInstance(ListPartsResponse.class)
+        .createMarshaller();
+  }
+
+  @Benchmark
+  public void jaxbResponse() throws JAXBException {
+    ListPartsResponse listPartsResponse = new ListPartsResponse();
+    listPartsResponse.setBucket(BUCKET);
+    listPartsResponse.setKey(KEY);
+    listPartsResponse.setUploadID(uploadID);
+    listPartsResponse.setMaxParts(partCount);
+    listPartsResponse.setPartNumberMarker(0);
+    listPartsResponse.setTruncated(partList.isTruncated());
+    listPartsResponse.setStorageClass("STANDARD");
+    partList.getPartInfoList().forEach(partInfo -> {
+      ListPartsResponse.Part part = new ListPartsResponse.Part();
+      part.setPartNumber(partInfo.getPartNumber());
+      part.setETag(partInfo.getPartName());
+      part.setSize(partInfo.getSize());
+      part.setLastModified(Instant.ofEpochMilli(
+          partInfo.getModificationTime()));
+      listPartsResponse.addPart(part);
+    });
+    marshaller.marshal(listPartsResponse, out);
+  }
+
+  @Benchmark
+  public void streamingResponse() throws IOException {
+    new ListPartsOutput(BUCKET, KEY, uploadID, "STANDARD", 0, partCount,
+        partList).write(out);
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.genesis;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.client.OzoneBucket;
+import org.apache.hadoop.ozone.client.OzoneClient;
+import org.apache.hadoop.ozone.client.OzoneClientStub;
+import org.apache.hadoop.ozone.client.io.OzoneOutputStream;
+import org.apache.hadoop.ozone.s3.endpoint.CompleteMultipartUploadParts;
+import org.apache.hadoop.ozone.s3.endpoint.MultipartUploadInitiateResponse;
+import org.apache.hadoop.ozone.s3.endpoint.ObjectEndpoint;
+import org.apache.hadoop.ozone.s3.exception.OS3Exception;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import static org.apache.hadoop.ozone.s3.util.S3Consts.COPY_SOURCE_HEADER;
+import static org.apache.hadoop.ozone.s3.util.S3Consts.RANGE_HEADER;
+
+/**
+ * Benchmark the data paths of ObjectEndpoint against OzoneClientStub: PUT
+ * with plain and aws-chunked bodies, full and range GET, HEAD, DELETE, copy
+ * and a complete multipart upload.
+ * <p>
+ * The stub keeps the keys in memory, the 1 GB size needs about 6 GB of
+ * heap. Run in average time mode (-bm avgt) for the latency, and with
+ * -prof gc for the allocation rate per operation, e.g.
+ * <pre>
+ * ozone genesis -benchmark BenchMarkObjectEndpoint -prof gc -jvmArgs -Xmx8g
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BenchMarkObjectEndpoint {
+
+  private static final String BUCKET = "bucket";
+
+  private static final String OBJECT = "object";
+
+  private static final String SIGNATURE = ";chunk-signature="
+      + "23abb2bd920ddeeaac78a63ed808bc59fa6e7d3ef0e356474b82cdc2f8c93c40";
+
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  private static final int PART_SIZE = 16 * 1024 * 1024;
+
+  @Param({"1024", "1048576", "67108864", "1073741824"})
+  private long objectSize;
+
+  private final Map<String, String> headerValues = new HashMap<>();
+
+  private OzoneBucket bucket;
+
+  private ObjectEndpoint endpoint;
+
+  private byte[] block;
+
+  private String range;
+
+  @Setup(Level.Trial)
+  public void initialize() throws IOException, OS3Exception {
+    OzoneClient client = new OzoneClientStub();
+    client.getObjectStore().createS3Bucket(BUCKET);
+    bucket = client.getObjectStore().getS3Bucket(BUCKET);
+
+    endpoint = new ObjectEndpoint();
+    endpoint.setClient(client);
+    endpoint.setOzoneConfiguration(new OzoneConfiguration());
+    endpoint.setHeaders((HttpHeaders) Proxy.newProxyInstance(
+        HttpHeaders.class.getClassLoader(), new Class<?>[] {HttpHeaders.class},
+        (proxy, method, args) -> "getHeaderString".equals(method.getName())
+            ? headerValues.get((String) args[0]) : null));
+    endpoint.init();
+
+    block = new byte[(int) Math.min(objectSize, BLOCK_SIZE)];
+    ThreadLocalRandom.current().nextBytes(block);
+    // The middle half of the object.
+    range = "bytes=" + objectSize / 4 + "-" + (objectSize * 3 / 4 - 1);
+
+    headerValues.clear();
+    endpoint.put(BUCKET, OBJECT, objectSize, 0, "", body(objectSize, false));
+  }
+
+  @Benchmark
+  public Response putObject() throws IOException, OS3Exception {
+    headerValues.clear();
+    return endpoint.put(BUCKET, "put", objectSize, 0, "",
+        body(objectSize, false));
+  }
+
+  @Benchmark
+  public Response putObjectChunked() throws IOException, OS3Exception {
+    headerValues.clear();
+    headerValues.put("x-amz-content-sha256",
+        "STREAMING-AWS4-HMAC-SHA256-PAYLOAD");
+    return endpoint.put(BUCKET, "put", objectSize, 0, "",
+        body(objectSize, true));
+  }
+
+  @Benchmark
+  public Response getObject() throws IOException, OS3Exception {
+    headerValues.clear();
+    return consume(endpoint.get(BUCKET, OBJECT, null, 0, null, null));
+  }
+
+  @Benchmark
+  public Response getObjectRange() throws IOException, OS3Exception {
+    headerValues.clear();
+    headerValues.put(RANGE_HEADER, range);
+    return consume(endpoint.get(BUCKET, OBJECT, null, 0, null, null));
+  }
+
+  @Benchmark
+  public Response headObject() throws IOException, OS3Exception {
+    headerValues.clear();
+    return endpoint.head(BUCKET, OBJECT);
+  }
+
+  /**
+   * Deletes an empty key, created by the benchmark before each delete.
+   */
+  @Benchmark
+  public Response deleteObject() throws IOException, OS3Exception {
+    headerValues.clear();
+    bucket.createKey("delete", 0).close();
+    return endpoint.delete(BUCKET, "delete", "");
+  }
+
+  @Benchmark
+  public Response copyObject() throws IOException, OS3Exception {
+    headerValues.clear();
+    headerValues.put(COPY_SOURCE_HEADER, BUCKET + "/" + OBJECT);
+    return consume(endpoint.put(BUCKET, "copy", 0, 0, "", null));
+  }
+
+  /**
+   * Initiates, uploads the object in 16 MB parts and completes a multipart
+   * upload.
+   */
+  @Benchmark
+  public Response multipartUpload() throws IOException, OS3Exception {
+    headerValues.clear();
+    String uploadID = ((MultipartUploadInitiateResponse) endpoint
+        .initializeMultipartUpload(BUCKET, "multipart").getEntity())
+        .getUploadID();
+    int partCount = (int) ((objectSize + PART_SIZE - 1) / PART_SIZE);
+    CompleteMultipartUploadParts parts =
+        new CompleteMultipartUploadParts(partCount);
+    for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+      long partSize = Math.min(PART_SIZE,
+          objectSize - (long) (partNumber - 1) * PART_SIZE);
+      Response response = endpoint.put(BUCKET, "multipart", partSize,
+          partNumber, uploadID, body(partSize, false));
+      parts.add(partNumber, response.getHeaderString("ETag"));
+    }
+    return endpoint.completeMultipartUpload(BUCKET, "multipart", uploadID,
+        parts);
+  }
+
+  /**
+   * Write the streamed entity of the response, as the container would.
+   */
+  private static Response consume(Response response) throws IOException {
+    if (response.getEntity() instanceof StreamingOutput) {
+      ((StreamingOutput) response.getEntity())
+          .write(NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+    return response;
+  }
+
+  /**
+   * @return a body of the given length made of the random block, encoded
+   * as aws-chunked with one chunk per block if chunked is set.
+   */
+  private InputStream body(long length, boolean chunked) {
+    if (!chunked) {
+      return new RepeatingInputStream(block, length / block.length,
+          new byte[0]);
+    }
+    byte[] header = (Integer.toHexString(block.length) + SIGNATURE + "\r\n")
+        .getBytes(StandardCharsets.UTF_8);
+    byte[] chunk = new byte[header.length + block.length + 2];
+    System.arraycopy(header, 0, chunk, 0, header.length);
+    System.arraycopy(block, 0, chunk, header.length, block.length);
+    chunk[chunk.length - 2] = '\r';
+    chunk[chunk.length - 1] = '\n';
+    return new RepeatingInputStream(chunk, length / block.length,
+        ("0" + SIGNATURE + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Stream of a unit repeated count times followed by a trailer, without
+   * allocating the whole content.
+   */
+  private static final class RepeatingInputStream extends InputStream {
+
+    private final byte[] unit;
+
+    private final byte[] trailer;
+
+    private long remainingUnits;
+
+    private int position;
+
+    private RepeatingInputStream(byte[] unit, long count, byte[] trailer) {
+      this.unit = unit;
+      this.remainingUnits = count;
+      this.trailer = trailer;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      byte[] current = remainingUnits > 0 ? unit : trailer;
+      if (position == current.length) {
+        if (remainingUnits == 0) {
+          return -1;
+        }
+        remainingUnits--;
+        position = 0;
+        return read(b, off, len);
+      }
+      int n = Math.min(len, current.length - position);
+      System.arraycopy(current, position, b, off, n);
+      position += n;
+      return n;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.genesis;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.hadoop.ozone.s3.MD5DigestInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark the cost of computing the ETag (MD5) of PUT bodies inline,
+ * compared to copying the body without digest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BenchMarkS3ETagDigest {
+
+  @Param({"1024", "1048576", "67108864"})
+  private int objectSize;
+
+  private byte[] content;
+
+  @Setup(Level.Trial)
+  public void initialize() {
+    content = new byte[objectSize];
+    ThreadLocalRandom.current().nextBytes(content);
+  }
+
+  @Benchmark
+  public void copyWithoutDigest(Blackhole blackhole) throws IOException {
+    blackhole.consume(IOUtils.copyLarge(new ByteArrayInputStream(content),
+        NullOutputStream.NULL_OUTPUT_STREAM));
+  }
+
+  @Benchmark
+  public void copyWithDigest(Blackhole blackhole) throws IOException {
+    MD5DigestInputStream in =
+        new MD5DigestInputStream(new ByteArrayInputStream(content));
+    blackhole.consume(IOUtils.copyLarge(in,
+        NullOutputStream.NULL_OUTPUT_STREAM));
+    blackhole.consume(in.getETag());
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.genesis;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.client.OzoneClient;
+import org.apache.hadoop.ozone.client.OzoneClientStub;
+import org.apache.hadoop.ozone.s3.endpoint.ObjectEndpoint;
+import org.apache.hadoop.ozone.s3.exception.OS3Exception;
+import org.apache.hadoop.ozone.s3.exception.S3ErrorTable;
+import org.apache.hadoop.ozone.s3.exception.S3Errors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark the failure path of the S3 gateway: creating S3 errors with and
+ * without stack trace, and upload part requests failing for an unknown
+ * upload, which includes the error logging of the request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BenchMarkS3ErrorPath {
+
+  private static final String BUCKET = "bucket";
+
+  private ObjectEndpoint endpoint;
+
+  @Setup(Level.Trial)
+  public void initialize() throws IOException {
+    OzoneClient client = new OzoneClientStub();
+    client.getObjectStore().createS3Bucket(BUCKET);
+    endpoint = new ObjectEndpoint();
+    endpoint.setClient(client);
+    endpoint.setOzoneConfiguration(new OzoneConfiguration());
+    // No header is set on the requests.
+    endpoint.setHeaders((HttpHeaders) Proxy.newProxyInstance(
+        HttpHeaders.class.getClassLoader(), new Class<?>[] {HttpHeaders.class},
+        (proxy, method, args) -> null));
+  }
+
+  @Benchmark
+  public OS3Exception errorWithStackTrace() {
+    return S3ErrorTable.newError(S3ErrorTable.NO_SUCH_UPLOAD, "uploadID");
+  }
+
+  @Benchmark
+  public OS3Exception errorWithoutStackTrace() {
+    return S3Errors.newError(S3ErrorTable.NO_SUCH_UPLOAD, "uploadID");
+  }
+
+  @Benchmark
+  public OS3Exception uploadPartUnknownUpload() throws IOException {
+    try {
+      endpoint.put(BUCKET, "key", 0, 1, "uploadID", null);
+      throw new IllegalStateException("Upload part should have failed");
+    } catch (OS3Exception ex) {
+      return ex;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.genesis;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.metrics2.impl.MetricsCollectorImpl;
+import org.apache.hadoop.ozone.s3.metrics.S3GatewayMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Benchmark the cost of the S3 gateway metrics per request: counter and
+ * rate updates from 1, 4 and all the available threads on the shared
+ * instance, the synchronized create() called by the endpoints for each
+ * request, the snapshot of the metrics system and the registration.
+ * <p>
+ * Use it to check a new metric against the budget of a request, e.g. with
+ * -prof gc for the allocation of a snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BenchMarkS3GatewayMetrics {
+
+  private S3GatewayMetrics metrics;
+
+  @Setup(Level.Trial)
+  public void initialize() {
+    metrics = S3GatewayMetrics.create();
+  }
+
+  @TearDown(Level.Trial)
+  public void cleanup() {
+    S3GatewayMetrics.unRegister();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void incCounter() {
+    metrics.incCreateKeySuccess();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void incCounter4Threads() {
+    metrics.incCreateKeySuccess();
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public void incCounterMaxThreads() {
+    metrics.incCreateKeySuccess();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void addRate() {
+    metrics.addETagDigest(1000, 1024);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void addRate4Threads() {
+    metrics.addETagDigest(1000, 1024);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public void addRateMaxThreads() {
+    metrics.addETagDigest(1000, 1024);
+  }
+
+  /**
+   * The endpoints get the instance with create() for each request.
+   */
+  @Benchmark
+  @Threads(Threads.MAX)
+  public S3GatewayMetrics createMaxThreads() {
+    return S3GatewayMetrics.create();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public MetricsCollectorImpl snapshot(Collector collector) {
+    collector.collector.clear();
+    metrics.getMetrics(collector.collector, true);
+    return collector.collector;
+  }
+
+  /**
+   * Snapshot while 3 other threads update the metrics, as the metrics
+   * system does on a loaded gateway.
+   */
+  @Benchmark
+  @Group("snapshotUnderLoad")
+  @GroupThreads(1)
+  public MetricsCollectorImpl snapshotUnderLoad(Collector collector) {
+    collector.collector.clear();
+    metrics.getMetrics(collector.collector, true);
+    return collector.collector;
+  }
+
+  @Benchmark
+  @Group("snapshotUnderLoad")
+  @GroupThreads(3)
+  public void updateUnderSnapshot() {
+    metrics.incCreateKeySuccess();
+    metrics.addETagDigest(1000, 1024);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void createAndUnregister() {
+    S3GatewayMetrics.unRegister();
+    S3GatewayMetrics.create();
+  }
+
+  /**
+   * Collector of the snapshots of a thread.
+   */
+  @State(Scope.Thread)
+  public static class Collector {
+    private final MetricsCollectorImpl collector = new MetricsCollectorImpl();
+  }
+}
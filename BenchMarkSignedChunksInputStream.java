@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.genesis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.ozone.s3.BufferedSignedChunksInputStream;
+import org.apache.hadoop.ozone.s3.SignedChunksInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark decoding of aws-chunked (STREAMING-AWS4-HMAC-SHA256-PAYLOAD)
+ * upload bodies with the byte-by-byte and the buffered chunk parser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BenchMarkSignedChunksInputStream {
+
+  private static final String SIGNATURE = ";chunk-signature="
+      + "23abb2bd920ddeeaac78a63ed808bc59fa6e7d3ef0e356474b82cdc2f8c93c40";
+
+  @Param({"16777216"})
+  private int objectSize;
+
+  @Param({"8192", "65536", "1048576"})
+  private int chunkSize;
+
+  /**
+   * Size of the buffer used by the caller, IOUtils.copy uses 4 KB.
+   */
+  @Param({"4096", "65536"})
+  private int readSize;
+
+  private byte[] encodedBody;
+
+  private byte[] readBuffer;
+
+  @Setup(Level.Trial)
+  public void initialize() {
+    byte[] content = new byte[objectSize];
+    ThreadLocalRandom.current().nextBytes(content);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(
+        objectSize + (objectSize / chunkSize + 2) * 100);
+    for (int i = 0; i < content.length; i += chunkSize) {
+      int len = Math.min(chunkSize, content.length - i);
+      writeHeader(out, len);
+      out.write(content, i, len);
+      out.write('\r');
+      out.write('\n');
+    }
+    writeHeader(out, 0);
+    out.write('\r');
+    out.write('\n');
+    encodedBody = out.toByteArray();
+    readBuffer = new byte[readSize];
+  }
+
+  @Benchmark
+  public void signedChunksInputStream(Blackhole blackhole)
+      throws IOException {
+    drain(new SignedChunksInputStream(
+        new ByteArrayInputStream(encodedBody)), blackhole);
+  }
+
+  @Benchmark
+  public void bufferedSignedChunksInputStream(Blackhole blackhole)
+      throws IOException {
+    drain(new BufferedSignedChunksInputStream(
+        new ByteArrayInputStream(encodedBody)), blackhole);
+  }
+
+  private void drain(InputStream in, Blackhole blackhole)
+      throws IOException {
+    long total = 0;
+    int n;
+    while ((n = in.read(readBuffer, 0, readBuffer.length)) != -1) {
+      total += n;
+    }
+    blackhole.consume(total);
+    blackhole.consume(readBuffer);
+  }
+
+  private static void writeHeader(ByteArrayOutputStream out, int len) {
+    byte[] header = (Integer.toHexString(len) + SIGNATURE + "\r\n")
+        .getBytes(StandardCharsets.UTF_8);
+    out.write(header, 0, header.length);
+  }
+}
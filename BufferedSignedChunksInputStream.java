@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Input stream implementation to read body with chunked signatures, using
+ * large reads from the underlying stream.
+ * <p>
+ * Chunked signed payload has the following format (see:
+ * https://docs.aws.amazon.com/AmazonS3/latest/API/sigv4-streaming.html):
+ * <pre>
+ *   hex(chunk-size);chunk-signature=signature\r\n
+ *   chunk-data\r\n
+ *   ...
+ *   0;chunk-signature=signature\r\n
+ *   \r\n
+ * </pre>
+ * Unlike {@link SignedChunksInputStream}, which reads the chunk headers byte
+ * by byte from the request stream, this implementation parses the headers
+ * from an internal buffer that is refilled with bulk reads, and copies chunk
+ * payloads in as large pieces as possible. Reads which are bigger than the
+ * internal buffer are served directly from the underlying stream.
+ */
+public class BufferedSignedChunksInputStream extends InputStream {
+
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Upper limit for the length of a single chunk header line, to fail fast
+   * on garbage input instead of scanning the whole body for a line end.
+   */
+  private static final int MAX_HEADER_LENGTH = 4096;
+
+  private static final String SIGNATURE_PREFIX = ";chunk-signature=";
+
+  private final InputStream originalStream;
+
+  private final byte[] buffer;
+
+  private final byte[] singleByte = new byte[1];
+
+  /**
+   * Position of the next unread byte in the buffer.
+   */
+  private int pos;
+
+  /**
+   * Number of valid bytes in the buffer.
+   */
+  private int limit;
+
+  /**
+   * Remaining payload bytes of the current chunk.
+   */
+  private long remainingData;
+
+  /**
+   * True if at least one chunk has been started, so the CRLF closing the
+   * previous chunk payload has to be consumed before the next header.
+   */
+  private boolean inChunkSequence;
+
+  private boolean finished;
+
+  public BufferedSignedChunksInputStream(InputStream inputStream) {
+    this(inputStream, DEFAULT_BUFFER_SIZE);
+  }
+
+  public BufferedSignedChunksInputStream(InputStream inputStream,
+      int bufferSize) {
+    Preconditions.checkArgument(bufferSize > 0,
+        "Buffer size should be positive: %s", bufferSize);
+    this.originalStream = inputStream;
+    this.buffer = new byte[bufferSize];
+  }
+
+  @Override
+  public int read() throws IOException {
+    int n = read(singleByte, 0, 1);
+    return n == -1 ? -1 : singleByte[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0) {
+      return 0;
+    }
+    int totalRead = 0;
+    while (totalRead < len) {
+      if (remainingData == 0) {
+        // Do not block on the next chunk header if we already have data.
+        if (totalRead > 0 && pos == limit) {
+          break;
+        }
+        if (!nextChunk()) {
+          break;
+        }
+      }
+      int toRead = (int) Math.min(len - totalRead, remainingData);
+      int n;
+      if (pos < limit) {
+        n = Math.min(toRead, limit - pos);
+        System.arraycopy(buffer, pos, b, off + totalRead, n);
+        pos += n;
+      } else if (totalRead > 0) {
+        break;
+      } else if (toRead >= buffer.length) {
+        // Large read: skip the intermediate copy.
+        n = originalStream.read(b, off + totalRead, toRead);
+        if (n == -1) {
+          throw new IOException("Unexpected end of stream, "
+              + remainingData + " bytes are missing from the chunk");
+        }
+      } else {
+        if (fill() == -1) {
+          throw new IOException("Unexpected end of stream, "
+              + remainingData + " bytes are missing from the chunk");
+        }
+        continue;
+      }
+      remainingData -= n;
+      totalRead += n;
+    }
+    return totalRead == 0 ? -1 : totalRead;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (int) Math.min(remainingData, limit - pos);
+  }
+
+  @Override
+  public void close() throws IOException {
+    originalStream.close();
+  }
+
+  /**
+   * Move to the next chunk.
+   *
+   * @return false if there are no more chunks with payload.
+   */
+  private boolean nextChunk() throws IOException {
+    if (finished) {
+      return false;
+    }
+    if (inChunkSequence) {
+      skipChunkTrailer();
+    }
+    long chunkSize = readHeader();
+    if (chunkSize <= 0) {
+      finished = true;
+      return false;
+    }
+    inChunkSequence = true;
+    remainingData = chunkSize;
+    return true;
+  }
+
+  /**
+   * Parse the next chunk header from the buffer.
+   *
+   * @return the size of the chunk, -1 if the stream is finished.
+   */
+  private long readHeader() throws IOException {
+    long chunkSize = 0;
+    int digits = 0;
+    int headerLength = 0;
+    boolean inSize = true;
+    boolean seenCr = false;
+    StringBuilder signaturePrefix = null;
+    while (true) {
+      if (pos == limit && fill() == -1) {
+        // Missing line end (or missing last chunk) is accepted.
+        if (headerLength == 0) {
+          return -1;
+        }
+        break;
+      }
+      byte c = buffer[pos++];
+      headerLength++;
+      if (headerLength > MAX_HEADER_LENGTH) {
+        throw new IOException("Chunk header is longer than "
+            + MAX_HEADER_LENGTH + " bytes");
+      }
+      if (seenCr && c == '\n') {
+        break;
+      }
+      seenCr = c == '\r';
+      if (inSize) {
+        int digit = Character.digit(c, 16);
+        if (digit >= 0) {
+          if (++digits > 15) {
+            throw new IOException("Chunk size is too large");
+          }
+          chunkSize = (chunkSize << 4) | digit;
+          continue;
+        }
+        inSize = false;
+        signaturePrefix = new StringBuilder(SIGNATURE_PREFIX.length());
+      }
+      if (signaturePrefix.length() < SIGNATURE_PREFIX.length()
+          && !seenCr) {
+        signaturePrefix.append((char) c);
+      }
+    }
+    if (digits == 0 || signaturePrefix == null
+        || !SIGNATURE_PREFIX.contentEquals(signaturePrefix)) {
+      throw new IOException("Invalid signature line in chunked payload");
+    }
+    return chunkSize;
+  }
+
+  /**
+   * Consume the CRLF which closes the payload of the previous chunk.
+   */
+  private void skipChunkTrailer() throws IOException {
+    for (int i = 0; i < 2; i++) {
+      if (pos == limit && fill() == -1) {
+        // Missing line end at the end of the stream is accepted.
+        return;
+      }
+      byte expected = i == 0 ? (byte) '\r' : (byte) '\n';
+      if (buffer[pos++] != expected) {
+        throw new IOException("Chunk payload is longer than the size in "
+            + "the chunk header");
+      }
+    }
+  }
+
+  private int fill() throws IOException {
+    int n;
+    do {
+      n = originalStream.read(buffer, 0, buffer.length);
+    } while (n == 0);
+    if (n > 0) {
+      pos = 0;
+      limit = n;
+    }
+    return n;
+  }
+}
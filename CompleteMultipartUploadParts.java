@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.endpoint;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Part list of a CompleteMultipartUpload request, stored as a part number
+ * array and an ETag array.
+ * <p>
+ * It is also a read only map from part number to ETag, iterated in the
+ * order of the request, which is what OM expects. Whether the part numbers
+ * are in ascending order is checked while the parts are added; lookups use
+ * binary search in that case.
+ */
+public class CompleteMultipartUploadParts
+    extends AbstractMap<Integer, String> {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private int[] partNumbers;
+
+  private String[] eTags;
+
+  private int size;
+
+  private boolean ascending = true;
+
+  public CompleteMultipartUploadParts() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public CompleteMultipartUploadParts(int capacity) {
+    partNumbers = new int[Math.max(capacity, 1)];
+    eTags = new String[partNumbers.length];
+  }
+
+  /**
+   * Append a part.
+   */
+  public void add(int partNumber, String eTag) {
+    if (size == partNumbers.length) {
+      int capacity = size * 2;
+      partNumbers = Arrays.copyOf(partNumbers, capacity);
+      eTags = Arrays.copyOf(eTags, capacity);
+    }
+    if (size > 0 && partNumber <= partNumbers[size - 1]) {
+      ascending = false;
+    }
+    partNumbers[size] = partNumber;
+    eTags[size] = eTag;
+    size++;
+  }
+
+  /**
+   * @return true if the part numbers are unique and in ascending order.
+   */
+  public boolean isAscending() {
+    return ascending;
+  }
+
+  public int getPartNumber(int index) {
+    return partNumbers[index];
+  }
+
+  public String getETag(int index) {
+    return eTags[index];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public String get(Object key) {
+    int index = indexOf(key);
+    return index >= 0 ? eTags[index] : null;
+  }
+
+  private int indexOf(Object key) {
+    if (!(key instanceof Integer)) {
+      return -1;
+    }
+    int partNumber = (Integer) key;
+    if (ascending) {
+      int index = Arrays.binarySearch(partNumbers, 0, size, partNumber);
+      return index >= 0 ? index : -1;
+    }
+    // the last one wins, as with a map filled in order
+    for (int i = size - 1; i >= 0; i--) {
+      if (partNumbers[i] == partNumber) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public Set<Entry<Integer, String>> entrySet() {
+    return new AbstractSet<Entry<Integer, String>>() {
+      @Override
+      public Iterator<Entry<Integer, String>> iterator() {
+        return new Iterator<Entry<Integer, String>>() {
+          private int next;
+
+          @Override
+          public boolean hasNext() {
+            return next < size;
+          }
+
+          @Override
+          public Entry<Integer, String> next() {
+            if (next >= size) {
+              throw new NoSuchElementException();
+            }
+            Map.Entry<Integer, String> entry = new SimpleImmutableEntry<>(
+                partNumbers[next], eTags[next]);
+            next++;
+            return entry;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+}
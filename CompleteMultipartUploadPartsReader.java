@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.endpoint;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Provider;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Streaming reader of the CompleteMultipartUpload request body.
+ * <p>
+ * The parts are read with StAX directly into a
+ * {@link CompleteMultipartUploadParts} table, without an intermediate
+ * object per part. Elements are matched by local name, so the body is
+ * accepted with or without the S3 namespace.
+ */
+@Provider
+public class CompleteMultipartUploadPartsReader
+    implements MessageBodyReader<CompleteMultipartUploadParts> {
+
+  private static final XMLInputFactory XML_INPUT_FACTORY =
+      createInputFactory();
+
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+        false);
+    return factory;
+  }
+
+  @Override
+  public boolean isReadable(Class<?> type, Type genericType,
+      Annotation[] annotations, MediaType mediaType) {
+    return type.equals(CompleteMultipartUploadParts.class);
+  }
+
+  @Override
+  public CompleteMultipartUploadParts readFrom(
+      Class<CompleteMultipartUploadParts> type, Type genericType,
+      Annotation[] annotations, MediaType mediaType,
+      MultivaluedMap<String, String> httpHeaders, InputStream entityStream)
+      throws IOException, WebApplicationException {
+    try {
+      return read(entityStream);
+    } catch (XMLStreamException | IllegalArgumentException e) {
+      throw new WebApplicationException("Error in unmarshalling request body",
+          e, 400);
+    }
+  }
+
+  /**
+   * Read the part list of a CompleteMultipartUpload request body.
+   */
+  public static CompleteMultipartUploadParts read(InputStream in)
+      throws XMLStreamException {
+    XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+    try {
+      CompleteMultipartUploadParts parts =
+          new CompleteMultipartUploadParts();
+      int partNumber = 0;
+      String eTag = null;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          String name = reader.getLocalName();
+          if ("Part".equals(name)) {
+            partNumber = 0;
+            eTag = null;
+          } else if ("PartNumber".equals(name)) {
+            partNumber = parsePartNumber(reader.getElementText());
+          } else if ("ETag".equals(name)) {
+            eTag = reader.getElementText();
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT
+            && "Part".equals(reader.getLocalName())) {
+          if (partNumber == 0 || eTag == null) {
+            throw new IllegalArgumentException(
+                "Part without PartNumber or ETag");
+          }
+          parts.add(partNumber, eTag);
+        }
+      }
+      return parts;
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static int parsePartNumber(String value) {
+    int partNumber = Integer.parseInt(value.trim());
+    if (partNumber <= 0) {
+      throw new IllegalArgumentException("Invalid part number: " + value);
+    }
+    return partNumber;
+  }
+}
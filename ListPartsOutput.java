@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.endpoint;
+
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import org.apache.hadoop.ozone.client.OzoneMultipartUploadPartListParts;
+import org.apache.hadoop.ozone.client.OzoneMultipartUploadPartListParts.PartInfo;
+
+import static org.apache.hadoop.ozone.s3.util.S3Consts.S3_XML_NAMESPACE;
+
+/**
+ * Writes the ListParts response directly from the OM part list.
+ * <p>
+ * The document is the same as the JAXB serialization of
+ * {@link ListPartsResponse}, but it is written with StAX while the part
+ * list is iterated, without the intermediate object per part.
+ */
+public class ListPartsOutput implements StreamingOutput {
+
+  private static final XMLOutputFactory XML_OUTPUT_FACTORY =
+      XMLOutputFactory.newInstance();
+
+  /**
+   * Same format as {@link
+   * org.apache.hadoop.ozone.s3.commontypes.IsoDateAdapter}.
+   */
+  private static final DateTimeFormatter ISO_DATE_FORMATTER =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+          .withZone(ZoneOffset.UTC);
+
+  private final String bucket;
+
+  private final String key;
+
+  private final String uploadID;
+
+  private final String storageClass;
+
+  private final int partNumberMarker;
+
+  private final int maxParts;
+
+  private final OzoneMultipartUploadPartListParts partList;
+
+  public ListPartsOutput(String bucket, String key, String uploadID,
+      String storageClass, int partNumberMarker, int maxParts,
+      OzoneMultipartUploadPartListParts partList) {
+    this.bucket = bucket;
+    this.key = key;
+    this.uploadID = uploadID;
+    this.storageClass = storageClass;
+    this.partNumberMarker = partNumberMarker;
+    this.maxParts = maxParts;
+    this.partList = partList;
+  }
+
+  @Override
+  public void write(OutputStream out) throws IOException {
+    try {
+      XMLStreamWriter writer =
+          XML_OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+      writer.writeStartDocument("UTF-8", "1.0");
+      writer.writeStartElement("ListPartsResult");
+      writer.writeDefaultNamespace(S3_XML_NAMESPACE);
+      writeElement(writer, "Bucket", bucket);
+      writeElement(writer, "Key", key);
+      writeElement(writer, "UploadId", uploadID);
+      writeElement(writer, "StorageClass", storageClass);
+      writeElement(writer, "PartNumberMarker",
+          Integer.toString(partNumberMarker));
+      writeElement(writer, "NextPartNumberMarker", Integer.toString(
+          partList.isTruncated() ? partList.getNextPartNumberMarker() : 0));
+      writeElement(writer, "MaxParts", Integer.toString(maxParts));
+      writeElement(writer, "IsTruncated",
+          Boolean.toString(partList.isTruncated()));
+      for (PartInfo partInfo : partList.getPartInfoList()) {
+        writer.writeStartElement("Part");
+        writeElement(writer, "PartNumber",
+            Integer.toString(partInfo.getPartNumber()));
+        writeElement(writer, "LastModified", ISO_DATE_FORMATTER.format(
+            Instant.ofEpochMilli(partInfo.getModificationTime())));
+        writeElement(writer, "ETag", partInfo.getPartName());
+        writeElement(writer, "Size", Long.toString(partInfo.getSize()));
+        writer.writeEndElement();
+      }
+      writer.writeEndElement();
+      writer.writeEndDocument();
+      writer.flush();
+      writer.close();
+    } catch (XMLStreamException e) {
+      throw new IOException("Failed to write ListParts response", e);
+    }
+  }
+
+  private static void writeElement(XMLStreamWriter writer, String name,
+      String value) throws XMLStreamException {
+    if (value == null) {
+      return;
+    }
+    writer.writeStartElement(name);
+    writer.writeCharacters(value);
+    writer.writeEndElement();
+  }
+}
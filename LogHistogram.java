@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.lib.Interns;
+
+/**
+ * Lock-free histogram of non-negative values with logarithmic buckets.
+ * <p>
+ * Each power of 2 is split in {@value #SUB_BUCKETS} buckets, so the
+ * percentiles are exact to 25%, from 1 to Long.MAX_VALUE in
+ * {@value #BUCKETS} buckets. Adding a value is a few atomic increments,
+ * without allocation, unlike MutableQuantiles which synchronizes on each
+ * sample.
+ * <p>
+ * The metrics snapshot publishes the count since the start, and the mean,
+ * median, 90th and 99th percentiles and the maximum of the values added
+ * since the previous snapshot, as the interval of MutableStat, so that a
+ * slow period is not hidden by the history. The getters are cumulative.
+ */
+public final class LogHistogram {
+
+  private static final int SUB_BUCKET_BITS = 2;
+
+  public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  public static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder sum = new LongAdder();
+
+  private final AtomicLong max = new AtomicLong();
+
+  private final AtomicLong intervalMax = new AtomicLong();
+
+  /**
+   * Bucket counts, count and sum at the previous snapshot, guarded by this.
+   * The counts are allocated by the first snapshot with values.
+   */
+  private long[] previousCounts;
+  private long previousCount;
+  private long previousSum;
+
+  private final String name;
+
+  private final MetricsInfo countInfo;
+  private final MetricsInfo meanInfo;
+  private final MetricsInfo p50Info;
+  private final MetricsInfo p90Info;
+  private final MetricsInfo p99Info;
+  private final MetricsInfo maxInfo;
+
+  /**
+   * @param name prefix of the metric names
+   * @param description description of the values
+   */
+  public LogHistogram(String name, String description) {
+    this.name = name;
+    countInfo = Interns.info(name + "Count", "Number of " + description);
+    meanInfo = Interns.info(name + "Mean", "Mean of " + description);
+    p50Info = Interns.info(name + "P50", "Median of " + description);
+    p90Info = Interns.info(name + "P90",
+        "90th percentile of " + description);
+    p99Info = Interns.info(name + "P99",
+        "99th percentile of " + description);
+    maxInfo = Interns.info(name + "Max", "Maximum of " + description);
+  }
+
+  public void add(long value) {
+    long v = Math.max(0, value);
+    counts.incrementAndGet(bucket(v));
+    count.increment();
+    sum.add(v);
+    updateMax(max, v);
+    updateMax(intervalMax, v);
+  }
+
+  private static void updateMax(AtomicLong max, long value) {
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * @return the index of the bucket of the value.
+   */
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS))
+        & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * @return the smallest value of the bucket.
+   */
+  public static long lowerBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long sub = bucket % SUB_BUCKETS;
+    return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  /**
+   * @return the largest value of the bucket.
+   */
+  public static long upperBound(int bucket) {
+    return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getSum() {
+    return sum.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public long getBucketCount(int bucket) {
+    return counts.get(bucket);
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the upper bound of the bucket of the percentile, at most the
+   * maximum, 0 if empty.
+   */
+  public long getPercentile(double percentile) {
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    // Values added since the first pass only move the percentile up.
+    long rank = rank(percentile, total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBound(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  private static long rank(double percentile, long total) {
+    return Math.max(1, (long) Math.ceil(percentile / 100 * total));
+  }
+
+  /**
+   * Add the gauges of the histogram to the record, if it has values, and
+   * start a new interval.
+   */
+  public synchronized void snapshot(MetricsRecordBuilder recordBuilder) {
+    // The count is read before the buckets: add() increments the bucket
+    // first, the buckets have at least the values of the count.
+    long n = getCount();
+    if (n == 0) {
+      return;
+    }
+    long total = getSum();
+    long intervalCount = n - previousCount;
+    long intervalSum = total - previousSum;
+    long maxValue = intervalMax.getAndSet(0);
+    previousCount = n;
+    previousSum = total;
+    if (previousCounts == null) {
+      previousCounts = new long[BUCKETS];
+    }
+    // The three percentiles of the interval in one pass, which also moves
+    // the bucket counts of the interval start.
+    long rank50 = rank(50, intervalCount);
+    long rank90 = rank(90, intervalCount);
+    long rank99 = rank(99, intervalCount);
+    long p50 = -1;
+    long p90 = -1;
+    long p99 = -1;
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      long current = counts.get(i);
+      long added = current - previousCounts[i];
+      if (added == 0) {
+        continue;
+      }
+      previousCounts[i] = current;
+      seen += added;
+      long bound = Math.min(upperBound(i), maxValue);
+      if (p50 < 0 && seen >= rank50) {
+        p50 = bound;
+      }
+      if (p90 < 0 && seen >= rank90) {
+        p90 = bound;
+      }
+      if (p99 < 0 && seen >= rank99) {
+        p99 = bound;
+      }
+    }
+    long mean = 0;
+    if (intervalCount > 0) {
+      mean = intervalSum / intervalCount;
+    } else {
+      p50 = 0;
+      p90 = 0;
+      p99 = 0;
+    }
+    recordBuilder.addGauge(countInfo, n)
+        .addGauge(meanInfo, mean)
+        .addGauge(p50Info, p50 < 0 ? maxValue : p50)
+        .addGauge(p90Info, p90 < 0 ? maxValue : p90)
+        .addGauge(p99Info, p99 < 0 ? maxValue : p99)
+        .addGauge(maxInfo, maxValue);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Input stream which computes the MD5 digest of the data while it is read,
+ * so the ETag of an uploaded object is available without a second pass.
+ * <p>
+ * Time spent in the digest computation is accumulated separately, to make
+ * the cost visible in the metrics.
+ */
+public class MD5DigestInputStream extends FilterInputStream {
+
+  private final MessageDigest messageDigest;
+
+  private long bytesRead;
+
+  private long digestNanos;
+
+  private byte[] digest;
+
+  public MD5DigestInputStream(InputStream in) {
+    super(in);
+    try {
+      this.messageDigest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not available", e);
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = in.read();
+    if (b != -1) {
+      long start = System.nanoTime();
+      messageDigest.update((byte) b);
+      digestNanos += System.nanoTime() - start;
+      bytesRead++;
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = in.read(b, off, len);
+    if (n > 0) {
+      long start = System.nanoTime();
+      messageDigest.update(b, off, n);
+      digestNanos += System.nanoTime() - start;
+      bytesRead += n;
+    }
+    return n;
+  }
+
+  /**
+   * Skipped bytes would be missing from the digest.
+   */
+  @Override
+  public long skip(long n) throws IOException {
+    throw new IOException("skip is not supported by " +
+        getClass().getSimpleName());
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  /**
+   * Finish the digest computation. Should be called once all the data is
+   * read, the stream can't be used to compute the digest after this call.
+   *
+   * @return the MD5 digest of the data read.
+   */
+  public byte[] getDigest() {
+    if (digest == null) {
+      long start = System.nanoTime();
+      digest = messageDigest.digest();
+      digestNanos += System.nanoTime() - start;
+    }
+    return digest;
+  }
+
+  /**
+   * @return the hex encoded MD5 digest of the data read, as used in the ETag
+   * of single part uploads.
+   */
+  public String getETag() {
+    return Hex.encodeHexString(getDigest());
+  }
+
+  /**
+   * Check the digest against the decoded value of a Content-MD5 header.
+   */
+  public boolean matches(byte[] expectedDigest) {
+    return Arrays.equals(getDigest(), expectedDigest);
+  }
+
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  public long getDigestNanos() {
+    return digestNanos;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Results of the lookups of multipart uploads done before a part is
+ * transferred, so that the parts of an upload, or the retries of a part of
+ * a missing upload, don't all call OM.
+ * <p>
+ * Both the found and the missing uploads are kept, up to a maximum number
+ * and for a limited time. An upload completed or aborted through this
+ * gateway is marked as missing. An upload finished through another gateway
+ * is still seen as found until the entry expires: its parts are then
+ * rejected by OM when they are committed, as without the lookup.
+ */
+public final class MultipartUploadLookupCache {
+
+  /**
+   * Maximum number of uploads kept.
+   */
+  public static final String OZONE_S3G_MULTIPART_LOOKUP_CACHE_SIZE =
+      "ozone.s3g.multipart.lookup-cache.size";
+  public static final int OZONE_S3G_MULTIPART_LOOKUP_CACHE_SIZE_DEFAULT =
+      10000;
+
+  /**
+   * Time an upload is kept after its lookup.
+   */
+  public static final String OZONE_S3G_MULTIPART_LOOKUP_CACHE_EXPIRY =
+      "ozone.s3g.multipart.lookup-cache.expiry";
+  public static final String
+      OZONE_S3G_MULTIPART_LOOKUP_CACHE_EXPIRY_DEFAULT = "10m";
+
+  private static MultipartUploadLookupCache instance;
+
+  private final Cache<String, Boolean> uploads;
+
+  private MultipartUploadLookupCache(OzoneConfiguration conf,
+      Ticker ticker) {
+    this.uploads = CacheBuilder.newBuilder()
+        .ticker(ticker)
+        .maximumSize(conf.getInt(OZONE_S3G_MULTIPART_LOOKUP_CACHE_SIZE,
+            OZONE_S3G_MULTIPART_LOOKUP_CACHE_SIZE_DEFAULT))
+        .expireAfterWrite(conf.getTimeDuration(
+            OZONE_S3G_MULTIPART_LOOKUP_CACHE_EXPIRY,
+            OZONE_S3G_MULTIPART_LOOKUP_CACHE_EXPIRY_DEFAULT,
+            TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  /**
+   * Create and returns the MultipartUploadLookupCache instance.
+   *
+   * @return MultipartUploadLookupCache
+   */
+  public static synchronized MultipartUploadLookupCache create(
+      OzoneConfiguration conf) {
+    return create(conf, Ticker.systemTicker());
+  }
+
+  /**
+   * Create the instance with a ticker measuring the expiry.
+   */
+  @VisibleForTesting
+  static synchronized MultipartUploadLookupCache create(
+      OzoneConfiguration conf, Ticker ticker) {
+    if (instance == null) {
+      instance = new MultipartUploadLookupCache(conf, ticker);
+    }
+    return instance;
+  }
+
+  @VisibleForTesting
+  public static synchronized void reset() {
+    instance = null;
+  }
+
+  /**
+   * @return true if the upload was found, false if it was missing, null if
+   * it is not known.
+   */
+  public Boolean exists(String uploadID) {
+    return uploads.getIfPresent(uploadID);
+  }
+
+  public void onFound(String uploadID) {
+    uploads.put(uploadID, Boolean.TRUE);
+  }
+
+  /**
+   * Record a missing, completed or aborted upload.
+   */
+  public void onMissing(String uploadID) {
+    uploads.put(uploadID, Boolean.FALSE);
+  }
+}
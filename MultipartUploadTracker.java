@@ -0,0 +1,365 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the multipart uploads in progress through this gateway.
+ * <p>
+ * An upload is tracked from its initiation, or from the first part seen by
+ * this gateway, until it is completed or aborted. The number of tracked
+ * uploads is bounded, uploads over the limit are only counted. Uploads
+ * without any activity for longer than the expiry are dropped, so that
+ * abandoned uploads don't fill the tracker. The state is in memory: uploads
+ * served by other gateways or started before a restart are seen only
+ * partially.
+ * <p>
+ * The aggregated state is reported with the {@link S3GatewayMetrics}
+ * record. Uploads without any activity for longer than the idle threshold
+ * are reported as idle, as they are probably abandoned and keep the space
+ * of their parts allocated until they are aborted.
+ */
+public final class MultipartUploadTracker {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(MultipartUploadTracker.class);
+
+  /**
+   * Maximum number of tracked uploads.
+   */
+  public static final String OZONE_S3G_MULTIPART_TRACKER_MAX_UPLOADS =
+      "ozone.s3g.multipart.tracker.max-uploads";
+  public static final int OZONE_S3G_MULTIPART_TRACKER_MAX_UPLOADS_DEFAULT =
+      10000;
+
+  /**
+   * Uploads without activity for longer than this are reported as idle.
+   */
+  public static final String OZONE_S3G_MULTIPART_TRACKER_IDLE_THRESHOLD =
+      "ozone.s3g.multipart.tracker.idle-threshold";
+  public static final String
+      OZONE_S3G_MULTIPART_TRACKER_IDLE_THRESHOLD_DEFAULT = "24h";
+
+  /**
+   * Uploads without activity for longer than this are no longer tracked.
+   */
+  public static final String OZONE_S3G_MULTIPART_TRACKER_EXPIRY =
+      "ozone.s3g.multipart.tracker.expiry";
+  public static final String OZONE_S3G_MULTIPART_TRACKER_EXPIRY_DEFAULT =
+      "7d";
+
+  /**
+   * Minimum time between two scans for expired uploads when the tracker is
+   * full.
+   */
+  private static final long EXPIRY_SCAN_INTERVAL_MILLIS =
+      TimeUnit.MINUTES.toMillis(1);
+
+  private static final MetricsInfo OPEN = Interns.info(
+      "MultipartUploadsOpen", "Number of tracked open multipart uploads");
+  private static final MetricsInfo UNTRACKED = Interns.info(
+      "MultipartUploadsUntracked",
+      "Number of upload requests not tracked as the tracker was full");
+  private static final MetricsInfo EXPIRED = Interns.info(
+      "MultipartUploadsExpired",
+      "Number of uploads no longer tracked as they were inactive");
+  private static final MetricsInfo IDLE = Interns.info(
+      "MultipartUploadsIdle",
+      "Number of open uploads idle for longer than the threshold");
+  private static final MetricsInfo BYTES_PENDING = Interns.info(
+      "MultipartUploadsBytesPending",
+      "Bytes of the parts uploaded to open uploads");
+  private static final MetricsInfo PARTS_MAX = Interns.info(
+      "MultipartUploadsPartsMax", "Maximum number of parts of open uploads");
+  private static final MetricsInfo PARTS_AVG = Interns.info(
+      "MultipartUploadsPartsAvg", "Average number of parts of open uploads");
+  private static final MetricsInfo OLDEST_AGE = Interns.info(
+      "MultipartUploadsOldestAgeSecs", "Age of the oldest open upload");
+
+  /**
+   * Upper bounds of the age buckets.
+   */
+  private static final long[] AGE_BUCKETS = {
+      TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1),
+      TimeUnit.DAYS.toMillis(7), Long.MAX_VALUE};
+
+  private static final MetricsInfo[] AGE_BUCKET_INFOS = {
+      Interns.info("MultipartUploadsAgeUnder1h",
+          "Open uploads younger than an hour"),
+      Interns.info("MultipartUploadsAgeUnder1d",
+          "Open uploads between an hour and a day old"),
+      Interns.info("MultipartUploadsAgeUnder7d",
+          "Open uploads between a day and a week old"),
+      Interns.info("MultipartUploadsAgeOver7d",
+          "Open uploads older than a week")};
+
+  private static MultipartUploadTracker instance;
+
+  private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+  /**
+   * Monotonic time in milliseconds.
+   */
+  private final LongSupplier clock;
+
+  private final int maxUploads;
+
+  private final long idleThresholdMillis;
+
+  private final long expiryMillis;
+
+  private final AtomicLong untracked = new AtomicLong();
+
+  private final AtomicLong expired = new AtomicLong();
+
+  private volatile long nextExpiryScan;
+
+  private MultipartUploadTracker(OzoneConfiguration conf,
+      LongSupplier clock) {
+    this.clock = clock;
+    this.maxUploads = conf.getInt(OZONE_S3G_MULTIPART_TRACKER_MAX_UPLOADS,
+        OZONE_S3G_MULTIPART_TRACKER_MAX_UPLOADS_DEFAULT);
+    this.idleThresholdMillis = conf.getTimeDuration(
+        OZONE_S3G_MULTIPART_TRACKER_IDLE_THRESHOLD,
+        OZONE_S3G_MULTIPART_TRACKER_IDLE_THRESHOLD_DEFAULT,
+        TimeUnit.MILLISECONDS);
+    this.expiryMillis = conf.getTimeDuration(
+        OZONE_S3G_MULTIPART_TRACKER_EXPIRY,
+        OZONE_S3G_MULTIPART_TRACKER_EXPIRY_DEFAULT, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Create and returns the MultipartUploadTracker instance.
+   *
+   * @return MultipartUploadTracker
+   */
+  public static synchronized MultipartUploadTracker create(
+      OzoneConfiguration conf) {
+    return create(conf, Time::monotonicNow);
+  }
+
+  /**
+   * Create the instance with a clock returning the monotonic time in
+   * milliseconds.
+   */
+  @VisibleForTesting
+  static synchronized MultipartUploadTracker create(OzoneConfiguration conf,
+      LongSupplier clock) {
+    if (instance == null) {
+      instance = new MultipartUploadTracker(conf, clock);
+    }
+    return instance;
+  }
+
+  /**
+   * @return the instance, or null if it is not created yet.
+   */
+  static synchronized MultipartUploadTracker getInstance() {
+    return instance;
+  }
+
+  /**
+   * Drop the instance, the next create() call reads the configuration again.
+   */
+  @VisibleForTesting
+  public static synchronized void reset() {
+    instance = null;
+  }
+
+  public void onInitiate(String uploadID, String key) {
+    track(uploadID, key);
+  }
+
+  /**
+   * Record an uploaded or copied part, a part uploaded again replaces the
+   * previous one.
+   */
+  public void onPart(String uploadID, String key, int partNumber,
+      long bytes) {
+    Upload upload = track(uploadID, key);
+    if (upload != null) {
+      Long previous = upload.parts.put(partNumber, bytes);
+      upload.bytes.addAndGet(previous == null ? bytes : bytes - previous);
+      upload.lastActivity = clock.getAsLong();
+      upload.reportedIdle = false;
+    }
+  }
+
+  /**
+   * Stop tracking a completed, aborted or unknown upload.
+   */
+  public void onFinish(String uploadID) {
+    uploads.remove(uploadID);
+  }
+
+  private Upload track(String uploadID, String key) {
+    Upload upload = uploads.get(uploadID);
+    if (upload != null) {
+      return upload;
+    }
+    // The limit can be exceeded by the concurrent calls, it only has to
+    // bound the memory.
+    if (uploads.size() >= maxUploads) {
+      long now = clock.getAsLong();
+      if (now >= nextExpiryScan) {
+        nextExpiryScan = now + EXPIRY_SCAN_INTERVAL_MILLIS;
+        expire(now);
+      }
+      if (uploads.size() >= maxUploads) {
+        untracked.incrementAndGet();
+        return null;
+      }
+    }
+    return uploads.computeIfAbsent(uploadID,
+        id -> new Upload(key, clock.getAsLong()));
+  }
+
+  /**
+   * Drop the uploads inactive for longer than the expiry.
+   */
+  private void expire(long now) {
+    for (Map.Entry<String, Upload> entry : uploads.entrySet()) {
+      Upload upload = entry.getValue();
+      if (now - upload.lastActivity > expiryMillis
+          && uploads.remove(entry.getKey(), upload)) {
+        expired.incrementAndGet();
+        LOG.info("Multipart upload {} of {} is inactive for {} ms, it is " +
+            "no longer tracked", entry.getKey(), upload.key,
+            now - upload.lastActivity);
+      }
+    }
+  }
+
+  /**
+   * @return the uploads idle for longer than the threshold.
+   */
+  public List<String> getIdleUploads() {
+    long now = clock.getAsLong();
+    List<String> idle = new ArrayList<>();
+    for (Map.Entry<String, Upload> entry : uploads.entrySet()) {
+      if (now - entry.getValue().lastActivity > idleThresholdMillis) {
+        idle.add(entry.getValue().key + " " + entry.getKey());
+      }
+    }
+    return idle;
+  }
+
+  /**
+   * @return true if the upload is tracked, i.e. initiated or seen with a part
+   * and not finished.
+   */
+  public boolean isOpen(String uploadID) {
+    return uploads.containsKey(uploadID);
+  }
+
+  public int getOpenUploads() {
+    return uploads.size();
+  }
+
+  /**
+   * Add the aggregated state to the metrics record.
+   */
+  void snapshot(MetricsRecordBuilder recordBuilder) {
+    long now = clock.getAsLong();
+    expire(now);
+    long bytesPending = 0;
+    long partsSum = 0;
+    int partsMax = 0;
+    int idle = 0;
+    long oldestAge = 0;
+    long[] ageBuckets = new long[AGE_BUCKETS.length];
+    int open = 0;
+    for (Map.Entry<String, Upload> entry : uploads.entrySet()) {
+      Upload upload = entry.getValue();
+      open++;
+      int parts = upload.parts.size();
+      bytesPending += upload.bytes.get();
+      partsSum += parts;
+      partsMax = Math.max(partsMax, parts);
+      long age = now - upload.start;
+      oldestAge = Math.max(oldestAge, age);
+      for (int i = 0; i < AGE_BUCKETS.length; i++) {
+        if (age < AGE_BUCKETS[i]) {
+          ageBuckets[i]++;
+          break;
+        }
+      }
+      if (now - upload.lastActivity > idleThresholdMillis) {
+        idle++;
+        if (!upload.reportedIdle) {
+          upload.reportedIdle = true;
+          LOG.info("Multipart upload {} of {} is idle for {} ms with {} " +
+              "parts and {} bytes, it is probably abandoned", entry.getKey(),
+              upload.key, now - upload.lastActivity, parts,
+              upload.bytes.get());
+        }
+      }
+    }
+    recordBuilder.addGauge(OPEN, open);
+    recordBuilder.addCounter(UNTRACKED, untracked.get());
+    recordBuilder.addCounter(EXPIRED, expired.get());
+    recordBuilder.addGauge(IDLE, idle);
+    recordBuilder.addGauge(BYTES_PENDING, bytesPending);
+    recordBuilder.addGauge(PARTS_MAX, partsMax);
+    recordBuilder.addGauge(PARTS_AVG,
+        open == 0 ? 0.0 : (double) partsSum / open);
+    recordBuilder.addGauge(OLDEST_AGE, TimeUnit.MILLISECONDS.toSeconds(
+        oldestAge));
+    for (int i = 0; i < AGE_BUCKETS.length; i++) {
+      recordBuilder.addGauge(AGE_BUCKET_INFOS[i], ageBuckets[i]);
+    }
+  }
+
+  /**
+   * State of an open upload.
+   */
+  private static final class Upload {
+    private final String key;
+    private final long start;
+    /**
+     * Size of the parts by part number.
+     */
+    private final Map<Integer, Long> parts = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long lastActivity;
+    private volatile boolean reportedIdle;
+
+    private Upload(String key, long start) {
+      this.key = key;
+      this.start = start;
+      this.lastActivity = start;
+    }
+  }
+}
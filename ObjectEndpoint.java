@@ -38,20 +38,21 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.hdds.client.ReplicationFactor;
 import org.apache.hadoop.hdds.client.ReplicationType;
@@ -62,6 +63,7 @@ import org.apache.hadoop.ozone.client.OzoneBucket;
 import org.apache.hadoop.ozone.client.OzoneKey;
 import org.apache.hadoop.ozone.client.OzoneKeyDetails;
 import org.apache.hadoop.ozone.client.OzoneMultipartUploadPartListParts;
+import org.apache.hadoop.ozone.client.io.KeyOutputStream;
 import org.apache.hadoop.ozone.client.io.OzoneInputStream;
 import org.apache.hadoop.ozone.client.io.OzoneOutputStream;
 import org.apache.hadoop.ozone.om.exceptions.OMException;
@@ -69,33 +71,53 @@ import org.apache.hadoop.ozone.om.exceptions.OMException.ResultCodes;
 import org.apache.hadoop.ozone.om.helpers.OmMultipartCommitUploadPartInfo;
 import org.apache.hadoop.ozone.om.helpers.OmMultipartInfo;
 import org.apache.hadoop.ozone.om.helpers.OmMultipartUploadCompleteInfo;
+import org.apache.hadoop.ozone.s3.BufferedSignedChunksInputStream;
 import org.apache.hadoop.ozone.s3.HeaderPreprocessor;
-import org.apache.hadoop.ozone.s3.SignedChunksInputStream;
+import org.apache.hadoop.ozone.s3.MD5DigestInputStream;
+import org.apache.hadoop.ozone.s3.MultipartUploadLookupCache;
+import org.apache.hadoop.ozone.s3.ParallelKeyReader;
+import org.apache.hadoop.ozone.s3.S3AdmissionController;
 import org.apache.hadoop.ozone.s3.exception.OS3Exception;
 import org.apache.hadoop.ozone.s3.exception.S3ErrorTable;
+import org.apache.hadoop.ozone.s3.metrics.MultipartUploadTracker;
+import org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter;
+import org.apache.hadoop.ozone.s3.metrics.S3RequestCostSampler;
+import org.apache.hadoop.ozone.s3.metrics.S3RequestTimer;
+import org.apache.hadoop.ozone.s3.metrics.S3SlowRequestLog;
 import org.apache.hadoop.ozone.s3.util.RFC1123Util;
 import org.apache.hadoop.ozone.s3.util.RangeHeader;
 import org.apache.hadoop.ozone.s3.util.RangeHeaderParserUtil;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+import org.apache.hadoop.ozone.s3.util.S3StorageClassResolver;
 import org.apache.hadoop.ozone.s3.util.S3StorageType;
+import org.apache.hadoop.ozone.s3.util.ThrottledLogger;
 import org.apache.hadoop.ozone.web.utils.OzoneUtils;
 import org.apache.hadoop.util.Time;
+import org.glassfish.jersey.server.CloseableService;
 
 import com.google.common.annotations.VisibleForTesting;
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
 import static javax.ws.rs.core.HttpHeaders.CONTENT_LENGTH;
 import static javax.ws.rs.core.HttpHeaders.LAST_MODIFIED;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 
 import org.apache.commons.lang3.tuple.Pair;
 
 import static org.apache.hadoop.ozone.om.OMConfigKeys.OZONE_OM_ENABLE_FILESYSTEM_PATHS;
 import static org.apache.hadoop.ozone.s3.S3GatewayConfigKeys.OZONE_S3G_CLIENT_BUFFER_SIZE_DEFAULT;
 import static org.apache.hadoop.ozone.s3.S3GatewayConfigKeys.OZONE_S3G_CLIENT_BUFFER_SIZE_KEY;
+import static org.apache.hadoop.ozone.s3.endpoint.StreamingCopyOutput.OZONE_S3G_COPY_KEEP_ALIVE_INTERVAL;
+import static org.apache.hadoop.ozone.s3.endpoint.StreamingCopyOutput.OZONE_S3G_COPY_KEEP_ALIVE_INTERVAL_DEFAULT;
+import static org.apache.hadoop.ozone.s3.endpoint.StreamingCopyOutput.OZONE_S3G_COPY_KEEP_ALIVE_THRESHOLD;
+import static org.apache.hadoop.ozone.s3.endpoint.StreamingCopyOutput.OZONE_S3G_COPY_KEEP_ALIVE_THRESHOLD_DEFAULT;
 import static org.apache.hadoop.ozone.s3.exception.S3ErrorTable.ENTITY_TOO_SMALL;
 import static org.apache.hadoop.ozone.s3.exception.S3ErrorTable.INVALID_ARGUMENT;
 import static org.apache.hadoop.ozone.s3.exception.S3ErrorTable.INVALID_REQUEST;
 import static org.apache.hadoop.ozone.s3.exception.S3ErrorTable.NO_SUCH_UPLOAD;
 import static org.apache.hadoop.ozone.s3.exception.S3ErrorTable.PRECOND_FAILED;
-import static org.apache.hadoop.ozone.s3.exception.S3ErrorTable.newError;
+import static org.apache.hadoop.ozone.s3.exception.S3Errors.newError;
 import static org.apache.hadoop.ozone.s3.util.S3Consts.ACCEPT_RANGE_HEADER;
 import static org.apache.hadoop.ozone.s3.util.S3Consts.CONTENT_RANGE_HEADER;
 import static org.apache.hadoop.ozone.s3.util.S3Consts.COPY_SOURCE_HEADER;
@@ -105,6 +127,13 @@ import static org.apache.hadoop.ozone.s3.util.S3Consts.COPY_SOURCE_IF_UNMODIFIED
 import static org.apache.hadoop.ozone.s3.util.S3Consts.RANGE_HEADER;
 import static org.apache.hadoop.ozone.s3.util.S3Consts.RANGE_HEADER_SUPPORTED_UNIT;
 import static org.apache.hadoop.ozone.s3.util.S3Consts.STORAGE_CLASS_HEADER;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.ADMISSION;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.BUCKET_LOOKUP;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.COMMIT;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.DATA_TRANSFER;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.KEY_LOOKUP;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.OM_CALL;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.STREAM_OPEN;
 import static org.apache.hadoop.ozone.s3.util.S3Utils.urlDecode;
 
 import org.apache.http.HttpStatus;
@@ -120,9 +149,59 @@ public class ObjectEndpoint extends EndpointBase {
   private static final Logger LOG =
       LoggerFactory.getLogger(ObjectEndpoint.class);
 
+  /**
+   * Failures are logged at most once per second and call site, as they can
+   * come at the request rate when the cluster is in trouble.
+   */
+  private static final ThrottledLogger PUT_ERROR_LOG =
+      new ThrottledLogger(LOG, 1, TimeUnit.SECONDS);
+
+  private static final ThrottledLogger INIT_MPU_ERROR_LOG =
+      new ThrottledLogger(LOG, 1, TimeUnit.SECONDS);
+
+  private static final ThrottledLogger COMPLETE_MPU_ERROR_LOG =
+      new ThrottledLogger(LOG, 1, TimeUnit.SECONDS);
+
+  private static final ThrottledLogger COPY_ERROR_LOG =
+      new ThrottledLogger(LOG, 1, TimeUnit.SECONDS);
+
+  private static final String CONTENT_MD5_HEADER = "Content-MD5";
+
+  private static final String ETAG = "ETag";
+
+  private static final String EXPECT_HEADER = "Expect";
+
+  private static final String EXPECT_CONTINUE = "100-continue";
+
+  private static final int MD5_DIGEST_LENGTH = 16;
+
+  /**
+   * MD5 digest of zero bytes.
+   */
+  private static final String EMPTY_CONTENT_ETAG =
+      "d41d8cd98f00b204e9800998ecf8427e";
+
+  private static final OS3Exception BAD_DIGEST = new OS3Exception(
+      "BadDigest", "The Content-MD5 you specified did not match what we " +
+      "received.", HttpStatus.SC_BAD_REQUEST);
+
+  private static final OS3Exception INVALID_DIGEST = new OS3Exception(
+      "InvalidDigest", "The Content-MD5 you specified is not valid.",
+      HttpStatus.SC_BAD_REQUEST);
+
   @Context
   private HttpHeaders headers;
 
+  @Context
+  private CloseableService closeableService;
+
+
+  /**
+   * Copy buffers, reused by the request threads.
+   */
+  private static final ThreadLocal<byte[]> COPY_BUFFER = new ThreadLocal<>();
+
+  private static final int DEFAULT_COPY_BUFFER_SIZE = 4 * 1024;
 
   private List<String> customizableGetHeaders = new ArrayList<>();
   private int bufferSize;
@@ -144,6 +223,11 @@ public class ObjectEndpoint extends EndpointBase {
     bufferSize = (int) ozoneConfiguration.getStorageSize(
         OZONE_S3G_CLIENT_BUFFER_SIZE_KEY,
         OZONE_S3G_CLIENT_BUFFER_SIZE_DEFAULT, StorageUnit.BYTES);
+    // Resolve the default storage class once, not on the first PUT.
+    getStorageClassResolver();
+    S3SlowRequestLog.create(ozoneConfiguration);
+    S3RequestCostSampler.create(ozoneConfiguration);
+    S3MetricsMmapWriter.create(ozoneConfiguration);
   }
 
   /**
@@ -160,13 +244,37 @@ public class ObjectEndpoint extends EndpointBase {
       @QueryParam("partNumber")  int partNumber,
       @QueryParam("uploadId") @DefaultValue("") String uploadID,
       InputStream body) throws IOException, OS3Exception {
+    // Nothing reads the body before the bucket, the upload and the
+    // permissions are checked: with Expect: 100-continue the container
+    // sends the 100 response only when the body is read, so a rejected
+    // request does not transfer its payload.
+    S3RequestTimer timer = S3RequestTimer.start(putOperation(uploadID),
+        bucketName, keyPath);
+    CountingInputStream countingBody = new CountingInputStream(body);
+    try {
+      return admitted(timer, keyPath, permit -> putObject(bucketName,
+          keyPath, length, partNumber, uploadID, countingBody, timer,
+          permit));
+    } catch (OS3Exception | OMException ex) {
+      if (countingBody.getByteCount() == 0 && length > 0) {
+        boolean expectContinue = EXPECT_CONTINUE.equalsIgnoreCase(
+            headers.getHeaderString(EXPECT_HEADER));
+        getMetrics().incPutRejectedBeforeBody(expectContinue ? length : 0);
+      }
+      throw ex;
+    }
+  }
 
+  private Response putObject(String bucketName, String keyPath,
+      long length, int partNumber, String uploadID, InputStream body,
+      S3RequestTimer timer, S3AdmissionController.Permit permit)
+      throws IOException, OS3Exception {
     OzoneOutputStream output = null;
 
     if (uploadID != null && !uploadID.equals("")) {
       // If uploadID is specified, it is a request for upload part
       return createMultipartKey(bucketName, keyPath, length,
-          partNumber, uploadID, body);
+          partNumber, uploadID, body, timer);
     }
 
     String copyHeader = null, storageType = null;
@@ -174,42 +282,69 @@ public class ObjectEndpoint extends EndpointBase {
       copyHeader = headers.getHeaderString(COPY_SOURCE_HEADER);
       storageType = headers.getHeaderString(STORAGE_CLASS_HEADER);
 
-      S3StorageType s3StorageType;
-      boolean storageTypeDefault;
-      if (storageType == null || storageType.equals("")) {
-        s3StorageType = S3StorageType.getDefault(ozoneConfiguration);
-        storageTypeDefault = true;
-      } else {
-        s3StorageType = toS3StorageType(storageType);
-        storageTypeDefault = false;
-      }
+      S3StorageType s3StorageType =
+          getStorageClassResolver().resolve(storageType);
+      boolean storageTypeDefault =
+          storageType == null || storageType.equals("");
       ReplicationType replicationType = s3StorageType.getType();
       ReplicationFactor replicationFactor = s3StorageType.getFactor();
 
       if (copyHeader != null) {
         //Copy object, as copy source available.
-        CopyObjectResponse copyObjectResponse = copyObject(
-            copyHeader, bucketName, keyPath, replicationType,
-            replicationFactor, storageTypeDefault);
-        return Response.status(Status.OK).entity(copyObjectResponse).header(
-            "Connection", "close").build();
+        return copyObject(copyHeader, bucketName, keyPath,
+            replicationType, replicationFactor, storageTypeDefault,
+            timer, permit);
       }
 
       // Normal put object
-      OzoneBucket bucket = getBucket(bucketName);
+      OzoneBucket bucket = getBucket(bucketName, timer);
 
+      byte[] expectedDigest = parseContentMD5(
+          headers.getHeaderString(CONTENT_MD5_HEADER), keyPath);
+
+      // The metadata is sent to OM when the key is opened: the ETag is
+      // stored with the key only when the client gives it in advance.
+      Map<String, String> metadata = new HashMap<>();
+      if (expectedDigest != null) {
+        metadata.put(ETAG, Hex.encodeHexString(expectedDigest));
+      }
+      long begin = timer.begin();
       output = bucket.createKey(keyPath, length, replicationType,
-          replicationFactor, new HashMap<>());
+          replicationFactor, metadata);
+      timer.end(STREAM_OPEN, begin);
 
+      InputStream data = body;
       if ("STREAMING-AWS4-HMAC-SHA256-PAYLOAD"
           .equals(headers.getHeaderString("x-amz-content-sha256"))) {
-        body = new SignedChunksInputStream(body);
+        data = new BufferedSignedChunksInputStream(data);
+        timer.setSignedChunks();
       }
 
-      IOUtils.copy(body, output);
+      MD5DigestInputStream digestBody = new MD5DigestInputStream(data);
+      long start = System.nanoTime();
+      IOUtils.copy(digestBody, output);
+      long transferNanos = System.nanoTime() - start;
+      timer.add(DATA_TRANSFER, transferNanos);
+      timer.setBytes(digestBody.getBytesRead());
+      timer.addBytesStreamed(digestBody.getBytesRead());
+
+      getMetrics().addETagDigest(digestBody.getDigestNanos(),
+          digestBody.getBytesRead());
+      if (expectedDigest != null && !digestBody.matches(expectedDigest)) {
+        // Release the stream without committing the key. The open key is
+        // cleaned up by OM.
+        OzoneOutputStream rejected = output;
+        output = null;
+        abort(rejected);
+        getMetrics().incBadDigestFailure();
+        throw newError(BAD_DIGEST, keyPath);
+      }
 
       getMetrics().incCreateKeySuccess();
+      getMetrics().addStorageClassWrite(s3StorageType,
+          digestBody.getBytesRead(), transferNanos);
       return Response.ok().status(HttpStatus.SC_OK)
+          .header(ETAG, wrapInQuotes(digestBody.getETag()))
           .build();
     } catch (OMException ex) {
       if (copyHeader != null) {
@@ -228,15 +363,23 @@ public class ObjectEndpoint extends EndpointBase {
       } else if (ex.getResult() == ResultCodes.PERMISSION_DENIED) {
         throw newError(S3ErrorTable.ACCESS_DENIED, keyPath, ex);
       }
-      LOG.error("Exception occurred in PutObject", ex);
+      PUT_ERROR_LOG.error("Exception occurred in PutObject", ex);
       throw ex;
     } catch (OS3Exception ex) {
-      LOG.error("Exception occurred in PutObject", ex.getMessage());
+      if (ex.getHttpCode() >= HTTP_INTERNAL_ERROR) {
+        PUT_ERROR_LOG.error("Exception occurred in PutObject: {}",
+            ex.getCode());
+      } else {
+        // Errors of the request, as a bad digest or a missing upload.
+        LOG.debug("PutObject of {} failed: {}", keyPath, ex.getCode());
+      }
       getMetrics().incCreateKeyFailure();
       throw ex;
     } finally {
       if (output != null) {
+        long begin = timer.begin();
         output.close();
+        timer.end(COMMIT, begin);
       }
     }
   }
@@ -258,20 +401,33 @@ public class ObjectEndpoint extends EndpointBase {
       @QueryParam("max-parts") @DefaultValue("1000") int maxParts,
       @QueryParam("part-number-marker") String partNumberMarker,
       InputStream body) throws IOException, OS3Exception {
+    S3RequestTimer timer = S3RequestTimer.start(uploadId != null ?
+        S3Operation.LIST_PARTS : S3Operation.GET_OBJECT, bucketName, keyPath);
+    return admitted(timer, keyPath, permit -> getObject(bucketName, keyPath,
+        uploadId, maxParts, partNumberMarker, timer, permit));
+  }
+
+  private Response getObject(String bucketName, String keyPath,
+      String uploadId, int maxParts, String partNumberMarker,
+      S3RequestTimer timer, S3AdmissionController.Permit permit)
+      throws IOException, OS3Exception {
     try {
 
       if (uploadId != null) {
         // When we have uploadId, this is the request for list Parts.
         int partMarker = parsePartNumberMarker(partNumberMarker);
         return listParts(bucketName, keyPath, uploadId,
-            partMarker, maxParts);
+            partMarker, maxParts, timer);
       }
 
-      OzoneBucket bucket = getBucket(bucketName);
+      OzoneBucket bucket = getBucket(bucketName, timer);
 
+      long begin = timer.begin();
       OzoneKeyDetails keyDetails = bucket.getKey(keyPath);
+      timer.end(KEY_LOOKUP, begin);
 
       long length = keyDetails.getDataSize();
+      timer.setBytes(length);
 
       LOG.debug("Data length of the key {} is {}", keyPath, length);
 
@@ -292,8 +448,16 @@ public class ObjectEndpoint extends EndpointBase {
 
       if (rangeHeaderVal == null || rangeHeader.isReadFull()) {
         StreamingOutput output = dest -> {
-          try (OzoneInputStream key = bucket.readKey(keyPath)) {
-            IOUtils.copy(key, dest);
+          try (OzoneInputStream key = openKey(bucket, keyPath, timer)) {
+            long transferStart = timer.begin();
+            timer.addBytesStreamed(IOUtils.copyLarge(key, dest));
+            timer.end(DATA_TRANSFER, transferStart);
+          } catch (IOException | RuntimeException ex) {
+            timer.fail(ex);
+            throw ex;
+          } finally {
+            permit.close(timer.getBackendNanos());
+            timer.finishDeferred();
           }
         };
         responseBuilder = Response
@@ -307,11 +471,22 @@ public class ObjectEndpoint extends EndpointBase {
         // eg. if range header is given as bytes=0-0, then we should return 1
         // byte from start offset
         long copyLength = endOffset - startOffset + 1;
+        timer.setBytes(copyLength);
+        timer.setRange(rangeHeaderVal);
         StreamingOutput output = dest -> {
-          try (OzoneInputStream ozoneInputStream = bucket.readKey(keyPath)) {
+          try (OzoneInputStream ozoneInputStream =
+                   openKey(bucket, keyPath, timer)) {
+            long transferStart = timer.begin();
             ozoneInputStream.seek(startOffset);
-            IOUtils.copyLarge(ozoneInputStream, dest, 0,
-                copyLength, new byte[bufferSize]);
+            timer.addBytesStreamed(IOUtils.copyLarge(ozoneInputStream,
+                dest, 0, copyLength, new byte[bufferSize]));
+            timer.end(DATA_TRANSFER, transferStart);
+          } catch (IOException | RuntimeException ex) {
+            timer.fail(ex);
+            throw ex;
+          } finally {
+            permit.close(timer.getBackendNanos());
+            timer.finishDeferred();
           }
         };
         responseBuilder = Response
@@ -333,7 +508,10 @@ public class ObjectEndpoint extends EndpointBase {
         }
       }
       addLastModifiedDate(responseBuilder, keyDetails);
+      addETag(responseBuilder, keyDetails);
       getMetrics().incGetKeySuccess();
+      // The data is read when the container writes the body.
+      timer.defer();
       return responseBuilder.build();
     } catch (OMException ex) {
       if (uploadId != null) {
@@ -362,6 +540,20 @@ public class ObjectEndpoint extends EndpointBase {
             RFC1123Util.FORMAT.format(lastModificationTime));
   }
 
+  /**
+   * Add the ETag stored with the key when it was written by the gateway.
+   * Keys without one, as the completed multipart uploads and the keys
+   * written by other clients, use their modification time.
+   */
+  private static void addETag(ResponseBuilder responseBuilder, OzoneKey key) {
+    String eTag = key.getMetadata().get(ETAG);
+    if (eTag != null) {
+      responseBuilder.header(ETAG, wrapInQuotes(eTag));
+    } else {
+      responseBuilder.header(ETAG, "" + key.getModificationTime());
+    }
+  }
+
   /**
    * Rest endpoint to check existence of an object in a bucket.
    * <p>
@@ -372,16 +564,27 @@ public class ObjectEndpoint extends EndpointBase {
   public Response head(
       @PathParam("bucket") String bucketName,
       @PathParam("path") String keyPath) throws IOException, OS3Exception {
+    S3RequestTimer timer = S3RequestTimer.start(S3Operation.HEAD_OBJECT,
+        bucketName, keyPath);
+    return admitted(timer, keyPath,
+        permit -> headObject(bucketName, keyPath, timer));
+  }
 
+  private Response headObject(String bucketName, String keyPath,
+      S3RequestTimer timer) throws IOException, OS3Exception {
     OzoneKey key;
 
     try {
-      key = getBucket(bucketName).headObject(keyPath);
+      OzoneBucket bucket = getBucket(bucketName, timer);
+      long begin = timer.begin();
+      key = bucket.headObject(keyPath);
+      timer.end(KEY_LOOKUP, begin);
       // TODO: return the specified range bytes of this object.
     } catch (OMException ex) {
       getMetrics().incHeadKeyFailure();
       if (ex.getResult() == ResultCodes.KEY_NOT_FOUND) {
         // Just return 404 with no content
+        timer.setResult("NoSuchKey");
         return Response.status(Status.NOT_FOUND).build();
       } else if (ex.getResult() == ResultCodes.PERMISSION_DENIED) {
         throw newError(S3ErrorTable.ACCESS_DENIED, keyPath, ex);
@@ -391,10 +594,11 @@ public class ObjectEndpoint extends EndpointBase {
     }
 
     ResponseBuilder response = Response.ok().status(HttpStatus.SC_OK)
-        .header("ETag", "" + key.getModificationTime())
         .header("Content-Length", key.getDataSize())
         .header("Content-Type", "binary/octet-stream");
     addLastModifiedDate(response, key);
+    addETag(response, key);
+    timer.setBytes(key.getDataSize());
     getMetrics().incHeadKeySuccess();
     return response.build();
   }
@@ -409,16 +613,20 @@ public class ObjectEndpoint extends EndpointBase {
    * @throws OS3Exception
    */
   private Response abortMultipartUpload(String bucket, String key, String
-      uploadId) throws IOException, OS3Exception {
+      uploadId, S3RequestTimer timer) throws IOException, OS3Exception {
     try {
-      OzoneBucket ozoneBucket = getBucket(bucket);
+      OzoneBucket ozoneBucket = getBucket(bucket, timer);
+      long begin = timer.begin();
       ozoneBucket.abortMultipartUpload(key, uploadId);
+      timer.end(OM_CALL, begin);
     } catch (OMException ex) {
       if (ex.getResult() == ResultCodes.NO_SUCH_MULTIPART_UPLOAD_ERROR) {
+        finishUpload(uploadId);
         throw newError(S3ErrorTable.NO_SUCH_UPLOAD, uploadId, ex);
       }
       throw ex;
     }
+    finishUpload(uploadId);
     getMetrics().incAbortMultiPartUploadSuccess();
     return Response
         .status(Status.NO_CONTENT)
@@ -441,14 +649,27 @@ public class ObjectEndpoint extends EndpointBase {
       @PathParam("path") String keyPath,
       @QueryParam("uploadId") @DefaultValue("") String uploadId) throws
       IOException, OS3Exception {
+    S3RequestTimer timer = S3RequestTimer.start(
+        uploadId != null && !uploadId.equals("") ?
+            S3Operation.ABORT_MULTIPART_UPLOAD : S3Operation.DELETE_OBJECT,
+        bucketName, keyPath);
+    return admitted(timer, keyPath,
+        permit -> deleteObject(bucketName, keyPath, uploadId, timer));
+  }
 
+  private Response deleteObject(String bucketName, String keyPath,
+      String uploadId, S3RequestTimer timer)
+      throws IOException, OS3Exception {
     try {
       if (uploadId != null && !uploadId.equals("")) {
-        return abortMultipartUpload(bucketName, keyPath, uploadId);
+        return abortMultipartUpload(bucketName, keyPath, uploadId, timer);
       }
-      OzoneBucket bucket = getBucket(bucketName);
-      bucket.getKey(keyPath);
+      // A missing key fails the delete with KEY_NOT_FOUND, it does not
+      // need to be looked up first.
+      OzoneBucket bucket = getBucket(bucketName, timer);
+      long begin = timer.begin();
       bucket.deleteKey(keyPath);
+      timer.end(OM_CALL, begin);
     } catch (OMException ex) {
       if (uploadId != null && !uploadId.equals("")) {
         getMetrics().incAbortMultiPartUploadFailure();
@@ -491,21 +712,27 @@ public class ObjectEndpoint extends EndpointBase {
       @PathParam("path") String key
   )
       throws IOException, OS3Exception {
+    S3RequestTimer timer =
+        S3RequestTimer.start(S3Operation.INIT_MULTIPART_UPLOAD, bucket, key);
+    return admitted(timer, key,
+        permit -> initiateMultipartUpload(bucket, key, timer));
+  }
+
+  private Response initiateMultipartUpload(String bucket, String key,
+      S3RequestTimer timer) throws IOException, OS3Exception {
     try {
-      OzoneBucket ozoneBucket = getBucket(bucket);
+      OzoneBucket ozoneBucket = getBucket(bucket, timer);
       String storageType = headers.getHeaderString(STORAGE_CLASS_HEADER);
 
-      S3StorageType s3StorageType;
-      if (storageType == null || storageType.equals("")) {
-        s3StorageType = S3StorageType.getDefault(ozoneConfiguration);
-      } else {
-        s3StorageType = toS3StorageType(storageType);
-      }
+      S3StorageType s3StorageType =
+          getStorageClassResolver().resolve(storageType);
       ReplicationType replicationType = s3StorageType.getType();
       ReplicationFactor replicationFactor = s3StorageType.getFactor();
 
+      long begin = timer.begin();
       OmMultipartInfo multipartInfo = ozoneBucket
           .initiateMultipartUpload(key, replicationType, replicationFactor);
+      timer.end(OM_CALL, begin);
 
       MultipartUploadInitiateResponse multipartUploadInitiateResponse = new
           MultipartUploadInitiateResponse();
@@ -514,7 +741,10 @@ public class ObjectEndpoint extends EndpointBase {
       multipartUploadInitiateResponse.setKey(key);
       multipartUploadInitiateResponse.setUploadID(multipartInfo.getUploadID());
 
+      getUploadTracker().onInitiate(multipartInfo.getUploadID(),
+          bucket + "/" + key);
       getMetrics().incInitMultiPartUploadSuccess();
+      getMetrics().incStorageClassRequests(s3StorageType);
       return Response.status(Status.OK).entity(
           multipartUploadInitiateResponse).build();
     } catch (OMException ex) {
@@ -522,8 +752,8 @@ public class ObjectEndpoint extends EndpointBase {
       if (ex.getResult() == ResultCodes.PERMISSION_DENIED) {
         throw newError(S3ErrorTable.ACCESS_DENIED, key, ex);
       }
-      LOG.error("Error in Initiate Multipart Upload Request for bucket: {}, " +
-          "key: {}", bucket, key, ex);
+      INIT_MPU_ERROR_LOG.error("Error in Initiate Multipart Upload " +
+          "Request for bucket: {}, key: {}", bucket, key, ex);
       throw ex;
     }
   }
@@ -531,30 +761,56 @@ public class ObjectEndpoint extends EndpointBase {
   /**
    * Complete a multipart upload.
    */
+  public Response completeMultipartUpload(String bucket, String key,
+      String uploadID, CompleteMultipartUploadRequest multipartUploadRequest)
+      throws IOException, OS3Exception {
+    List<CompleteMultipartUploadRequest.Part> partList =
+        multipartUploadRequest.getPartList();
+    CompleteMultipartUploadParts parts =
+        new CompleteMultipartUploadParts(partList.size());
+    for (CompleteMultipartUploadRequest.Part part : partList) {
+      parts.add(part.getPartNumber(), part.geteTag());
+    }
+    return completeMultipartUpload(bucket, key, uploadID, parts);
+  }
+
+  /**
+   * Complete a multipart upload, the part list is read from the request
+   * body by {@link CompleteMultipartUploadPartsReader}.
+   */
   @POST
   @Produces(MediaType.APPLICATION_XML)
   public Response completeMultipartUpload(@PathParam("bucket") String bucket,
       @PathParam("path") String key,
       @QueryParam("uploadId") @DefaultValue("") String uploadID,
-      CompleteMultipartUploadRequest multipartUploadRequest)
+      CompleteMultipartUploadParts partsMap)
       throws IOException, OS3Exception {
-    OzoneBucket ozoneBucket = getBucket(bucket);
-    // Using LinkedHashMap to preserve ordering of parts list.
-    Map<Integer, String> partsMap = new LinkedHashMap<>();
-    List<CompleteMultipartUploadRequest.Part> partList =
-        multipartUploadRequest.getPartList();
+    S3RequestTimer timer = S3RequestTimer.start(
+        S3Operation.COMPLETE_MULTIPART_UPLOAD, bucket, key);
+    return admitted(timer, key,
+        permit -> completeUpload(bucket, key, uploadID, partsMap, timer));
+  }
+
+  private Response completeUpload(String bucket, String key,
+      String uploadID, CompleteMultipartUploadParts partsMap,
+      S3RequestTimer timer) throws IOException, OS3Exception {
+    OzoneBucket ozoneBucket = getBucket(bucket, timer);
 
     OmMultipartUploadCompleteInfo omMultipartUploadCompleteInfo;
     try {
-      for (CompleteMultipartUploadRequest.Part part : partList) {
-        partsMap.put(part.getPartNumber(), part.geteTag());
-      }
       if (LOG.isDebugEnabled()) {
         LOG.debug("Parts map {}", partsMap);
       }
+      if (!partsMap.isAscending()) {
+        // Rejected before OM is called, OM would fail the same way.
+        getMetrics().incCompleteMultiPartUploadFailure();
+        throw newError(S3ErrorTable.INVALID_PART_ORDER, key);
+      }
 
+      long begin = timer.begin();
       omMultipartUploadCompleteInfo = ozoneBucket.completeMultipartUpload(
           key, uploadID, partsMap);
+      timer.end(OM_CALL, begin);
       CompleteMultipartUploadResponse completeMultipartUploadResponse =
           new CompleteMultipartUploadResponse();
       completeMultipartUploadResponse.setBucket(bucket);
@@ -563,6 +819,7 @@ public class ObjectEndpoint extends EndpointBase {
           .getHash());
       // Location also setting as bucket name.
       completeMultipartUploadResponse.setLocation(bucket);
+      finishUpload(uploadID);
       getMetrics().incCompleteMultiPartUploadSuccess();
       return Response.status(Status.OK).entity(completeMultipartUploadResponse)
           .build();
@@ -573,6 +830,7 @@ public class ObjectEndpoint extends EndpointBase {
       } else if (ex.getResult() == ResultCodes.INVALID_PART_ORDER) {
         throw newError(S3ErrorTable.INVALID_PART_ORDER, key, ex);
       } else if (ex.getResult() == ResultCodes.NO_SUCH_MULTIPART_UPLOAD_ERROR) {
+        finishUpload(uploadID);
         throw newError(NO_SUCH_UPLOAD, uploadID, ex);
       } else if (ex.getResult() == ResultCodes.ENTITY_TOO_SMALL) {
         throw newError(ENTITY_TOO_SMALL, key, ex);
@@ -591,29 +849,37 @@ public class ObjectEndpoint extends EndpointBase {
             "given KeyName caused failure for MPU");
         throw os3Exception;
       }
-      LOG.error("Error in Complete Multipart Upload Request for bucket: {}, " +
-          ", key: {}", bucket, key, ex);
+      COMPLETE_MPU_ERROR_LOG.error("Error in Complete Multipart Upload " +
+          "Request for bucket: {}, key: {}", bucket, key, ex);
       throw ex;
     }
   }
 
   private Response createMultipartKey(String bucket, String key, long length,
                                       int partNumber, String uploadID,
-                                      InputStream body)
+                                      InputStream body, S3RequestTimer timer)
       throws IOException, OS3Exception {
     try {
-      OzoneBucket ozoneBucket = getBucket(bucket);
+      OzoneBucket ozoneBucket = getBucket(bucket, timer);
       String copyHeader;
       OzoneOutputStream ozoneOutputStream = null;
+      long begin = timer.begin();
+      checkUploadExists(ozoneBucket, key, uploadID);
+      timer.end(KEY_LOOKUP, begin);
 
       if ("STREAMING-AWS4-HMAC-SHA256-PAYLOAD"
           .equals(headers.getHeaderString("x-amz-content-sha256"))) {
-        body = new SignedChunksInputStream(body);
+        body = new BufferedSignedChunksInputStream(body);
+        timer.setSignedChunks();
       }
 
+      long start = System.nanoTime();
+      long copied;
       try {
+        begin = timer.begin();
         ozoneOutputStream = ozoneBucket.createMultipartKey(
             key, length, partNumber, uploadID);
+        timer.end(STREAM_OPEN, begin);
         copyHeader = headers.getHeaderString(COPY_SOURCE_HEADER);
         if (copyHeader != null) {
           Pair<String, String> result = parseSourceHeader(copyHeader);
@@ -621,8 +887,11 @@ public class ObjectEndpoint extends EndpointBase {
           String sourceBucket = result.getLeft();
           String sourceKey = result.getRight();
 
-          Long sourceKeyModificationTime = getBucket(sourceBucket).
+          OzoneBucket sourceOzoneBucket = getBucket(sourceBucket, timer);
+          begin = timer.begin();
+          Long sourceKeyModificationTime = sourceOzoneBucket.
               getKey(sourceKey).getModificationTime().toEpochMilli();
+          timer.end(KEY_LOOKUP, begin);
           String copySourceIfModifiedSince =
               headers.getHeaderString(COPY_SOURCE_IF_MODIFIED_SINCE);
           String copySourceIfUnmodifiedSince =
@@ -633,33 +902,37 @@ public class ObjectEndpoint extends EndpointBase {
           }
 
           try (OzoneInputStream sourceObject =
-                   getBucket(sourceBucket).readKey(sourceKey)) {
-
+                   openKey(sourceOzoneBucket, sourceKey, timer)) {
+            begin = timer.begin();
             String range =
                 headers.getHeaderString(COPY_SOURCE_HEADER_RANGE);
             if (range != null) {
+              timer.setRange(range);
               RangeHeader rangeHeader =
                   RangeHeaderParserUtil.parseRangeHeader(range, 0);
-              final long skipped =
-                  sourceObject.skip(rangeHeader.getStartOffset());
-              if (skipped != rangeHeader.getStartOffset()) {
-                throw new EOFException(
-                    "Bytes to skip: "
-                        + rangeHeader.getStartOffset() + " actual: " + skipped);
-              }
-              IOUtils.copyLarge(sourceObject, ozoneOutputStream, 0,
+              // seek positions the stream on the block of the offset,
+              // instead of reading and dropping everything before it.
+              sourceObject.seek(rangeHeader.getStartOffset());
+              copied = IOUtils.copyLarge(sourceObject, ozoneOutputStream, 0,
                   rangeHeader.getEndOffset() - rangeHeader.getStartOffset()
-                      + 1);
+                      + 1, getCopyBuffer());
             } else {
-              IOUtils.copy(sourceObject, ozoneOutputStream);
+              copied = IOUtils.copyLarge(sourceObject, ozoneOutputStream,
+                  getCopyBuffer());
             }
+            timer.end(DATA_TRANSFER, begin);
           }
         } else {
-          IOUtils.copy(body, ozoneOutputStream);
+          begin = timer.begin();
+          copied = IOUtils.copyLarge(body, ozoneOutputStream,
+              getCopyBuffer());
+          timer.end(DATA_TRANSFER, begin);
         }
       } finally {
         if (ozoneOutputStream != null) {
+          long closeStart = timer.begin();
           ozoneOutputStream.close();
+          timer.end(COMMIT, closeStart);
         }
       }
 
@@ -668,10 +941,16 @@ public class ObjectEndpoint extends EndpointBase {
           ozoneOutputStream.getCommitUploadPartInfo();
       String eTag = omMultipartCommitUploadPartInfo.getPartName();
 
+      timer.setBytes(copied);
+      timer.addBytesStreamed(copied);
       getMetrics().incCreateMultipartKeySuccess();
+      getUploadTracker().onPart(uploadID, bucket + "/" + key, partNumber,
+          copied);
       if (copyHeader != null) {
+        getMetrics().addUploadPartCopy(copied, System.nanoTime() - start);
         return Response.ok(new CopyPartResult(eTag)).build();
       } else {
+        getMetrics().addUploadPart(copied, System.nanoTime() - start);
         return Response.ok().header("ETag",
             eTag).build();
       }
@@ -679,6 +958,7 @@ public class ObjectEndpoint extends EndpointBase {
     } catch (OMException ex) {
       getMetrics().incCreateMultipartKeyFailure();
       if (ex.getResult() == ResultCodes.NO_SUCH_MULTIPART_UPLOAD_ERROR) {
+        finishUpload(uploadID);
         throw newError(NO_SUCH_UPLOAD, uploadID, ex);
       } else if (ex.getResult() == ResultCodes.PERMISSION_DENIED) {
         throw newError(S3ErrorTable.ACCESS_DENIED, bucket + "/" + key, ex);
@@ -700,40 +980,25 @@ public class ObjectEndpoint extends EndpointBase {
    * @throws OS3Exception
    */
   private Response listParts(String bucket, String key, String uploadID,
-      int partNumberMarker, int maxParts) throws IOException, OS3Exception {
-    ListPartsResponse listPartsResponse = new ListPartsResponse();
+      int partNumberMarker, int maxParts, S3RequestTimer timer)
+      throws IOException, OS3Exception {
+    ListPartsOutput listPartsOutput;
     try {
-      OzoneBucket ozoneBucket = getBucket(bucket);
+      OzoneBucket ozoneBucket = getBucket(bucket, timer);
+      long begin = timer.begin();
       OzoneMultipartUploadPartListParts ozoneMultipartUploadPartListParts =
           ozoneBucket.listParts(key, uploadID, partNumberMarker, maxParts);
-      listPartsResponse.setBucket(bucket);
-      listPartsResponse.setKey(key);
-      listPartsResponse.setUploadID(uploadID);
-      listPartsResponse.setMaxParts(maxParts);
-      listPartsResponse.setPartNumberMarker(partNumberMarker);
-      listPartsResponse.setTruncated(false);
-
-      listPartsResponse.setStorageClass(S3StorageType.fromReplicationType(
-          ozoneMultipartUploadPartListParts.getReplicationType(),
-          ozoneMultipartUploadPartListParts.getReplicationFactor()).toString());
-
-      if (ozoneMultipartUploadPartListParts.isTruncated()) {
-        listPartsResponse.setTruncated(
-            ozoneMultipartUploadPartListParts.isTruncated());
-        listPartsResponse.setNextPartNumberMarker(
-            ozoneMultipartUploadPartListParts.getNextPartNumberMarker());
-      }
+      timer.end(OM_CALL, begin);
 
-      ozoneMultipartUploadPartListParts.getPartInfoList().forEach(partInfo -> {
-        ListPartsResponse.Part part = new ListPartsResponse.Part();
-        part.setPartNumber(partInfo.getPartNumber());
-        part.setETag(partInfo.getPartName());
-        part.setSize(partInfo.getSize());
-        part.setLastModified(Instant.ofEpochMilli(
-            partInfo.getModificationTime()));
-        listPartsResponse.addPart(part);
-      });
+      String storageClass = S3StorageType.fromReplicationType(
+          ozoneMultipartUploadPartListParts.getReplicationType(),
+          ozoneMultipartUploadPartListParts.getReplicationFactor()).toString();
 
+      // The XML is written from the part list, without the object graph of
+      // ListPartsResponse.
+      listPartsOutput = new ListPartsOutput(bucket, key, uploadID,
+          storageClass, partNumberMarker, maxParts,
+          ozoneMultipartUploadPartListParts);
     } catch (OMException ex) {
       if (ex.getResult() == ResultCodes.NO_SUCH_MULTIPART_UPLOAD_ERROR) {
         throw newError(NO_SUCH_UPLOAD, uploadID, ex);
@@ -744,7 +1009,155 @@ public class ObjectEndpoint extends EndpointBase {
       throw ex;
     }
     getMetrics().incListPartsSuccess();
-    return Response.status(Status.OK).entity(listPartsResponse).build();
+    return Response.status(Status.OK).entity(listPartsOutput)
+        .type(MediaType.APPLICATION_XML_TYPE).build();
+  }
+
+  /**
+   * Admit and execute the request. The permit is closed and the request is
+   * recorded when the request returns, or when its response body is
+   * written if the timer is deferred to the body: the body closes the
+   * permit, so that the admission budget covers the data it transfers. A
+   * failed request is released even if it was deferred, its body is not
+   * written.
+   */
+  private Response admitted(S3RequestTimer timer, String resource,
+      AdmittedRequest request) throws IOException, OS3Exception {
+    S3AdmissionController.Permit permit = admit(timer, resource);
+    boolean deferred = false;
+    try {
+      Response response = request.execute(permit);
+      deferred = timer.isDeferred();
+      if (deferred) {
+        releaseOnCompletion(permit, timer);
+      }
+      return response;
+    } catch (IOException | OS3Exception | RuntimeException ex) {
+      timer.fail(ex);
+      throw ex;
+    } finally {
+      if (!deferred) {
+        permit.close(timer.getBackendNanos());
+        timer.finishDeferred();
+      }
+    }
+  }
+
+  /**
+   * Release the permit and record the request of a deferred response when
+   * the container is done with the request, in case the body is never
+   * written: a response filter or a writer interceptor failed, or the
+   * response was replaced by an exception mapper. Both are no-op once the
+   * body was written.
+   */
+  private void releaseOnCompletion(S3AdmissionController.Permit permit,
+      S3RequestTimer timer) {
+    if (closeableService == null) {
+      return;
+    }
+    closeableService.add(() -> {
+      permit.close(timer.getBackendNanos());
+      timer.finishDeferred();
+    });
+  }
+
+  /**
+   * Admit the request by the admission controller, rejecting it with
+   * SlowDown if the gateway is overloaded. A rejected request is finished.
+   */
+  private S3AdmissionController.Permit admit(S3RequestTimer timer,
+      String resource) throws OS3Exception {
+    long begin = timer.begin();
+    S3AdmissionController.Permit permit;
+    try {
+      permit = S3AdmissionController.create(ozoneConfiguration)
+          .acquire(timer.getOperation(), resource);
+    } catch (OS3Exception | RuntimeException ex) {
+      // The wait of a rejected request is recorded before it finishes.
+      timer.end(ADMISSION, begin);
+      timer.fail(ex);
+      timer.finish();
+      throw ex;
+    }
+    timer.end(ADMISSION, begin);
+    return permit;
+  }
+
+  private OzoneBucket getBucket(String bucketName, S3RequestTimer timer)
+      throws IOException, OS3Exception {
+    long begin = timer.begin();
+    try {
+      return getBucket(bucketName);
+    } finally {
+      timer.end(BUCKET_LOOKUP, begin);
+    }
+  }
+
+  private static OzoneInputStream openKey(OzoneBucket bucket, String key,
+      S3RequestTimer timer) throws IOException {
+    long begin = timer.begin();
+    try {
+      return bucket.readKey(key);
+    } finally {
+      timer.end(STREAM_OPEN, begin);
+    }
+  }
+
+  private S3StorageClassResolver getStorageClassResolver() {
+    return S3StorageClassResolver.get(ozoneConfiguration);
+  }
+
+  private MultipartUploadTracker getUploadTracker() {
+    return MultipartUploadTracker.create(ozoneConfiguration);
+  }
+
+  private MultipartUploadLookupCache getUploadLookups() {
+    return MultipartUploadLookupCache.create(ozoneConfiguration);
+  }
+
+  /**
+   * Stop tracking a completed, aborted or unknown upload.
+   */
+  private void finishUpload(String uploadID) {
+    getUploadTracker().onFinish(uploadID);
+    getUploadLookups().onMissing(uploadID);
+  }
+
+  /**
+   * Fail an upload part request for an unknown upload before the part data
+   * is transferred: the key of the part is not checked by OM until the part
+   * is committed. Uploads tracked by this gateway are not looked up, and
+   * the result of a lookup is cached for the next parts.
+   */
+  private void checkUploadExists(OzoneBucket bucket, String key,
+      String uploadID) throws IOException {
+    if (getUploadTracker().isOpen(uploadID)) {
+      return;
+    }
+    MultipartUploadLookupCache lookups = getUploadLookups();
+    Boolean exists = lookups.exists(uploadID);
+    if (exists == null) {
+      try {
+        bucket.listParts(key, uploadID, 0, 1);
+        lookups.onFound(uploadID);
+      } catch (OMException ex) {
+        if (ex.getResult() == ResultCodes.NO_SUCH_MULTIPART_UPLOAD_ERROR) {
+          lookups.onMissing(uploadID);
+        }
+        throw ex;
+      }
+    } else if (!exists) {
+      throw new OMException("No such multipart upload " + uploadID,
+          ResultCodes.NO_SUCH_MULTIPART_UPLOAD_ERROR);
+    }
+  }
+
+  private S3Operation putOperation(String uploadID) {
+    boolean copy = headers.getHeaderString(COPY_SOURCE_HEADER) != null;
+    if (uploadID != null && !uploadID.equals("")) {
+      return copy ? S3Operation.UPLOAD_PART_COPY : S3Operation.UPLOAD_PART;
+    }
+    return copy ? S3Operation.COPY_OBJECT : S3Operation.PUT_OBJECT;
   }
 
   @VisibleForTesting
@@ -752,97 +1165,267 @@ public class ObjectEndpoint extends EndpointBase {
     this.headers = headers;
   }
 
-  private CopyObjectResponse copyObject(String copyHeader,
-                                        String destBucket,
-                                        String destkey,
-                                        ReplicationType replicationType,
-                                        ReplicationFactor replicationFactor,
-                                        boolean storageTypeDefault)
+  @VisibleForTesting
+  public void setCloseableService(CloseableService closeableService) {
+    this.closeableService = closeableService;
+  }
+
+  private Response copyObject(String copyHeader,
+                              String destBucket,
+                              String destkey,
+                              ReplicationType replicationType,
+                              ReplicationFactor replicationFactor,
+                              boolean storageTypeDefault,
+                              S3RequestTimer timer,
+                              S3AdmissionController.Permit permit)
       throws OS3Exception, IOException {
 
     Pair<String, String> result = parseSourceHeader(copyHeader);
 
     String sourceBucket = result.getLeft();
     String sourceKey = result.getRight();
-    OzoneInputStream sourceInputStream = null;
-    OzoneOutputStream destOutputStream = null;
-    boolean closed = false;
-    try {
-      // Checking whether we trying to copying to it self.
-
-      if (sourceBucket.equals(destBucket) && sourceKey.equals(destkey)) {
-        // When copying to same storage type when storage type is provided,
-        // we should not throw exception, as aws cli checks if any of the
-        // options like storage type are provided or not when source and
-        // dest are given same
-        if (storageTypeDefault) {
-          OS3Exception ex = newError(S3ErrorTable.INVALID_REQUEST, copyHeader);
-          ex.setErrorMessage("This copy request is illegal because it is " +
-              "trying to copy an object to it self itself without changing " +
-              "the object's metadata, storage class, website redirect " +
-              "location or encryption attributes.");
-          throw ex;
-        } else {
-          // TODO: Actually here we should change storage type, as ozone
-          // still does not support this just returning dummy response
-          // for now
-          CopyObjectResponse copyObjectResponse = new CopyObjectResponse();
-          copyObjectResponse.setETag(OzoneUtils.getRequestID());
-          copyObjectResponse.setLastModified(Instant.ofEpochMilli(
-              Time.now()));
-          return copyObjectResponse;
-        }
+    // Checking whether we trying to copying to it self.
+
+    if (sourceBucket.equals(destBucket) && sourceKey.equals(destkey)) {
+      // When copying to same storage type when storage type is provided,
+      // we should not throw exception, as aws cli checks if any of the
+      // options like storage type are provided or not when source and
+      // dest are given same
+      if (storageTypeDefault) {
+        OS3Exception ex = newError(S3ErrorTable.INVALID_REQUEST, copyHeader);
+        ex.setErrorMessage("This copy request is illegal because it is " +
+            "trying to copy an object to it self itself without changing " +
+            "the object's metadata, storage class, website redirect " +
+            "location or encryption attributes.");
+        throw ex;
+      } else {
+        // TODO: Actually here we should change storage type, as ozone
+        // still does not support this just returning dummy response
+        // for now. Nothing is copied, it is not a fast path copy.
+        getMetrics().incCopyObjectSuccess();
+        CopyObjectResponse copyObjectResponse = new CopyObjectResponse();
+        copyObjectResponse.setETag(OzoneUtils.getRequestID());
+        copyObjectResponse.setLastModified(Instant.ofEpochMilli(
+            Time.now()));
+        return Response.status(Status.OK).entity(copyObjectResponse).build();
       }
+    }
 
-
-      OzoneBucket sourceOzoneBucket = getBucket(sourceBucket);
-      OzoneBucket destOzoneBucket = getBucket(destBucket);
-
+    long sourceKeyLen;
+    String sourceETag;
+    try {
+      OzoneBucket sourceOzoneBucket = getBucket(sourceBucket, timer);
+      long begin = timer.begin();
       OzoneKeyDetails sourceKeyDetails = sourceOzoneBucket.getKey(sourceKey);
-      long sourceKeyLen = sourceKeyDetails.getDataSize();
+      timer.end(KEY_LOOKUP, begin);
+      sourceKeyLen = sourceKeyDetails.getDataSize();
+      sourceETag = sourceKeyDetails.getMetadata().get(ETAG);
+      timer.setBytes(sourceKeyLen);
+    } catch (OMException ex) {
+      throw copyError(ex, sourceBucket, sourceKey, destBucket, destkey);
+    }
 
-      sourceInputStream = sourceOzoneBucket.readKey(sourceKey);
+    long keepAliveThreshold = (long) ozoneConfiguration.getStorageSize(
+        OZONE_S3G_COPY_KEEP_ALIVE_THRESHOLD,
+        OZONE_S3G_COPY_KEEP_ALIVE_THRESHOLD_DEFAULT, StorageUnit.BYTES);
+    if (sourceKeyLen < keepAliveThreshold) {
+      CopyObjectResponse copyObjectResponse = copyKey(sourceBucket,
+          sourceKey, sourceKeyLen, sourceETag, destBucket, destkey,
+          replicationType, replicationFactor, timer);
+      return Response.status(Status.OK).entity(copyObjectResponse).build();
+    }
 
-      destOutputStream = destOzoneBucket.createKey(destkey, sourceKeyLen,
-          replicationType, replicationFactor, new HashMap<>());
+    // Long copy, the response is sent while the data is copied.
+    long interval = ozoneConfiguration.getTimeDuration(
+        OZONE_S3G_COPY_KEEP_ALIVE_INTERVAL,
+        OZONE_S3G_COPY_KEEP_ALIVE_INTERVAL_DEFAULT, TimeUnit.NANOSECONDS);
+    getMetrics().incCopyObjectKeepAlive();
+    StreamingCopyOutput output = new StreamingCopyOutput(
+        destBucket + "/" + destkey, interval, () -> {
+          try {
+            return copyKey(sourceBucket, sourceKey, sourceKeyLen,
+                sourceETag, destBucket, destkey, replicationType,
+                replicationFactor, timer);
+          } catch (IOException | OS3Exception | RuntimeException ex) {
+            timer.fail(ex);
+            getMetrics().incCopyObjectFailure();
+            COPY_ERROR_LOG.error("Failed to copy {}/{} to {}/{}", sourceBucket,
+                sourceKey, destBucket, destkey, ex);
+            throw ex;
+          } finally {
+            permit.close(timer.getBackendNanos());
+            timer.finishDeferred();
+          }
+        });
+    // The data is copied when the container writes the body.
+    timer.defer();
+    return Response.status(Status.OK).entity(output)
+        .type(MediaType.APPLICATION_XML_TYPE).build();
+  }
 
-      IOUtils.copy(sourceInputStream, destOutputStream);
+  /**
+   * Copy the data of the source key to the destination key.
+   *
+   * @param sourceETag ETag stored with the source key, kept by the
+   * destination key, or null
+   */
+  private CopyObjectResponse copyKey(String sourceBucket, String sourceKey,
+      long sourceKeyLen, String sourceETag, String destBucket, String destkey,
+      ReplicationType replicationType, ReplicationFactor replicationFactor,
+      S3RequestTimer timer)
+      throws OS3Exception, IOException {
+    long copyStart = System.nanoTime();
+    InputStream sourceInputStream = null;
+    OzoneOutputStream destOutputStream = null;
+    boolean closed = false;
+    try {
+      OzoneBucket sourceOzoneBucket = getBucket(sourceBucket, timer);
+      OzoneBucket destOzoneBucket = getBucket(destBucket, timer);
+
+      // The metadata is sent to OM when the key is opened, the ETag is
+      // stored only if it is known before the data is copied.
+      Map<String, String> metadata = new HashMap<>();
+      if (sourceKeyLen == 0) {
+        metadata.put(ETAG, EMPTY_CONTENT_ETAG);
+      } else if (sourceETag != null) {
+        metadata.put(ETAG, sourceETag);
+      }
+      long begin = timer.begin();
+      destOutputStream = destOzoneBucket.createKey(destkey, sourceKeyLen,
+          replicationType, replicationFactor, metadata);
+      timer.end(STREAM_OPEN, begin);
+
+      String eTag;
+      if (sourceKeyLen == 0) {
+        // Nothing to move, the source is not even opened for read.
+        eTag = EMPTY_CONTENT_ETAG;
+        getMetrics().incCopyObjectFastPath();
+      } else {
+        long start = System.nanoTime();
+        begin = start;
+        ParallelKeyReader keyReader =
+            ParallelKeyReader.create(ozoneConfiguration);
+        if (keyReader.accept(sourceKeyLen)) {
+          sourceInputStream = keyReader.open(
+              keyOpener(sourceOzoneBucket, sourceKey), sourceKeyLen);
+        } else {
+          sourceInputStream = sourceOzoneBucket.readKey(sourceKey);
+        }
+        timer.end(STREAM_OPEN, begin);
+        begin = timer.begin();
+        MD5DigestInputStream digestSource =
+            new MD5DigestInputStream(sourceInputStream);
+
+        byte[] buffer = getCopyBuffer();
+        int n;
+        while ((n = digestSource.read(buffer)) != -1) {
+          destOutputStream.write(buffer, 0, n);
+        }
+        timer.end(DATA_TRANSFER, begin);
+        timer.addBytesStreamed(digestSource.getBytesRead());
+        getMetrics().addETagDigest(digestSource.getDigestNanos(),
+            digestSource.getBytesRead());
+        getMetrics().addCopyObjectStreamed(digestSource.getBytesRead(),
+            System.nanoTime() - start);
+        eTag = digestSource.getETag();
+        sourceInputStream.close();
+      }
 
       // Closing here, as if we don't call close this key will not commit in
       // OM, and getKey fails.
-      sourceInputStream.close();
+      begin = timer.begin();
       destOutputStream.close();
       closed = true;
+      timer.end(COMMIT, begin);
 
+      begin = timer.begin();
       OzoneKeyDetails destKeyDetails = destOzoneBucket.getKey(destkey);
+      timer.end(KEY_LOOKUP, begin);
 
       getMetrics().incCopyObjectSuccess();
+      getMetrics().addCopyObjectTime(System.nanoTime() - copyStart);
       CopyObjectResponse copyObjectResponse = new CopyObjectResponse();
-      copyObjectResponse.setETag(OzoneUtils.getRequestID());
+      copyObjectResponse.setETag(wrapInQuotes(eTag));
       copyObjectResponse.setLastModified(destKeyDetails.getModificationTime());
       return copyObjectResponse;
     } catch (OMException ex) {
-      if (ex.getResult() == ResultCodes.KEY_NOT_FOUND) {
-        throw newError(S3ErrorTable.NO_SUCH_KEY, sourceKey, ex);
-      } else if (ex.getResult() == ResultCodes.BUCKET_NOT_FOUND) {
-        throw newError(S3ErrorTable.NO_SUCH_BUCKET, sourceBucket, ex);
-      } else if (ex.getResult() == ResultCodes.PERMISSION_DENIED) {
-        throw newError(S3ErrorTable.ACCESS_DENIED,
-            destBucket + "/" + destkey, ex);
-      }
-      throw ex;
+      throw copyError(ex, sourceBucket, sourceKey, destBucket, destkey);
     } finally {
       if (!closed) {
+        // Release the stream of a failed copy without committing a
+        // truncated key. The open key is cleaned up by OM.
+        if (destOutputStream != null) {
+          abort(destOutputStream);
+        }
         if (sourceInputStream != null) {
           sourceInputStream.close();
         }
-        if (destOutputStream != null) {
-          destOutputStream.close();
-        }
       }
     }
   }
 
+  /**
+   * Release the buffers and the datanode connections of a key stream
+   * without committing the key.
+   */
+  private static void abort(OzoneOutputStream output) {
+    OutputStream stream = output.getOutputStream();
+    if (stream instanceof KeyOutputStream) {
+      ((KeyOutputStream) stream).cleanup();
+    }
+  }
+
+  /**
+   * Translate the OM errors of a copy to S3 errors.
+   *
+   * @return the S3 error
+   * @throws OMException if the error has no S3 equivalent
+   */
+  private static OS3Exception copyError(OMException ex, String sourceBucket,
+      String sourceKey, String destBucket, String destkey)
+      throws OMException {
+    if (ex.getResult() == ResultCodes.KEY_NOT_FOUND) {
+      return newError(S3ErrorTable.NO_SUCH_KEY, sourceKey, ex);
+    } else if (ex.getResult() == ResultCodes.BUCKET_NOT_FOUND) {
+      return newError(S3ErrorTable.NO_SUCH_BUCKET, sourceBucket, ex);
+    } else if (ex.getResult() == ResultCodes.PERMISSION_DENIED) {
+      return newError(S3ErrorTable.ACCESS_DENIED,
+          destBucket + "/" + destkey, ex);
+    }
+    throw ex;
+  }
+
+  /**
+   * @return the copy buffer of the current thread, of the configured size.
+   */
+  private byte[] getCopyBuffer() {
+    int size = bufferSize > 0 ? bufferSize : DEFAULT_COPY_BUFFER_SIZE;
+    byte[] buffer = COPY_BUFFER.get();
+    if (buffer == null || buffer.length != size) {
+      buffer = new byte[size];
+      COPY_BUFFER.set(buffer);
+    }
+    return buffer;
+  }
+
+  /**
+   * Opens the streams of a key read in parallel.
+   */
+  private static ParallelKeyReader.KeyOpener keyOpener(OzoneBucket bucket,
+      String key) {
+    return new ParallelKeyReader.KeyOpener() {
+      @Override
+      public InputStream open() throws IOException {
+        return bucket.readKey(key);
+      }
+
+      @Override
+      public void seek(InputStream in, long offset) throws IOException {
+        ((OzoneInputStream) in).seek(offset);
+      }
+    };
+  }
+
   /**
    * Parse the key and bucket name from copy header.
    */
@@ -872,13 +1455,31 @@ public class ObjectEndpoint extends EndpointBase {
     }
   }
 
-  private static S3StorageType toS3StorageType(String storageType)
+  /**
+   * Decode the value of the Content-MD5 header.
+   *
+   * @return the expected MD5 digest of the body, or null if the header is
+   * not set.
+   */
+  private static byte[] parseContentMD5(String contentMD5, String resource)
       throws OS3Exception {
+    if (contentMD5 == null || contentMD5.isEmpty()) {
+      return null;
+    }
+    byte[] digest;
     try {
-      return S3StorageType.valueOf(storageType);
+      digest = Base64.getDecoder().decode(contentMD5.trim());
     } catch (IllegalArgumentException ex) {
-      throw newError(INVALID_ARGUMENT, storageType, ex);
+      throw newError(INVALID_DIGEST, resource, ex);
+    }
+    if (digest.length != MD5_DIGEST_LENGTH) {
+      throw newError(INVALID_DIGEST, resource);
     }
+    return digest;
+  }
+
+  private static String wrapInQuotes(String value) {
+    return "\"" + value + "\"";
   }
 
   private static int parsePartNumberMarker(String partNumberMarker) {
@@ -938,4 +1539,13 @@ public class ObjectEndpoint extends EndpointBase {
   public void setOzoneConfiguration(OzoneConfiguration config) {
     this.ozoneConfiguration = config;
   }
+
+  /**
+   * Request executed with an admission permit.
+   */
+  @FunctionalInterface
+  private interface AdmittedRequest {
+    Response execute(S3AdmissionController.Permit permit)
+        throws IOException, OS3Exception;
+  }
 }
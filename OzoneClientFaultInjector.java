@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.client;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.ozone.client.io.OzoneInputStream;
+import org.apache.hadoop.ozone.client.io.OzoneOutputStream;
+import org.apache.hadoop.ozone.om.exceptions.OMException;
+import org.apache.hadoop.ozone.om.exceptions.OMException.ResultCodes;
+
+import com.google.common.collect.MapMaker;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Adds latency, throughput caps and failures to an OzoneClient, usually
+ * OzoneClientStub, to test and benchmark the gateway against a slow or
+ * failing cluster.
+ * <p>
+ * The calls are matched by method name on the client, the object store,
+ * the volumes and the buckets, e.g. getKey, readKey, createKey or
+ * completeMultipartUpload. A call sleeps for its latency, then fails with
+ * the injected result code or runs on the wrapped object. The key streams
+ * returned by the calls are capped to the read and write throughput, and
+ * keep the other methods of the streams, e.g. seek or
+ * getCommitUploadPartInfo.
+ * <pre>
+ * OzoneClientFaultInjector injector = new OzoneClientFaultInjector()
+ *     .latency("getKey", Latency.exponential(2, TimeUnit.MILLISECONDS))
+ *     .failure("completeMultipartUpload", ResultCodes.TIMEOUT, 0.01)
+ *     .readThroughput(100 * 1024 * 1024);
+ * OzoneClient client = injector.wrap(new OzoneClientStub());
+ * </pre>
+ * The faults can be changed while the client is in use.
+ */
+public final class OzoneClientFaultInjector {
+
+  private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+
+  private final Map<String, Failure> failures = new ConcurrentHashMap<>();
+
+  /**
+   * Wrapper of each wrapped object, so that the same object is returned
+   * wrapped the same way. Both are weak: the wrapper refers to the object,
+   * and is dropped when the caller no longer uses it.
+   */
+  private final Map<Object, Object> wrapped =
+      new MapMaker().weakKeys().weakValues().makeMap();
+
+  private final AtomicLong injectedFailures = new AtomicLong();
+
+  private volatile long readBytesPerSecond;
+
+  private volatile long writeBytesPerSecond;
+
+  /**
+   * Latency of each call of the method.
+   */
+  public OzoneClientFaultInjector latency(String method, Latency latency) {
+    latencies.put(method, latency);
+    return this;
+  }
+
+  /**
+   * Fail the calls of the method with the given probability, between 0
+   * and 1.
+   */
+  public OzoneClientFaultInjector failure(String method, ResultCodes code,
+      double probability) {
+    failures.put(method, new Failure(code, probability));
+    return this;
+  }
+
+  /**
+   * Cap the throughput of each stream returned by readKey, 0 for no cap.
+   */
+  public OzoneClientFaultInjector readThroughput(long bytesPerSecond) {
+    this.readBytesPerSecond = bytesPerSecond;
+    return this;
+  }
+
+  /**
+   * Cap the throughput of each stream returned by createKey and
+   * createMultipartKey, 0 for no cap.
+   */
+  public OzoneClientFaultInjector writeThroughput(long bytesPerSecond) {
+    this.writeBytesPerSecond = bytesPerSecond;
+    return this;
+  }
+
+  /**
+   * Remove all the faults.
+   */
+  public void clear() {
+    latencies.clear();
+    failures.clear();
+    readBytesPerSecond = 0;
+    writeBytesPerSecond = 0;
+  }
+
+  public long getInjectedFailures() {
+    return injectedFailures.get();
+  }
+
+  /**
+   * @return a client calling the given client with the faults.
+   */
+  public OzoneClient wrap(OzoneClient client) {
+    return wrapObject(client);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T wrapObject(T object) {
+    return (T) wrapped.computeIfAbsent(object,
+        o -> spy(o, new FaultAnswer()));
+  }
+
+  /**
+   * @return a copy of the object of the same class, calling the answer
+   * instead of the methods of the object.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> T spy(T object, Answer<?> answer) {
+    return mock((Class<T>) object.getClass(), withSettings()
+        .spiedInstance(object).stubOnly().defaultAnswer(answer));
+  }
+
+  /**
+   * Injects the faults on the calls of a wrapped object, and wraps the
+   * returned objects.
+   */
+  private final class FaultAnswer implements Answer<Object> {
+
+    @Override
+    public Object answer(InvocationOnMock invocation) throws Throwable {
+      String method = invocation.getMethod().getName();
+      Latency latency = latencies.get(method);
+      if (latency != null) {
+        sleep(latency.nextNanos());
+      }
+      Failure failure = failures.get(method);
+      if (failure != null
+          && ThreadLocalRandom.current().nextDouble() < failure.probability) {
+        injectedFailures.incrementAndGet();
+        throw new OMException("Injected failure of " + method, failure.code);
+      }
+      Object result = invocation.callRealMethod();
+      if (result instanceof ObjectStore || result instanceof OzoneVolume
+          || result instanceof OzoneBucket) {
+        return wrapObject(result);
+      }
+      long read = readBytesPerSecond;
+      long write = writeBytesPerSecond;
+      if (result instanceof OzoneInputStream && read > 0) {
+        return spy(result, new ThrottledAnswer(read));
+      } else if (result instanceof OzoneOutputStream && write > 0) {
+        return spy(result, new ThrottledAnswer(write));
+      }
+      return result;
+    }
+  }
+
+  private static void sleep(long nanos) throws InterruptedIOException {
+    if (nanos <= 0) {
+      return;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted injected latency");
+    }
+  }
+
+  /**
+   * Failure of a method.
+   */
+  private static final class Failure {
+    private final ResultCodes code;
+    private final double probability;
+
+    private Failure(ResultCodes code, double probability) {
+      this.code = code;
+      this.probability = probability;
+    }
+  }
+
+  /**
+   * Distribution of the latency of a call.
+   */
+  public interface Latency {
+
+    /**
+     * @return the latency of the next call, in nanoseconds.
+     */
+    long nextNanos();
+
+    static Latency fixed(long duration, TimeUnit unit) {
+      long nanos = unit.toNanos(duration);
+      return () -> nanos;
+    }
+
+    static Latency uniform(long min, long max, TimeUnit unit) {
+      long minNanos = unit.toNanos(min);
+      long maxNanos = unit.toNanos(max);
+      return () -> ThreadLocalRandom.current().nextLong(minNanos,
+          maxNanos + 1);
+    }
+
+    static Latency exponential(long mean, TimeUnit unit) {
+      long meanNanos = unit.toNanos(mean);
+      return () -> (long) (-meanNanos
+          * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * The latency of most calls, and a slow latency for the given fraction
+     * of the calls, e.g. for a stalled datanode or an OM leader change.
+     */
+    static Latency withSlowCalls(Latency latency, Latency slow,
+        double slowProbability) {
+      return () -> ThreadLocalRandom.current().nextDouble() < slowProbability
+          ? slow.nextNanos() : latency.nextNanos();
+    }
+  }
+
+  /**
+   * Sleeps after the reads and the writes of a key stream to keep it below
+   * the throughput. Only the single byte and the array range methods are
+   * counted, the other read and write methods call them.
+   */
+  private static final class ThrottledAnswer implements Answer<Object> {
+
+    private final Throttle throttle;
+
+    private ThrottledAnswer(long bytesPerSecond) {
+      this.throttle = new Throttle(bytesPerSecond);
+    }
+
+    @Override
+    public Object answer(InvocationOnMock invocation) throws Throwable {
+      Object result = invocation.callRealMethod();
+      String method = invocation.getMethod().getName();
+      Class<?>[] parameters = invocation.getMethod().getParameterTypes();
+      if (method.equals("read")) {
+        if (parameters.length == 0 && (int) result != -1) {
+          throttle.add(1);
+        } else if (parameters.length == 3 && (int) result > 0) {
+          throttle.add((int) result);
+        }
+      } else if (method.equals("write")) {
+        if (parameters.length == 1 && parameters[0] == int.class) {
+          throttle.add(1);
+        } else if (parameters.length == 3) {
+          throttle.add(invocation.<Integer>getArgument(2));
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Throughput cap of a stream.
+   */
+  private static final class Throttle {
+    private final long bytesPerSecond;
+    private final long startNanos = System.nanoTime();
+    private long bytes;
+
+    private Throttle(long bytesPerSecond) {
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    private void add(long n) throws InterruptedIOException {
+      bytes += n;
+      long dueNanos = (long) (bytes * 1e9 / bytesPerSecond);
+      sleep(dueNanos - (System.nanoTime() - startNanos));
+    }
+  }
+}
@@ -0,0 +1,482 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.hdds.conf.StorageUnit;
+import org.apache.hadoop.ozone.s3.metrics.S3GatewayMetrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads large keys with multiple ranges in flight.
+ * <p>
+ * The key is split into fixed size chunks, which are read concurrently by a
+ * shared thread pool. The returned stream serves the chunks in order, so the
+ * destination is written sequentially and the ETag can be computed on the
+ * fly. The number of chunks read ahead is bounded per stream, so a copy
+ * buffers at most (read-ahead + 1) * chunk-size bytes, and the chunks
+ * buffered by all the copies are bounded by a gateway wide budget. A copy
+ * which finds the budget exhausted reads ahead less, down to one chunk.
+ * <p>
+ * The chunks are read from a few streams of the key, opened once per copy
+ * and positioned with seek for each chunk, so that the key is not looked up
+ * in OM for every chunk.
+ */
+public final class ParallelKeyReader {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(ParallelKeyReader.class);
+
+  /**
+   * Number of threads reading chunks, shared by all copies. 0 disables the
+   * parallel read.
+   */
+  public static final String OZONE_S3G_COPY_PARALLEL_THREADS =
+      "ozone.s3g.copy.parallel.threads";
+  public static final int OZONE_S3G_COPY_PARALLEL_THREADS_DEFAULT = 16;
+
+  /**
+   * Keys smaller than this are read with a single stream.
+   */
+  public static final String OZONE_S3G_COPY_PARALLEL_THRESHOLD =
+      "ozone.s3g.copy.parallel.threshold";
+  public static final String OZONE_S3G_COPY_PARALLEL_THRESHOLD_DEFAULT =
+      "128MB";
+
+  public static final String OZONE_S3G_COPY_PARALLEL_CHUNK_SIZE =
+      "ozone.s3g.copy.parallel.chunk-size";
+  public static final String OZONE_S3G_COPY_PARALLEL_CHUNK_SIZE_DEFAULT =
+      "8MB";
+
+  /**
+   * Maximum number of chunks read ahead of the consumer, per stream.
+   */
+  public static final String OZONE_S3G_COPY_PARALLEL_READ_AHEAD =
+      "ozone.s3g.copy.parallel.read-ahead";
+  public static final int OZONE_S3G_COPY_PARALLEL_READ_AHEAD_DEFAULT = 4;
+
+  /**
+   * Maximum size of the chunks buffered by all the copies of the gateway.
+   */
+  public static final String OZONE_S3G_COPY_PARALLEL_MAX_BUFFER =
+      "ozone.s3g.copy.parallel.max-buffer";
+  public static final String OZONE_S3G_COPY_PARALLEL_MAX_BUFFER_DEFAULT =
+      "256MB";
+
+  private static ParallelKeyReader instance;
+
+  private final S3GatewayMetrics metrics;
+
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * Chunk buffers which can be allocated, shared by all the copies.
+   */
+  private final Semaphore buffers;
+
+  private final long threshold;
+
+  private final int chunkSize;
+
+  private final int readAhead;
+
+  private ParallelKeyReader(OzoneConfiguration conf) {
+    this.metrics = S3GatewayMetrics.create();
+    int threads = conf.getInt(OZONE_S3G_COPY_PARALLEL_THREADS,
+        OZONE_S3G_COPY_PARALLEL_THREADS_DEFAULT);
+    this.threshold = (long) conf.getStorageSize(
+        OZONE_S3G_COPY_PARALLEL_THRESHOLD,
+        OZONE_S3G_COPY_PARALLEL_THRESHOLD_DEFAULT, StorageUnit.BYTES);
+    this.chunkSize = (int) Math.max(1, conf.getStorageSize(
+        OZONE_S3G_COPY_PARALLEL_CHUNK_SIZE,
+        OZONE_S3G_COPY_PARALLEL_CHUNK_SIZE_DEFAULT, StorageUnit.BYTES));
+    this.readAhead = Math.max(1, conf.getInt(
+        OZONE_S3G_COPY_PARALLEL_READ_AHEAD,
+        OZONE_S3G_COPY_PARALLEL_READ_AHEAD_DEFAULT));
+    long maxBuffer = (long) conf.getStorageSize(
+        OZONE_S3G_COPY_PARALLEL_MAX_BUFFER,
+        OZONE_S3G_COPY_PARALLEL_MAX_BUFFER_DEFAULT, StorageUnit.BYTES);
+    int maxChunks = (int) Math.max(1,
+        Math.min(Integer.MAX_VALUE, maxBuffer / chunkSize));
+    this.buffers = new Semaphore(maxChunks);
+    if (threads > 0) {
+      // A queued chunk read holds a buffer, the queue never holds more
+      // reads than there are buffers.
+      this.executor = new ThreadPoolExecutor(threads, threads,
+          60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(maxChunks),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("S3G-ParallelKeyReader-%d").build());
+      executor.allowCoreThreadTimeOut(true);
+      LOG.info("Parallel key read for keys above {} bytes: {} threads, " +
+          "chunk size {}, read ahead {}, max buffer {}", threshold, threads,
+          chunkSize, readAhead, maxBuffer);
+    } else {
+      this.executor = null;
+    }
+  }
+
+  /**
+   * Create and returns the ParallelKeyReader instance.
+   *
+   * @return ParallelKeyReader
+   */
+  public static synchronized ParallelKeyReader create(
+      OzoneConfiguration conf) {
+    if (instance == null) {
+      instance = new ParallelKeyReader(conf);
+    }
+    return instance;
+  }
+
+  /**
+   * Stop the threads and drop the instance, the next create() call reads
+   * the configuration again.
+   */
+  @VisibleForTesting
+  public static synchronized void reset() {
+    if (instance != null && instance.executor != null) {
+      instance.executor.shutdownNow();
+    }
+    instance = null;
+  }
+
+  /**
+   * @return true if a key of the given length should be read in parallel.
+   */
+  public boolean accept(long length) {
+    return executor != null && length >= threshold && length > chunkSize;
+  }
+
+  /**
+   * Open the key for a sequential read, with the chunks read in parallel.
+   *
+   * @param opener opens the streams of the key
+   * @param length length of the key
+   */
+  public InputStream open(KeyOpener opener, long length) throws IOException {
+    metrics.incCopyObjectParallel(length);
+    ReadAheadStream stream = new ReadAheadStream(opener, length);
+    try {
+      stream.schedule(false);
+    } catch (IOException | RuntimeException ex) {
+      stream.close();
+      throw ex;
+    }
+    return stream;
+  }
+
+  @VisibleForTesting
+  int getAvailableBuffers() {
+    return buffers.availablePermits();
+  }
+
+  /**
+   * Opens the streams of a key.
+   */
+  public interface KeyOpener {
+
+    /**
+     * @return a new stream of the key.
+     */
+    InputStream open() throws IOException;
+
+    /**
+     * Position a stream returned by {@link #open()} at the offset.
+     */
+    void seek(InputStream in, long offset) throws IOException;
+  }
+
+  /**
+   * Serves the chunks in order, keeping a bounded number of chunk reads in
+   * flight.
+   */
+  private final class ReadAheadStream extends InputStream {
+
+    private final KeyOpener opener;
+
+    private final long length;
+
+    private final Deque<ChunkRead> pending = new ArrayDeque<>();
+
+    /**
+     * Streams of the key not used by a chunk read, reused by the next reads.
+     */
+    private final Queue<InputStream> idle = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Offset of the next chunk to schedule.
+     */
+    private long nextOffset;
+
+    /**
+     * Bytes not yet returned to the caller, tracked for the progress gauge.
+     */
+    private long remaining;
+
+    /**
+     * Buffers held by the pending chunks and the current chunk.
+     */
+    private int heldBuffers;
+
+    private byte[] chunk;
+
+    private int chunkPos;
+
+    private volatile boolean closed;
+
+    private ReadAheadStream(KeyOpener opener, long length) {
+      this.opener = opener;
+      this.length = length;
+      this.remaining = length;
+    }
+
+    /**
+     * Schedule the reads of the next chunks, as far as the read ahead and
+     * the buffer budget allow.
+     *
+     * @param wait wait for a buffer if the stream holds none, so that it
+     * makes progress when the budget is exhausted
+     */
+    private void schedule(boolean wait) throws IOException {
+      while (pending.size() < readAhead && nextOffset < length) {
+        if (wait && heldBuffers == 0) {
+          try {
+            buffers.acquire();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting " +
+                "for a chunk buffer");
+          }
+        } else if (!buffers.tryAcquire()) {
+          return;
+        }
+        heldBuffers++;
+        ChunkRead read = new ChunkRead(nextOffset,
+            (int) Math.min(chunkSize, length - nextOffset));
+        try {
+          read.future = executor.submit(read);
+          pending.add(read);
+        } catch (RejectedExecutionException e) {
+          releaseBuffers(1);
+          throw new IOException("Failed to schedule the read of a chunk", e);
+        }
+        nextOffset += read.len;
+      }
+    }
+
+    private byte[] readChunk(long offset, int len) throws IOException {
+      long start = System.nanoTime();
+      byte[] buffer = new byte[len];
+      InputStream in = idle.poll();
+      if (in == null) {
+        in = opener.open();
+      }
+      try {
+        opener.seek(in, offset);
+        IOUtils.readFully(in, buffer);
+      } catch (IOException | RuntimeException ex) {
+        IOUtils.closeQuietly(in);
+        throw ex;
+      }
+      idle.add(in);
+      if (closed) {
+        closeIdle();
+      }
+      metrics.addCopyObjectChunkRead(System.nanoTime() - start);
+      return buffer;
+    }
+
+    private void releaseBuffers(int n) {
+      heldBuffers -= n;
+      buffers.release(n);
+    }
+
+    private void closeIdle() {
+      InputStream in;
+      while ((in = idle.poll()) != null) {
+        IOUtils.closeQuietly(in);
+      }
+    }
+
+    /**
+     * @return false at the end of the key.
+     */
+    private boolean nextChunk() throws IOException {
+      if (closed) {
+        throw new IOException("Stream is closed");
+      }
+      if (chunk != null && chunkPos < chunk.length) {
+        return true;
+      }
+      if (chunk != null) {
+        chunk = null;
+        releaseBuffers(1);
+      }
+      if (pending.isEmpty()) {
+        schedule(true);
+      }
+      ChunkRead next = pending.poll();
+      if (next == null) {
+        return false;
+      }
+      try {
+        chunk = next.future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while reading chunk");
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Failed to read chunk", e.getCause());
+      } finally {
+        if (chunk == null) {
+          releaseBuffers(1);
+        }
+      }
+      chunkPos = 0;
+      schedule(false);
+      return true;
+    }
+
+    /**
+     * Read of a chunk, holding one buffer of the budget until the chunk is
+     * consumed, or until the stream is closed and the read is finished.
+     */
+    private final class ChunkRead implements Callable<byte[]> {
+
+      private final long offset;
+
+      private final int len;
+
+      private Future<byte[]> future;
+
+      private volatile boolean finished;
+
+      private final AtomicBoolean released = new AtomicBoolean();
+
+      private ChunkRead(long offset, int len) {
+        this.offset = offset;
+        this.len = len;
+      }
+
+      @Override
+      public byte[] call() throws IOException {
+        try {
+          if (closed) {
+            return null;
+          }
+          return readChunk(offset, len);
+        } finally {
+          // Either this read or close() sees that the other one is done.
+          finished = true;
+          if (closed) {
+            release();
+          }
+        }
+      }
+
+      private void release() {
+        if (released.compareAndSet(false, true)) {
+          buffers.release();
+        }
+      }
+    }
+
+    private void consumed(int n) {
+      chunkPos += n;
+      remaining -= n;
+      metrics.addCopyObjectPendingBytes(-n);
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!nextChunk()) {
+        return -1;
+      }
+      int b = chunk[chunkPos] & 0xff;
+      consumed(1);
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!nextChunk()) {
+        return -1;
+      }
+      int n = Math.min(len, chunk.length - chunkPos);
+      System.arraycopy(chunk, chunkPos, b, off, n);
+      consumed(n);
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return chunk == null ? 0 : chunk.length - chunkPos;
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      for (ChunkRead read : pending) {
+        // A read still in the queue never runs, a finished read holds its
+        // buffer. A running read still fills its buffer, it releases it
+        // when it finishes.
+        if (executor.remove((Runnable) read.future) || read.finished) {
+          read.release();
+        }
+      }
+      pending.clear();
+      if (chunk != null) {
+        chunk = null;
+        buffers.release();
+      }
+      heldBuffers = 0;
+      closeIdle();
+      metrics.addCopyObjectPendingBytes(-remaining);
+    }
+  }
+}
@@ -0,0 +1,405 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact binary trace of the object requests, for replaying production
+ * traffic offline.
+ * <p>
+ * The request threads add fixed size records to a lock-free ring buffer,
+ * a background thread appends them to the trace file. When the buffer is
+ * full the records are dropped and counted, the requests never wait for
+ * the file. Keys and buckets are recorded as the hash of their name.
+ * <p>
+ * The file starts with a header of the magic number, the version and the
+ * record size as three ints, followed by the records. A record is
+ * {@value #RECORD_SIZE} bytes, big endian:
+ * <pre>
+ *  0  long  start time, epoch millis
+ *  8  byte  operation, ordinal of {@link S3Operation}
+ *  9  byte  flags, {@link #FLAG_RANGE} if a range was requested
+ * 10  short HTTP status of the response
+ * 12  int   hash of the bucket name
+ * 16  int   hash of the key name
+ * 20  long  number of bytes of the request or response body
+ * 28  long  first byte of the range, 0 without range
+ * 36  long  latency in nanoseconds
+ * 44  int   reserved, 0
+ * </pre>
+ */
+public final class S3AccessTrace implements Closeable {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(S3AccessTrace.class);
+
+  /**
+   * File to append the trace to, tracing is disabled if not set.
+   */
+  public static final String OZONE_S3G_ACCESS_TRACE_FILE =
+      "ozone.s3g.access.trace.file";
+
+  /**
+   * Number of records buffered in memory, rounded up to a power of 2.
+   */
+  public static final String OZONE_S3G_ACCESS_TRACE_BUFFER_RECORDS =
+      "ozone.s3g.access.trace.buffer-records";
+  public static final int OZONE_S3G_ACCESS_TRACE_BUFFER_RECORDS_DEFAULT =
+      65536;
+
+  public static final int MAGIC = 0x53335452;
+
+  public static final int VERSION = 1;
+
+  public static final int RECORD_SIZE = 48;
+
+  public static final int HEADER_SIZE = 12;
+
+  public static final byte FLAG_RANGE = 1;
+
+  private static final long WRITER_IDLE_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(10);
+
+  private static volatile S3AccessTrace instance;
+
+  private static volatile boolean disabled;
+
+  private final ByteBuffer ring;
+
+  private final int mask;
+
+  /**
+   * Sequence of the record published in each slot.
+   */
+  private final AtomicLongArray published;
+
+  /**
+   * Next sequence to claim by the producers.
+   */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Next sequence to write by the writer.
+   */
+  private final AtomicLong head = new AtomicLong();
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  private final FileChannel channel;
+
+  private final Thread writer;
+
+  private volatile boolean closed;
+
+  private S3AccessTrace(Path file, int bufferRecords) throws IOException {
+    int capacity = Integer.highestOneBit(Math.max(1, bufferRecords - 1)) << 1;
+    this.ring = ByteBuffer.allocate(capacity * RECORD_SIZE);
+    this.mask = capacity - 1;
+    this.published = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      published.set(i, -1);
+    }
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    if (channel.size() == 0) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).flip();
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+    }
+    this.writer = new Thread(this::writeLoop, "S3G-AccessTraceWriter");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Create and returns the S3AccessTrace instance. Called for each request,
+   * it does not lock once the trace is created or known to be disabled.
+   *
+   * @return S3AccessTrace, or null if tracing is disabled or the trace file
+   * can't be opened
+   */
+  public static S3AccessTrace create(OzoneConfiguration conf) {
+    S3AccessTrace trace = instance;
+    if (trace != null || disabled) {
+      return trace;
+    }
+    synchronized (S3AccessTrace.class) {
+      if (instance == null && !disabled) {
+        String file = conf.getTrimmed(OZONE_S3G_ACCESS_TRACE_FILE, "");
+        if (file.isEmpty()) {
+          disabled = true;
+          return null;
+        }
+        try {
+          instance = new S3AccessTrace(Paths.get(file), conf.getInt(
+              OZONE_S3G_ACCESS_TRACE_BUFFER_RECORDS,
+              OZONE_S3G_ACCESS_TRACE_BUFFER_RECORDS_DEFAULT));
+          LOG.info("Tracing object requests to {}", file);
+        } catch (IOException e) {
+          LOG.error("Failed to open the access trace {}, tracing is disabled",
+              file, e);
+          disabled = true;
+        }
+      }
+      return instance;
+    }
+  }
+
+  /**
+   * Close the trace and drop the instance, the next create() call reads
+   * the configuration again.
+   */
+  @VisibleForTesting
+  public static synchronized void reset() {
+    if (instance != null) {
+      instance.close();
+    }
+    instance = null;
+    disabled = false;
+  }
+
+  /**
+   * Add a record to the trace, or drop it if the buffer is full.
+   */
+  public void record(long startMillis, S3Operation operation, String bucket,
+      String key, int status, long bytes, long rangeStart, long latencyNanos) {
+    long sequence;
+    do {
+      sequence = tail.get();
+      if (sequence - head.get() > mask) {
+        dropped.incrementAndGet();
+        return;
+      }
+    } while (!tail.compareAndSet(sequence, sequence + 1));
+
+    int slot = (int) (sequence & mask);
+    int offset = slot * RECORD_SIZE;
+    ring.putLong(offset, startMillis);
+    ring.put(offset + 8, (byte) operation.ordinal());
+    ring.put(offset + 9, rangeStart >= 0 ? FLAG_RANGE : 0);
+    ring.putShort(offset + 10, (short) status);
+    ring.putInt(offset + 12, bucket == null ? 0 : bucket.hashCode());
+    ring.putInt(offset + 16, key == null ? 0 : key.hashCode());
+    ring.putLong(offset + 20, bytes);
+    ring.putLong(offset + 28, Math.max(0, rangeStart));
+    ring.putLong(offset + 36, latencyNanos);
+    ring.putInt(offset + 44, 0);
+    // Publishes the record to the writer.
+    published.lazySet(slot, sequence);
+  }
+
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  private void writeLoop() {
+    ByteBuffer out = ByteBuffer.allocate(1024 * RECORD_SIZE);
+    while (true) {
+      boolean stopping = closed;
+      try {
+        int written = drain(out);
+        if (written == 0) {
+          if (stopping) {
+            return;
+          }
+          LockSupport.parkNanos(WRITER_IDLE_NANOS);
+        }
+      } catch (IOException e) {
+        LOG.error("Failed to write the access trace, tracing is stopped", e);
+        closed = true;
+        // Let the producers drop the records.
+        head.set(Long.MIN_VALUE / 2);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Write the published records to the file.
+   *
+   * @return the number of records written.
+   */
+  private int drain(ByteBuffer out) throws IOException {
+    long sequence = head.get();
+    int count = 0;
+    out.clear();
+    while (out.remaining() >= RECORD_SIZE) {
+      int slot = (int) (sequence & mask);
+      if (published.get(slot) != sequence) {
+        break;
+      }
+      int offset = slot * RECORD_SIZE;
+      for (int i = 0; i < RECORD_SIZE; i++) {
+        out.put(ring.get(offset + i));
+      }
+      sequence++;
+      count++;
+    }
+    // Release the slots before the write, they are copied.
+    head.lazySet(sequence);
+    out.flip();
+    while (out.hasRemaining()) {
+      channel.write(out);
+    }
+    return count;
+  }
+
+  /**
+   * Write the buffered records and close the file.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+      channel.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      LOG.warn("Failed to close the access trace", e);
+    }
+  }
+
+  /**
+   * Read the records of a trace file.
+   */
+  public static void read(Path file, Consumer<Record> consumer)
+      throws IOException {
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      readFully(in, header);
+      if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+          || header.getInt(8) != RECORD_SIZE) {
+        throw new IOException(file + " is not an access trace of version "
+            + VERSION);
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(1024 * RECORD_SIZE);
+      while (in.read(buffer) != -1 || buffer.position() > 0) {
+        buffer.flip();
+        while (buffer.remaining() >= RECORD_SIZE) {
+          consumer.accept(new Record(buffer));
+        }
+        if (buffer.hasRemaining() && !hasMore(in)) {
+          // Truncated last record of a trace being written.
+          return;
+        }
+        buffer.compact();
+      }
+    }
+  }
+
+  private static boolean hasMore(FileChannel in) throws IOException {
+    return in.position() < in.size();
+  }
+
+  private static void readFully(FileChannel in, ByteBuffer buffer)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (in.read(buffer) == -1) {
+        throw new EOFException("Truncated access trace header");
+      }
+    }
+  }
+
+  /**
+   * A record of the trace.
+   */
+  public static final class Record {
+    private final long startMillis;
+    private final S3Operation operation;
+    private final boolean range;
+    private final int status;
+    private final int bucketHash;
+    private final int keyHash;
+    private final long bytes;
+    private final long rangeStart;
+    private final long latencyNanos;
+
+    private Record(ByteBuffer buffer) {
+      startMillis = buffer.getLong();
+      operation = S3Operation.values()[buffer.get()];
+      range = (buffer.get() & FLAG_RANGE) != 0;
+      status = buffer.getShort() & 0xFFFF;
+      bucketHash = buffer.getInt();
+      keyHash = buffer.getInt();
+      bytes = buffer.getLong();
+      rangeStart = buffer.getLong();
+      latencyNanos = buffer.getLong();
+      buffer.getInt();
+    }
+
+    public long getStartMillis() {
+      return startMillis;
+    }
+
+    public S3Operation getOperation() {
+      return operation;
+    }
+
+    public boolean isRange() {
+      return range;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    public int getBucketHash() {
+      return bucketHash;
+    }
+
+    public int getKeyHash() {
+      return keyHash;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    public long getRangeStart() {
+      return rangeStart;
+    }
+
+    public long getLatencyNanos() {
+      return latencyNanos;
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3;
+
+import javax.inject.Inject;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+
+import static javax.ws.rs.core.HttpHeaders.CONTENT_LENGTH;
+import static org.apache.hadoop.ozone.s3.util.S3Consts.COPY_SOURCE_HEADER;
+import static org.apache.hadoop.ozone.s3.util.S3Consts.RANGE_HEADER;
+
+/**
+ * Records the object requests in the {@link S3AccessTrace}, when the trace
+ * is enabled.
+ * <p>
+ * The latency of a response with a body includes writing the body, the
+ * record is added when the entity is written.
+ */
+@Provider
+public class S3AccessTraceFilter implements ContainerRequestFilter,
+    ContainerResponseFilter, WriterInterceptor {
+
+  private static final String START_NANOS = "s3g.trace.start.nanos";
+
+  private static final String START_MILLIS = "s3g.trace.start.millis";
+
+  private static final String PENDING = "s3g.trace.pending";
+
+  private static final String DECODED_CONTENT_LENGTH_HEADER =
+      "x-amz-decoded-content-length";
+
+  @Inject
+  private OzoneConfiguration ozoneConfiguration;
+
+  @Override
+  public void filter(ContainerRequestContext request) {
+    if (S3AccessTrace.create(ozoneConfiguration) != null) {
+      request.setProperty(START_MILLIS, System.currentTimeMillis());
+      request.setProperty(START_NANOS, System.nanoTime());
+    }
+  }
+
+  @Override
+  public void filter(ContainerRequestContext request,
+      ContainerResponseContext response) {
+    Long startNanos = (Long) request.getProperty(START_NANOS);
+    if (startNanos == null) {
+      return;
+    }
+    MultivaluedMap<String, String> pathParameters =
+        request.getUriInfo().getPathParameters();
+    String key = pathParameters.getFirst("path");
+    S3Operation operation = key == null ? null : toOperation(request);
+    if (operation == null) {
+      return;
+    }
+    long bytes;
+    if (request.hasEntity()) {
+      String length = request.getHeaderString(DECODED_CONTENT_LENGTH_HEADER);
+      bytes = parseLong(length != null ? length
+          : request.getHeaderString(CONTENT_LENGTH));
+    } else {
+      bytes = parseLong(response.getHeaderString(CONTENT_LENGTH));
+    }
+    Pending pending = new Pending(
+        (Long) request.getProperty(START_MILLIS), startNanos, operation,
+        pathParameters.getFirst("bucket"), key, response.getStatus(), bytes,
+        rangeStart(request.getHeaderString(RANGE_HEADER)));
+    if (response.hasEntity()) {
+      request.setProperty(PENDING, pending);
+    } else {
+      pending.record();
+    }
+  }
+
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context)
+      throws IOException {
+    try {
+      context.proceed();
+    } finally {
+      Pending pending = (Pending) context.getProperty(PENDING);
+      if (pending != null) {
+        context.removeProperty(PENDING);
+        pending.record();
+      }
+    }
+  }
+
+  private static S3Operation toOperation(ContainerRequestContext request) {
+    MultivaluedMap<String, String> query =
+        request.getUriInfo().getQueryParameters();
+    boolean upload = query.containsKey("uploadId");
+    switch (request.getMethod()) {
+    case "GET":
+      return upload ? S3Operation.LIST_PARTS : S3Operation.GET_OBJECT;
+    case "HEAD":
+      return S3Operation.HEAD_OBJECT;
+    case "PUT":
+      if (request.getHeaderString(COPY_SOURCE_HEADER) != null) {
+        return upload ? S3Operation.UPLOAD_PART_COPY : S3Operation.COPY_OBJECT;
+      }
+      return upload ? S3Operation.UPLOAD_PART : S3Operation.PUT_OBJECT;
+    case "DELETE":
+      return upload ? S3Operation.ABORT_MULTIPART_UPLOAD
+          : S3Operation.DELETE_OBJECT;
+    case "POST":
+      return upload ? S3Operation.COMPLETE_MULTIPART_UPLOAD
+          : S3Operation.INIT_MULTIPART_UPLOAD;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * @return the first byte of the range, 0 for a suffix range, -1 without
+   * range.
+   */
+  private static long rangeStart(String range) {
+    if (range == null || !range.startsWith("bytes=")) {
+      return -1;
+    }
+    int dash = range.indexOf('-');
+    return dash <= 6 ? 0 : parseLong(range.substring(6, dash));
+  }
+
+  private static long parseLong(String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Record of a request waiting for its response body to be written.
+   */
+  private final class Pending {
+    private final long startMillis;
+    private final long startNanos;
+    private final S3Operation operation;
+    private final String bucket;
+    private final String key;
+    private final int status;
+    private final long bytes;
+    private final long rangeStart;
+
+    private Pending(long startMillis, long startNanos, S3Operation operation,
+        String bucket, String key, int status, long bytes, long rangeStart) {
+      this.startMillis = startMillis;
+      this.startNanos = startNanos;
+      this.operation = operation;
+      this.bucket = bucket;
+      this.key = key;
+      this.status = status;
+      this.bytes = bytes;
+      this.rangeStart = rangeStart;
+    }
+
+    private void record() {
+      long latencyNanos = System.nanoTime() - startNanos;
+      S3AccessTrace trace = S3AccessTrace.create(ozoneConfiguration);
+      if (trace != null) {
+        trace.record(startMillis, operation,
+            bucket, key, status, bytes, rangeStart, latencyNanos);
+      }
+    }
+  }
+}
@@ -0,0 +1,412 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.endpoint;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.client.OzoneClient;
+import org.apache.hadoop.ozone.client.OzoneClientStub;
+import org.apache.hadoop.ozone.s3.S3AccessTrace;
+import org.apache.hadoop.ozone.s3.exception.OS3Exception;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+
+import static org.apache.hadoop.ozone.s3.util.S3Consts.COPY_SOURCE_HEADER;
+import static org.apache.hadoop.ozone.s3.util.S3Consts.RANGE_HEADER;
+
+/**
+ * Replays a trace recorded by {@link S3AccessTrace} against ObjectEndpoint
+ * with OzoneClientStub, at the original speed or accelerated.
+ * <p>
+ * The names of the trace are hashes, the replay uses a bucket and a key
+ * named after each hash. The requests of a key go to the same worker, with
+ * its own stub, so they are replayed in their original order. The objects
+ * read by the trace are created before the replay with the largest size
+ * seen. The multipart operations are skipped, the trace does not record
+ * the upload of the parts.
+ * <p>
+ * The report compares the replayed latency and status with the trace, the
+ * lag is the delay of the replay behind the schedule of the trace.
+ * <pre>
+ * S3AccessTraceReplay trace-file [speed] [workers]
+ * S3AccessTraceReplay /tmp/s3g.trace 10 16
+ * </pre>
+ * A speed of 0 replays the trace as fast as possible.
+ */
+public final class S3AccessTraceReplay {
+
+  /**
+   * Objects of the trace are capped to this size.
+   */
+  private static final int MAX_OBJECT_SIZE = 64 * 1024 * 1024;
+
+  private final List<S3AccessTrace.Record> records;
+
+  private final double speed;
+
+  private final Worker[] workers;
+
+  private final byte[] content;
+
+  public S3AccessTraceReplay(List<S3AccessTrace.Record> records, double speed,
+      int workers) {
+    this.records = new ArrayList<>(records);
+    this.records.sort(
+        Comparator.comparingLong(S3AccessTrace.Record::getStartMillis));
+    this.speed = speed;
+    this.workers = new Worker[workers];
+    long maxBytes = 0;
+    for (S3AccessTrace.Record record : records) {
+      maxBytes = Math.max(maxBytes, objectSize(record));
+    }
+    content = new byte[(int) maxBytes];
+    ThreadLocalRandom.current().nextBytes(content);
+  }
+
+  public static S3AccessTraceReplay load(Path file, double speed,
+      int workers) throws IOException {
+    List<S3AccessTrace.Record> records = new ArrayList<>();
+    S3AccessTrace.read(file, records::add);
+    return new S3AccessTraceReplay(records, speed, workers);
+  }
+
+  public Result run() throws Exception {
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Worker();
+    }
+    for (S3AccessTrace.Record record : records) {
+      worker(record).prepare(record);
+    }
+
+    Result result = new Result();
+    long start = System.nanoTime();
+    try {
+      long firstMillis = records.isEmpty() ? 0
+          : records.get(0).getStartMillis();
+      for (S3AccessTrace.Record record : records) {
+        long due = start;
+        if (speed > 0) {
+          due += (long) ((record.getStartMillis() - firstMillis)
+              * 1_000_000L / speed);
+          long wait = due - System.nanoTime();
+          if (wait > 0) {
+            LockSupport.parkNanos(wait);
+          }
+        }
+        result.lagNanos = Math.max(result.lagNanos, System.nanoTime() - due);
+        Worker worker = worker(record);
+        worker.executor.execute(() -> worker.replay(record));
+      }
+    } finally {
+      for (Worker worker : workers) {
+        worker.executor.shutdown();
+      }
+      for (Worker worker : workers) {
+        worker.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+      }
+    }
+    result.elapsedNanos = System.nanoTime() - start;
+    for (Worker worker : workers) {
+      result.add(worker);
+    }
+    return result;
+  }
+
+  private Worker worker(S3AccessTrace.Record record) {
+    return workers[Math.floorMod(
+        31 * record.getBucketHash() + record.getKeyHash(), workers.length)];
+  }
+
+  private static long objectSize(S3AccessTrace.Record record) {
+    long size = record.getBytes();
+    if (record.isRange()) {
+      size += record.getRangeStart();
+    }
+    return Math.min(size, MAX_OBJECT_SIZE);
+  }
+
+  private static String bucketName(S3AccessTrace.Record record) {
+    return "b" + Integer.toHexString(record.getBucketHash());
+  }
+
+  private static String keyName(S3AccessTrace.Record record) {
+    return "k" + Integer.toHexString(record.getKeyHash());
+  }
+
+  /**
+   * Replays the requests of a subset of the keys, with its own endpoint
+   * and stub.
+   */
+  private final class Worker {
+
+    private final ExecutorService executor =
+        Executors.newSingleThreadExecutor();
+
+    private final Map<String, String> headerValues = new HashMap<>();
+
+    private final ObjectEndpoint endpoint = new ObjectEndpoint();
+
+    private final OzoneClient client = new OzoneClientStub();
+
+    private final Set<String> buckets = new HashSet<>();
+
+    private final Map<String, Long> preloaded = new HashMap<>();
+
+    private final long[] replayed = new long[S3Operation.values().length];
+
+    private final long[] skipped = new long[S3Operation.values().length];
+
+    private final long[] statusMismatches =
+        new long[S3Operation.values().length];
+
+    private final List<List<Long>> replayNanos = new ArrayList<>();
+
+    private final List<List<Long>> traceNanos = new ArrayList<>();
+
+    private Worker() {
+      endpoint.setClient(client);
+      endpoint.setOzoneConfiguration(new OzoneConfiguration());
+      endpoint.setHeaders((HttpHeaders) Proxy.newProxyInstance(
+          HttpHeaders.class.getClassLoader(),
+          new Class<?>[] {HttpHeaders.class},
+          (proxy, method, args) -> "getHeaderString".equals(method.getName())
+              ? headerValues.get((String) args[0]) : null));
+      endpoint.init();
+      for (int i = 0; i < S3Operation.values().length; i++) {
+        replayNanos.add(new ArrayList<>());
+        traceNanos.add(new ArrayList<>());
+      }
+    }
+
+    /**
+     * Create the bucket of the record and the object it reads.
+     */
+    private void prepare(S3AccessTrace.Record record)
+        throws IOException, OS3Exception {
+      String bucket = bucketName(record);
+      if (buckets.add(bucket)) {
+        client.getObjectStore().createS3Bucket(bucket);
+      }
+      switch (record.getOperation()) {
+      case GET_OBJECT:
+      case HEAD_OBJECT:
+      case COPY_OBJECT:
+        String key = bucket + "/" + keyName(record);
+        long size = objectSize(record);
+        if (size > preloaded.getOrDefault(key, -1L)) {
+          preloaded.put(key, size);
+          headerValues.clear();
+          endpoint.put(bucket, keyName(record), size, 0, "",
+              new ByteArrayInputStream(content, 0, (int) size));
+        }
+        break;
+      default:
+        break;
+      }
+    }
+
+    private void replay(S3AccessTrace.Record record) {
+      int op = record.getOperation().ordinal();
+      String bucket = bucketName(record);
+      String key = keyName(record);
+      long size = objectSize(record);
+      headerValues.clear();
+      long start = System.nanoTime();
+      int status;
+      try {
+        switch (record.getOperation()) {
+        case GET_OBJECT:
+          if (record.isRange()) {
+            headerValues.put(RANGE_HEADER, "bytes=" + record.getRangeStart()
+                + "-" + (record.getRangeStart() + record.getBytes() - 1));
+          }
+          status = consume(endpoint.get(bucket, key, null, 0, null, null));
+          break;
+        case HEAD_OBJECT:
+          status = endpoint.head(bucket, key).getStatus();
+          break;
+        case PUT_OBJECT:
+          status = endpoint.put(bucket, key, size, 0, "",
+              new ByteArrayInputStream(content, 0, (int) size)).getStatus();
+          break;
+        case DELETE_OBJECT:
+          status = endpoint.delete(bucket, key, "").getStatus();
+          break;
+        case COPY_OBJECT:
+          headerValues.put(COPY_SOURCE_HEADER, bucket + "/" + key);
+          status = consume(endpoint.put(bucket, key + "-copy", 0, 0, "",
+              null));
+          break;
+        default:
+          skipped[op]++;
+          return;
+        }
+      } catch (OS3Exception ex) {
+        status = ex.getHttpCode();
+      } catch (IOException | RuntimeException ex) {
+        status = 500;
+      }
+      replayNanos.get(op).add(System.nanoTime() - start);
+      traceNanos.get(op).add(record.getLatencyNanos());
+      replayed[op]++;
+      if (status != record.getStatus()) {
+        statusMismatches[op]++;
+      }
+    }
+  }
+
+  private static int consume(Response response) throws IOException {
+    if (response.getEntity() instanceof StreamingOutput) {
+      ((StreamingOutput) response.getEntity())
+          .write(NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+    return response.getStatus();
+  }
+
+  /**
+   * Outcome of a replay.
+   */
+  public static final class Result {
+
+    private long elapsedNanos;
+
+    private long lagNanos;
+
+    private final long[] replayed = new long[S3Operation.values().length];
+
+    private final long[] skipped = new long[S3Operation.values().length];
+
+    private final long[] statusMismatches =
+        new long[S3Operation.values().length];
+
+    private final List<List<Long>> replayNanos = new ArrayList<>();
+
+    private final List<List<Long>> traceNanos = new ArrayList<>();
+
+    private Result() {
+      for (int i = 0; i < S3Operation.values().length; i++) {
+        replayNanos.add(new ArrayList<>());
+        traceNanos.add(new ArrayList<>());
+      }
+    }
+
+    private void add(Worker worker) {
+      for (int op = 0; op < replayed.length; op++) {
+        replayed[op] += worker.replayed[op];
+        skipped[op] += worker.skipped[op];
+        statusMismatches[op] += worker.statusMismatches[op];
+        replayNanos.get(op).addAll(worker.replayNanos.get(op));
+        traceNanos.get(op).addAll(worker.traceNanos.get(op));
+      }
+    }
+
+    public long getReplayed(S3Operation operation) {
+      return replayed[operation.ordinal()];
+    }
+
+    public long getSkipped(S3Operation operation) {
+      return skipped[operation.ordinal()];
+    }
+
+    /**
+     * @return the number of requests replayed with another status than the
+     * one of the trace.
+     */
+    public long getStatusMismatches(S3Operation operation) {
+      return statusMismatches[operation.ordinal()];
+    }
+
+    /**
+     * @return the largest delay of a request behind the schedule of the
+     * trace, in nanoseconds.
+     */
+    public long getLagNanos() {
+      return lagNanos;
+    }
+
+    public void print(PrintStream out) {
+      double seconds = elapsedNanos / 1e9;
+      long total = 0;
+      out.printf("%-26s %9s %8s %9s %10s %10s %10s %10s%n", "operation",
+          "ops", "skipped", "status", "p50 us", "trace p50", "p99 us",
+          "trace p99");
+      for (S3Operation operation : S3Operation.values()) {
+        int op = operation.ordinal();
+        if (replayed[op] + skipped[op] == 0) {
+          continue;
+        }
+        total += replayed[op];
+        out.printf("%-26s %9d %8d %9d %10d %10d %10d %10d%n", operation,
+            replayed[op], skipped[op], statusMismatches[op],
+            percentileMicros(replayNanos.get(op), 50),
+            percentileMicros(traceNanos.get(op), 50),
+            percentileMicros(replayNanos.get(op), 99),
+            percentileMicros(traceNanos.get(op), 99));
+      }
+      out.printf("replayed %d ops in %.1f s, %.0f ops/s, max lag %d ms%n",
+          total, seconds, total / seconds,
+          TimeUnit.NANOSECONDS.toMillis(lagNanos));
+    }
+
+    private static long percentileMicros(List<Long> values,
+        double percentile) {
+      if (values.isEmpty()) {
+        return 0;
+      }
+      Long[] sorted = values.toArray(new Long[0]);
+      Arrays.sort(sorted);
+      return TimeUnit.NANOSECONDS.toMicros(
+          sorted[(int) (percentile / 100 * (sorted.length - 1))]);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println(
+          "Usage: S3AccessTraceReplay trace-file [speed] [workers]");
+      System.exit(1);
+    }
+    double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+    int workers = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+    load(Paths.get(args[0]), speed, workers).run().print(System.out);
+  }
+}
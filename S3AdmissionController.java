@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.s3.exception.OS3Exception;
+import org.apache.hadoop.ozone.s3.metrics.S3GatewayMetrics;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.apache.hadoop.ozone.s3.exception.S3Errors.newError;
+
+/**
+ * Limits the number of concurrently executed S3 requests, with separate
+ * budgets for metadata and data operations.
+ * <p>
+ * Requests over the limit wait in a bounded queue for a limited time. When
+ * the queue is full or the wait times out, the request is rejected with
+ * 503 SlowDown, so that clients back off and retry instead of piling up
+ * work on OM and the datanodes until they time out.
+ * <p>
+ * Optionally an {@link AdaptiveConcurrencyLimiter} per operation type sheds
+ * the requests over a limit which follows the backend latency of the
+ * admitted requests, passed when their permit is closed. The time the
+ * permit is held is not used: it includes the upload or the download of
+ * the client, which says nothing about the load of the cluster.
+ */
+public final class S3AdmissionController {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(S3AdmissionController.class);
+
+  /**
+   * Maximum number of concurrent metadata operations, 0 means unlimited.
+   */
+  public static final String OZONE_S3G_ADMISSION_METADATA_MAX_CONCURRENT =
+      "ozone.s3g.admission.metadata.max-concurrent";
+  public static final int OZONE_S3G_ADMISSION_METADATA_MAX_CONCURRENT_DEFAULT
+      = 0;
+
+  /**
+   * Maximum number of concurrent data operations, 0 means unlimited.
+   */
+  public static final String OZONE_S3G_ADMISSION_DATA_MAX_CONCURRENT =
+      "ozone.s3g.admission.data.max-concurrent";
+  public static final int OZONE_S3G_ADMISSION_DATA_MAX_CONCURRENT_DEFAULT =
+      0;
+
+  /**
+   * Maximum number of metadata operations waiting for admission.
+   */
+  public static final String OZONE_S3G_ADMISSION_METADATA_MAX_QUEUE =
+      "ozone.s3g.admission.metadata.max-queue";
+  public static final int OZONE_S3G_ADMISSION_METADATA_MAX_QUEUE_DEFAULT =
+      256;
+
+  /**
+   * Maximum number of data operations waiting for admission.
+   */
+  public static final String OZONE_S3G_ADMISSION_DATA_MAX_QUEUE =
+      "ozone.s3g.admission.data.max-queue";
+  public static final int OZONE_S3G_ADMISSION_DATA_MAX_QUEUE_DEFAULT = 64;
+
+  /**
+   * Maximum time a request waits in the queue before it is rejected.
+   */
+  public static final String OZONE_S3G_ADMISSION_MAX_WAIT =
+      "ozone.s3g.admission.max-wait";
+  public static final String OZONE_S3G_ADMISSION_MAX_WAIT_DEFAULT = "1s";
+
+  /**
+   * Enable the latency driven adaptive concurrency limit, applied in
+   * addition to the static limits above.
+   */
+  public static final String OZONE_S3G_ADMISSION_ADAPTIVE_ENABLED =
+      "ozone.s3g.admission.adaptive.enabled";
+  public static final boolean OZONE_S3G_ADMISSION_ADAPTIVE_ENABLED_DEFAULT =
+      false;
+
+  public static final String OZONE_S3G_ADMISSION_ADAPTIVE_INITIAL_LIMIT =
+      "ozone.s3g.admission.adaptive.initial-limit";
+  public static final int
+      OZONE_S3G_ADMISSION_ADAPTIVE_INITIAL_LIMIT_DEFAULT = 20;
+
+  public static final String OZONE_S3G_ADMISSION_ADAPTIVE_MIN_LIMIT =
+      "ozone.s3g.admission.adaptive.min-limit";
+  public static final int OZONE_S3G_ADMISSION_ADAPTIVE_MIN_LIMIT_DEFAULT = 4;
+
+  public static final String OZONE_S3G_ADMISSION_ADAPTIVE_MAX_LIMIT =
+      "ozone.s3g.admission.adaptive.max-limit";
+  public static final int OZONE_S3G_ADMISSION_ADAPTIVE_MAX_LIMIT_DEFAULT =
+      1000;
+
+  /**
+   * Ratio of the measured and the no load latency which is tolerated
+   * before the adaptive limit is decreased.
+   */
+  public static final String OZONE_S3G_ADMISSION_ADAPTIVE_RTT_TOLERANCE =
+      "ozone.s3g.admission.adaptive.rtt-tolerance";
+  public static final float
+      OZONE_S3G_ADMISSION_ADAPTIVE_RTT_TOLERANCE_DEFAULT = 1.5f;
+
+  public static final OS3Exception SLOW_DOWN = new OS3Exception(
+      "SlowDown", "Please reduce your request rate.",
+      HttpStatus.SC_SERVICE_UNAVAILABLE);
+
+  private static S3AdmissionController instance;
+
+  private final Map<S3Operation.Type, Budget> budgets =
+      new EnumMap<>(S3Operation.Type.class);
+
+  private final Map<S3Operation.Type, AdaptiveConcurrencyLimiter>
+      adaptiveLimiters = new EnumMap<>(S3Operation.Type.class);
+
+  private final long maxWaitNanos;
+
+  private final S3GatewayMetrics metrics;
+
+  private S3AdmissionController(OzoneConfiguration conf) {
+    this.metrics = S3GatewayMetrics.create();
+    this.maxWaitNanos = conf.getTimeDuration(OZONE_S3G_ADMISSION_MAX_WAIT,
+        OZONE_S3G_ADMISSION_MAX_WAIT_DEFAULT, TimeUnit.NANOSECONDS);
+    addBudget(S3Operation.Type.METADATA,
+        conf.getInt(OZONE_S3G_ADMISSION_METADATA_MAX_CONCURRENT,
+            OZONE_S3G_ADMISSION_METADATA_MAX_CONCURRENT_DEFAULT),
+        conf.getInt(OZONE_S3G_ADMISSION_METADATA_MAX_QUEUE,
+            OZONE_S3G_ADMISSION_METADATA_MAX_QUEUE_DEFAULT));
+    addBudget(S3Operation.Type.DATA,
+        conf.getInt(OZONE_S3G_ADMISSION_DATA_MAX_CONCURRENT,
+            OZONE_S3G_ADMISSION_DATA_MAX_CONCURRENT_DEFAULT),
+        conf.getInt(OZONE_S3G_ADMISSION_DATA_MAX_QUEUE,
+            OZONE_S3G_ADMISSION_DATA_MAX_QUEUE_DEFAULT));
+
+    if (conf.getBoolean(OZONE_S3G_ADMISSION_ADAPTIVE_ENABLED,
+        OZONE_S3G_ADMISSION_ADAPTIVE_ENABLED_DEFAULT)) {
+      int initialLimit = conf.getInt(
+          OZONE_S3G_ADMISSION_ADAPTIVE_INITIAL_LIMIT,
+          OZONE_S3G_ADMISSION_ADAPTIVE_INITIAL_LIMIT_DEFAULT);
+      int minLimit = conf.getInt(OZONE_S3G_ADMISSION_ADAPTIVE_MIN_LIMIT,
+          OZONE_S3G_ADMISSION_ADAPTIVE_MIN_LIMIT_DEFAULT);
+      int maxLimit = conf.getInt(OZONE_S3G_ADMISSION_ADAPTIVE_MAX_LIMIT,
+          OZONE_S3G_ADMISSION_ADAPTIVE_MAX_LIMIT_DEFAULT);
+      float rttTolerance = conf.getFloat(
+          OZONE_S3G_ADMISSION_ADAPTIVE_RTT_TOLERANCE,
+          OZONE_S3G_ADMISSION_ADAPTIVE_RTT_TOLERANCE_DEFAULT);
+      // Metadata and data operations have very different latencies, they
+      // are limited independently.
+      for (S3Operation.Type type : S3Operation.Type.values()) {
+        adaptiveLimiters.put(type, new AdaptiveConcurrencyLimiter(
+            initialLimit, minLimit, maxLimit, rttTolerance));
+      }
+      LOG.info("Adaptive admission control: initial limit {}, limit " +
+          "range {} - {}, rtt tolerance {}", initialLimit, minLimit,
+          maxLimit, rttTolerance);
+    }
+  }
+
+  /**
+   * Create and returns the S3AdmissionController instance.
+   *
+   * @return S3AdmissionController
+   */
+  public static synchronized S3AdmissionController create(
+      OzoneConfiguration conf) {
+    if (instance == null) {
+      instance = new S3AdmissionController(conf);
+    }
+    return instance;
+  }
+
+  /**
+   * Drop the instance, the next create() call reads the configuration again.
+   */
+  @VisibleForTesting
+  public static synchronized void reset() {
+    instance = null;
+  }
+
+  private void addBudget(S3Operation.Type type, int maxConcurrent,
+      int maxQueue) {
+    if (maxConcurrent > 0) {
+      budgets.put(type, new Budget(maxConcurrent, Math.max(maxQueue, 0)));
+      LOG.info("Admission control for {} operations: max concurrent {}, " +
+          "max queue {}", type, maxConcurrent, maxQueue);
+    }
+  }
+
+  /**
+   * Admit a request, waiting in the queue if the budget of the operation
+   * type is exhausted.
+   *
+   * @param operation the requested operation
+   * @param resource resource name used in the error response
+   * @return permit which has to be closed when the request is finished
+   * @throws OS3Exception SlowDown if the request is rejected
+   */
+  public Permit acquire(S3Operation operation, String resource)
+      throws OS3Exception {
+    S3Operation.Type type = operation.getType();
+    Semaphore semaphore = acquireBudget(type, resource);
+    AdaptiveConcurrencyLimiter limiter = adaptiveLimiters.get(type);
+    if (limiter == null) {
+      return semaphore == null ? Permit.UNLIMITED :
+          new Permit(type, semaphore, null, 0, this);
+    }
+    int inFlight = limiter.tryAcquire();
+    if (inFlight == 0) {
+      if (semaphore != null) {
+        semaphore.release();
+      }
+      metrics.incAdmissionShed(type);
+      throw reject(type, resource);
+    }
+    return new Permit(type, semaphore, limiter, inFlight, this);
+  }
+
+  /**
+   * Acquire the static budget of the operation type.
+   *
+   * @return the semaphore to release, or null if there is no static limit.
+   */
+  private Semaphore acquireBudget(S3Operation.Type type, String resource)
+      throws OS3Exception {
+    Budget budget = budgets.get(type);
+    if (budget == null) {
+      return null;
+    }
+    if (budget.semaphore.tryAcquire()) {
+      metrics.addAdmissionQueueTime(type, 0);
+      return budget.semaphore;
+    }
+
+    long start = System.nanoTime();
+    if (budget.waiting.incrementAndGet() > budget.maxQueue) {
+      budget.waiting.decrementAndGet();
+      throw reject(type, resource);
+    }
+    boolean acquired = false;
+    try {
+      acquired = budget.semaphore.tryAcquire(maxWaitNanos,
+          TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      budget.waiting.decrementAndGet();
+    }
+    if (!acquired) {
+      throw reject(type, resource);
+    }
+    metrics.addAdmissionQueueTime(type, System.nanoTime() - start);
+    return budget.semaphore;
+  }
+
+  private void onRelease(S3Operation.Type type,
+      AdaptiveConcurrencyLimiter limiter, int startInFlight, long rtt) {
+    limiter.release(startInFlight, rtt);
+    metrics.setAdaptiveLimit(type, limiter.getLimit(),
+        limiter.getRttNanos(), limiter.getNoLoadRttNanos());
+  }
+
+  @VisibleForTesting
+  AdaptiveConcurrencyLimiter getAdaptiveLimiter(S3Operation.Type type) {
+    return adaptiveLimiters.get(type);
+  }
+
+  private OS3Exception reject(S3Operation.Type type, String resource) {
+    metrics.incAdmissionRejected(type);
+    return newError(SLOW_DOWN, resource);
+  }
+
+  /**
+   * Concurrency budget of one operation type.
+   */
+  private static final class Budget {
+    private final Semaphore semaphore;
+    private final int maxQueue;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private Budget(int maxConcurrent, int maxQueue) {
+      this.semaphore = new Semaphore(maxConcurrent, true);
+      this.maxQueue = maxQueue;
+    }
+  }
+
+  /**
+   * Permit of an admitted request. Closing it more than once is a no-op.
+   */
+  public static class Permit implements AutoCloseable {
+
+    private static final Permit UNLIMITED =
+        new Permit(null, null, null, 0, null);
+
+    private final S3Operation.Type type;
+
+    private final Semaphore semaphore;
+
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    private final int startInFlight;
+
+    private final S3AdmissionController controller;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    Permit(S3Operation.Type type, Semaphore semaphore,
+        AdaptiveConcurrencyLimiter limiter, int startInFlight,
+        S3AdmissionController controller) {
+      this.type = type;
+      this.semaphore = semaphore;
+      this.limiter = limiter;
+      this.startInFlight = startInFlight;
+      this.controller = controller;
+    }
+
+    /**
+     * Release the permit without a latency sample for the adaptive limit.
+     */
+    @Override
+    public void close() {
+      close(0);
+    }
+
+    /**
+     * Release the permit.
+     *
+     * @param latencyNanos backend latency of the request, the time spent
+     * in the OM calls, 0 if unknown
+     */
+    public void close(long latencyNanos) {
+      if (this == UNLIMITED || !released.compareAndSet(false, true)) {
+        return;
+      }
+      if (semaphore != null) {
+        semaphore.release();
+      }
+      if (limiter != null) {
+        controller.onRelease(type, limiter, startInFlight, latencyNanos);
+      }
+    }
+  }
+}
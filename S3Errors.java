@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.exception;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
+
+/**
+ * Creates the S3 errors of the request handlers.
+ * <p>
+ * Errors other than internal errors are expected outcomes of a request:
+ * missing keys, denied access, invalid arguments or throttling. They are
+ * created without a stack trace, which is never reported to the client and
+ * dominates the cost of a failed request. Internal errors are created by
+ * {@link S3ErrorTable#newError(OS3Exception, String, Exception)}, with
+ * their stack trace.
+ */
+public final class S3Errors {
+
+  private static final Logger LOG = LoggerFactory.getLogger(S3Errors.class);
+
+  private S3Errors() {
+  }
+
+  public static OS3Exception newError(OS3Exception template, String resource) {
+    return newError(template, resource, null);
+  }
+
+  /**
+   * Create a new instance of the error.
+   *
+   * @param template the error from {@link S3ErrorTable}
+   * @param resource the resource of the request
+   * @param ex the cause of the error, logged at debug level for the
+   *           expected errors
+   * @return OS3Exception
+   */
+  public static OS3Exception newError(OS3Exception template, String resource,
+      Exception ex) {
+    if (template.getHttpCode() == HTTP_INTERNAL_ERROR) {
+      return S3ErrorTable.newError(template, resource, ex);
+    }
+    OS3Exception err = new StacklessOS3Exception(template.getCode(),
+        template.getErrorMessage(), template.getHttpCode());
+    err.setResource(resource);
+    if (ex != null && LOG.isDebugEnabled()) {
+      LOG.debug("{} on {}", template.getCode(), resource, ex);
+    }
+    return err;
+  }
+
+  /**
+   * OS3Exception without stack trace.
+   */
+  private static final class StacklessOS3Exception extends OS3Exception {
+
+    private StacklessOS3Exception(String code, String message, int httpCode) {
+      super(code, message, httpCode);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+}
@@ -17,6 +17,13 @@
  */
 package org.apache.hadoop.ozone.s3.metrics;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.hadoop.hdds.annotation.InterfaceAudience;
 import org.apache.hadoop.metrics2.MetricsCollector;
 import org.apache.hadoop.metrics2.MetricsRecordBuilder;
@@ -27,7 +34,13 @@ import org.apache.hadoop.metrics2.annotation.Metrics;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
+import org.apache.hadoop.metrics2.lib.MutableMetric;
+import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.ozone.OzoneConsts;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+import org.apache.hadoop.ozone.s3.util.S3RequestPhase;
+import org.apache.hadoop.ozone.s3.util.S3StorageType;
 
 /**
  * This class maintains S3 Gateway related metrics.
@@ -68,6 +81,15 @@ public final class S3GatewayMetrics implements MetricsSource {
   private @Metric MutableCounterLong createMultipartKeyFailure;
   private @Metric MutableCounterLong copyObjectSuccess;
   private @Metric MutableCounterLong copyObjectFailure;
+  private @Metric MutableCounterLong copyObjectFastPath;
+  private @Metric MutableCounterLong copyObjectStreamed;
+  private @Metric MutableCounterLong copyObjectStreamedBytes;
+  private @Metric MutableRate copyObjectThroughput;
+  private @Metric MutableRate copyObjectNanos;
+  private @Metric MutableCounterLong copyObjectKeepAlive;
+  private @Metric MutableCounterLong copyObjectParallel;
+  private @Metric MutableGaugeLong copyObjectPendingBytes;
+  private @Metric MutableRate copyObjectChunkReadNanos;
   private @Metric MutableCounterLong createKeySuccess;
   private @Metric MutableCounterLong createKeyFailure;
   private @Metric MutableCounterLong listPartsSuccess;
@@ -82,15 +104,108 @@ public final class S3GatewayMetrics implements MetricsSource {
   private @Metric MutableCounterLong completeMultiPartUploadFailure;
   private @Metric MutableCounterLong abortMultiPartUploadSuccess;
   private @Metric MutableCounterLong abortMultiPartUploadFailure;
+  private @Metric MutableCounterLong uploadPartBytes;
+  private @Metric MutableRate uploadPartNanos;
+  private @Metric MutableCounterLong uploadPartCopyBytes;
+  private @Metric MutableRate uploadPartCopyNanos;
+  private @Metric MutableCounterLong putRejectedBeforeBody;
+  private @Metric MutableCounterLong putRejectedBodyBytesSaved;
   private @Metric MutableCounterLong deleteKeySuccess;
   private @Metric MutableCounterLong deleteKeyFailure;
-
+  private @Metric MutableRate deleteBatchNanos;
+  private @Metric MutableCounterLong deleteBatchKeys;
+  private @Metric MutableCounterLong deleteBatchKeyFailure;
+  private @Metric MutableCounterLong deleteBatchFallback;
+
+  // ETag (MD5) computation of uploaded objects
+  private @Metric MutableRate eTagDigestNanos;
+  private @Metric MutableCounterLong eTagDigestBytes;
+  private @Metric MutableCounterLong badDigestFailure;
+
+  // Admission control
+  private @Metric MutableRate metadataAdmissionQueueTime;
+  private @Metric MutableRate dataAdmissionQueueTime;
+  private @Metric MutableCounterLong metadataAdmissionRejected;
+  private @Metric MutableCounterLong dataAdmissionRejected;
+  private @Metric MutableCounterLong metadataAdmissionShed;
+  private @Metric MutableCounterLong dataAdmissionShed;
+  private @Metric MutableGaugeLong metadataAdaptiveLimit;
+  private @Metric MutableGaugeLong dataAdaptiveLimit;
+  private @Metric MutableGaugeLong metadataAdaptiveRttNanos;
+  private @Metric MutableGaugeLong dataAdaptiveRttNanos;
+  private @Metric MutableGaugeLong metadataAdaptiveNoLoadRttNanos;
+  private @Metric MutableGaugeLong dataAdaptiveNoLoadRttNanos;
+
+  // Object requests slower than the slow request log threshold
+  private @Metric MutableCounterLong slowRequests;
+
+  // Writes per storage class (PUT object and multipart upload initiation)
+  private final Map<S3StorageType, MutableCounterLong> storageClassRequests =
+      new EnumMap<>(S3StorageType.class);
+  private final Map<S3StorageType, MutableCounterLong> storageClassBytes =
+      new EnumMap<>(S3StorageType.class);
+  private final Map<S3StorageType, MutableRate> storageClassThroughput =
+      new EnumMap<>(S3StorageType.class);
+
+  // Latency of the object requests and of their phases, per operation
+  private static final S3RequestPhase[] PHASES = S3RequestPhase.values();
+  private final LogHistogram[] requestNanos =
+      new LogHistogram[S3Operation.values().length];
+  private final LogHistogram[][] phaseNanos =
+      new LogHistogram[S3Operation.values().length][
+          S3RequestPhase.values().length];
+
+  // CPU time and allocations of the sampled object requests, per operation
+  // and for the payloads in signed chunks or not
+  private final LogHistogram[][] cpuNanos =
+      new LogHistogram[S3Operation.values().length][2];
+  private final LogHistogram[][] allocatedBytes =
+      new LogHistogram[S3Operation.values().length][2];
 
   /**
    * Private constructor.
    */
   private S3GatewayMetrics() {
     this.registry = new MetricsRegistry(SOURCE_NAME);
+    for (S3StorageType storageType : S3StorageType.values()) {
+      String name = "storageClass" + toCamelCase(storageType.name());
+      storageClassRequests.put(storageType, registry.newCounter(
+          name + "Requests", "Write requests of the storage class", 0L));
+      storageClassBytes.put(storageType, registry.newCounter(
+          name + "Bytes", "Bytes written with the storage class", 0L));
+      storageClassThroughput.put(storageType, registry.newRate(
+          name + "Throughput", "Bytes/s of the PUT object requests", false));
+    }
+    for (S3Operation operation : S3Operation.values()) {
+      String name = toCamelCase(operation.name());
+      requestNanos[operation.ordinal()] = new LogHistogram(
+          name + "RequestNanos", name + " request latencies in ns");
+      for (S3RequestPhase phase : S3RequestPhase.values()) {
+        phaseNanos[operation.ordinal()][phase.ordinal()] = new LogHistogram(
+            name + toCamelCase(phase.name()) + "Nanos",
+            name + " " + phase.name().toLowerCase() + " latencies in ns");
+      }
+      for (int signed = 0; signed < 2; signed++) {
+        String costName = signed == 0 ? name : name + "SignedChunks";
+        cpuNanos[operation.ordinal()][signed] = new LogHistogram(
+            costName + "CpuNanos", costName + " request CPU times in ns");
+        allocatedBytes[operation.ordinal()][signed] = new LogHistogram(
+            costName + "AllocatedBytes", costName + " request allocations");
+      }
+    }
+  }
+
+  /**
+   * REDUCED_REDUNDANCY to ReducedRedundancy.
+   */
+  private static String toCamelCase(String name) {
+    StringBuilder sb = new StringBuilder(name.length());
+    for (String word : name.split("_")) {
+      if (!word.isEmpty()) {
+        sb.append(word.charAt(0)).append(word.substring(1).toLowerCase());
+      }
+    }
+    return sb.toString();
   }
 
   /**
@@ -145,6 +260,15 @@ public final class S3GatewayMetrics implements MetricsSource {
     createMultipartKeyFailure.snapshot(recordBuilder, true);
     copyObjectSuccess.snapshot(recordBuilder, true);
     copyObjectFailure.snapshot(recordBuilder, true);
+    copyObjectFastPath.snapshot(recordBuilder, true);
+    copyObjectStreamed.snapshot(recordBuilder, true);
+    copyObjectStreamedBytes.snapshot(recordBuilder, true);
+    copyObjectThroughput.snapshot(recordBuilder, true);
+    copyObjectNanos.snapshot(recordBuilder, true);
+    copyObjectKeepAlive.snapshot(recordBuilder, true);
+    copyObjectParallel.snapshot(recordBuilder, true);
+    copyObjectPendingBytes.snapshot(recordBuilder, true);
+    copyObjectChunkReadNanos.snapshot(recordBuilder, true);
     createKeySuccess.snapshot(recordBuilder, true);
     createKeyFailure.snapshot(recordBuilder, true);
     listPartsSuccess.snapshot(recordBuilder, true);
@@ -159,8 +283,64 @@ public final class S3GatewayMetrics implements MetricsSource {
     completeMultiPartUploadFailure.snapshot(recordBuilder, true);
     abortMultiPartUploadSuccess.snapshot(recordBuilder, true);
     abortMultiPartUploadFailure.snapshot(recordBuilder, true);
+    uploadPartBytes.snapshot(recordBuilder, true);
+    uploadPartNanos.snapshot(recordBuilder, true);
+    uploadPartCopyBytes.snapshot(recordBuilder, true);
+    uploadPartCopyNanos.snapshot(recordBuilder, true);
+    putRejectedBeforeBody.snapshot(recordBuilder, true);
+    putRejectedBodyBytesSaved.snapshot(recordBuilder, true);
     deleteKeySuccess.snapshot(recordBuilder, true);
     deleteKeyFailure.snapshot(recordBuilder, true);
+    deleteBatchNanos.snapshot(recordBuilder, true);
+    deleteBatchKeys.snapshot(recordBuilder, true);
+    deleteBatchKeyFailure.snapshot(recordBuilder, true);
+    deleteBatchFallback.snapshot(recordBuilder, true);
+
+    // ETag (MD5) computation of uploaded objects
+    eTagDigestNanos.snapshot(recordBuilder, true);
+    eTagDigestBytes.snapshot(recordBuilder, true);
+    badDigestFailure.snapshot(recordBuilder, true);
+
+    // Admission control
+    metadataAdmissionQueueTime.snapshot(recordBuilder, true);
+    dataAdmissionQueueTime.snapshot(recordBuilder, true);
+    metadataAdmissionRejected.snapshot(recordBuilder, true);
+    dataAdmissionRejected.snapshot(recordBuilder, true);
+    metadataAdmissionShed.snapshot(recordBuilder, true);
+    dataAdmissionShed.snapshot(recordBuilder, true);
+    metadataAdaptiveLimit.snapshot(recordBuilder, true);
+    dataAdaptiveLimit.snapshot(recordBuilder, true);
+    metadataAdaptiveRttNanos.snapshot(recordBuilder, true);
+    dataAdaptiveRttNanos.snapshot(recordBuilder, true);
+    metadataAdaptiveNoLoadRttNanos.snapshot(recordBuilder, true);
+    dataAdaptiveNoLoadRttNanos.snapshot(recordBuilder, true);
+
+    slowRequests.snapshot(recordBuilder, true);
+
+    // Writes per storage class
+    for (S3StorageType storageType : S3StorageType.values()) {
+      storageClassRequests.get(storageType).snapshot(recordBuilder, true);
+      storageClassBytes.get(storageType).snapshot(recordBuilder, true);
+      storageClassThroughput.get(storageType).snapshot(recordBuilder, true);
+    }
+
+    // Request and phase latencies, of the operations served
+    for (int op = 0; op < requestNanos.length; op++) {
+      requestNanos[op].snapshot(recordBuilder);
+      for (LogHistogram histogram : phaseNanos[op]) {
+        histogram.snapshot(recordBuilder);
+      }
+      for (int signed = 0; signed < 2; signed++) {
+        cpuNanos[op][signed].snapshot(recordBuilder);
+        allocatedBytes[op][signed].snapshot(recordBuilder);
+      }
+    }
+
+    MultipartUploadTracker uploadTracker =
+        MultipartUploadTracker.getInstance();
+    if (uploadTracker != null) {
+      uploadTracker.snapshot(recordBuilder);
+    }
   }
 
   // INC
@@ -243,6 +423,64 @@ public final class S3GatewayMetrics implements MetricsSource {
     copyObjectFailure.incr();
   }
 
+  /**
+   * Count a copy which was served without streaming the data through the
+   * gateway.
+   */
+  public void incCopyObjectFastPath() {
+    copyObjectFastPath.incr();
+  }
+
+  /**
+   * Count a copy which streamed the data through the gateway.
+   *
+   * @param bytes number of bytes read from the source and written to the
+   * destination
+   * @param nanos time spent with the data transfer
+   */
+  public void addCopyObjectStreamed(long bytes, long nanos) {
+    copyObjectStreamed.incr();
+    copyObjectStreamedBytes.incr(bytes);
+    if (nanos > 0) {
+      copyObjectThroughput.add(bytes * 1_000_000_000L / nanos);
+    }
+  }
+
+  /**
+   * Record the duration of a successful copy, from the start of the data
+   * transfer to the commit of the destination key.
+   */
+  public void addCopyObjectTime(long nanos) {
+    copyObjectNanos.add(nanos);
+  }
+
+  /**
+   * Count a copy which keeps the connection alive with whitespaces while
+   * the data is copied.
+   */
+  public void incCopyObjectKeepAlive() {
+    copyObjectKeepAlive.incr();
+  }
+
+  /**
+   * Count a copy which reads the source with parallel ranges.
+   *
+   * @param bytes length of the source, added to the pending bytes until it
+   * is consumed
+   */
+  public void incCopyObjectParallel(long bytes) {
+    copyObjectParallel.incr();
+    copyObjectPendingBytes.incr(bytes);
+  }
+
+  public void addCopyObjectPendingBytes(long delta) {
+    copyObjectPendingBytes.incr(delta);
+  }
+
+  public void addCopyObjectChunkRead(long nanos) {
+    copyObjectChunkReadNanos.add(nanos);
+  }
+
   public void incCreateKeySuccess() {
     createKeySuccess.incr();
   }
@@ -283,6 +521,56 @@ public final class S3GatewayMetrics implements MetricsSource {
     abortMultiPartUploadFailure.incr();
   }
 
+  /**
+   * Record a part uploaded by the client.
+   */
+  public void addUploadPart(long bytes, long nanos) {
+    uploadPartBytes.incr(bytes);
+    uploadPartNanos.add(nanos);
+  }
+
+  /**
+   * Record a part copied from an existing key (UploadPartCopy).
+   */
+  public void addUploadPartCopy(long bytes, long nanos) {
+    uploadPartCopyBytes.incr(bytes);
+    uploadPartCopyNanos.add(nanos);
+  }
+
+  /**
+   * Record a multipart upload initiated with the storage class.
+   */
+  public void incStorageClassRequests(S3StorageType storageType) {
+    storageClassRequests.get(storageType).incr();
+  }
+
+  /**
+   * Record a key written with the storage class.
+   *
+   * @param bytes number of bytes written
+   * @param nanos time spent transferring the data
+   */
+  public void addStorageClassWrite(S3StorageType storageType, long bytes,
+      long nanos) {
+    storageClassRequests.get(storageType).incr();
+    storageClassBytes.get(storageType).incr(bytes);
+    if (nanos > 0) {
+      storageClassThroughput.get(storageType).add(
+          bytes * 1_000_000_000L / nanos);
+    }
+  }
+
+  /**
+   * Record a PUT request rejected before its body was read.
+   *
+   * @param bytesSaved the length of the body not transferred thanks to
+   *                   Expect: 100-continue, 0 if the client did not wait
+   */
+  public void incPutRejectedBeforeBody(long bytesSaved) {
+    putRejectedBeforeBody.incr();
+    putRejectedBodyBytesSaved.incr(bytesSaved);
+  }
+
   public void incDeleteKeySuccess() {
     deleteKeySuccess.incr();
   }
@@ -291,6 +579,26 @@ public final class S3GatewayMetrics implements MetricsSource {
     deleteKeyFailure.incr();
   }
 
+  /**
+   * Record a batch of keys deleted for a DeleteObjects request.
+   *
+   * @param keys number of keys of the batch
+   * @param failed number of keys not deleted
+   * @param nanos time spent deleting the batch
+   */
+  public void addDeleteBatch(int keys, int failed, long nanos) {
+    deleteBatchNanos.add(nanos);
+    deleteBatchKeys.incr(keys);
+    deleteBatchKeyFailure.incr(failed);
+  }
+
+  /**
+   * Record a batch deleted key by key after the batch call failed.
+   */
+  public void incDeleteBatchFallback() {
+    deleteBatchFallback.incr();
+  }
+
   public void incInitMultiPartUploadSuccess() {
     initMultiPartUploadSuccess.incr();
   }
@@ -307,6 +615,113 @@ public final class S3GatewayMetrics implements MetricsSource {
     completeMultiPartUploadFailure.incr();
   }
 
+  /**
+   * Record the cost of computing the MD5 digest of an uploaded object.
+   *
+   * @param nanos time spent in the digest computation
+   * @param bytes number of bytes digested
+   */
+  public void addETagDigest(long nanos, long bytes) {
+    eTagDigestNanos.add(nanos);
+    eTagDigestBytes.incr(bytes);
+  }
+
+  public void incBadDigestFailure() {
+    badDigestFailure.incr();
+  }
+
+  /**
+   * Record the latency of a finished request and of its timed phases.
+   */
+  public void addRequest(S3RequestTimer timer) {
+    int op = timer.getOperation().ordinal();
+    requestNanos[op].add(timer.getElapsedNanos());
+    for (S3RequestPhase phase : PHASES) {
+      if (timer.isTimed(phase)) {
+        phaseNanos[op][phase.ordinal()].add(timer.getPhaseNanos(phase));
+      }
+    }
+  }
+
+  /**
+   * Record the cost of a sampled request.
+   *
+   * @param timer the finished request
+   * @param nanos CPU time of the request thread
+   * @param bytes bytes allocated by the request thread, -1 if unknown
+   */
+  public void addRequestCost(S3RequestTimer timer, long nanos, long bytes) {
+    int op = timer.getOperation().ordinal();
+    int signed = timer.isSignedChunks() ? 1 : 0;
+    cpuNanos[op][signed].add(nanos);
+    if (bytes >= 0) {
+      allocatedBytes[op][signed].add(bytes);
+    }
+  }
+
+  /**
+   * Count a request slower than the slow request log threshold, sampled
+   * or not.
+   */
+  public void incSlowRequests() {
+    slowRequests.incr();
+  }
+
+  /**
+   * Record the time a request waited for admission.
+   *
+   * @param type type of the admitted operation
+   * @param nanos time spent in the admission queue
+   */
+  public void addAdmissionQueueTime(S3Operation.Type type, long nanos) {
+    if (type == S3Operation.Type.DATA) {
+      dataAdmissionQueueTime.add(nanos);
+    } else {
+      metadataAdmissionQueueTime.add(nanos);
+    }
+  }
+
+  public void incAdmissionRejected(S3Operation.Type type) {
+    if (type == S3Operation.Type.DATA) {
+      dataAdmissionRejected.incr();
+    } else {
+      metadataAdmissionRejected.incr();
+    }
+  }
+
+  /**
+   * Count a request shed by the adaptive limit. Shed requests are also
+   * counted as rejected.
+   */
+  public void incAdmissionShed(S3Operation.Type type) {
+    if (type == S3Operation.Type.DATA) {
+      dataAdmissionShed.incr();
+    } else {
+      metadataAdmissionShed.incr();
+    }
+  }
+
+  /**
+   * Publish the current state of the adaptive concurrency limit.
+   *
+   * @param type operation type of the limit
+   * @param limit current limit of in-flight requests
+   * @param rttNanos recently measured latency
+   * @param noLoadRttNanos long term latency without overload
+   */
+  public void setAdaptiveLimit(S3Operation.Type type, long limit,
+      long rttNanos, long noLoadRttNanos) {
+    if (type == S3Operation.Type.DATA) {
+      dataAdaptiveLimit.set(limit);
+      dataAdaptiveRttNanos.set(rttNanos);
+      dataAdaptiveNoLoadRttNanos.set(noLoadRttNanos);
+    } else {
+      metadataAdaptiveLimit.set(limit);
+      metadataAdaptiveRttNanos.set(rttNanos);
+      metadataAdaptiveNoLoadRttNanos.set(noLoadRttNanos);
+    }
+  }
+
   // GET
   public long getListS3BucketsSuccess() {
     return listS3BucketsSuccess.value();
@@ -320,6 +735,82 @@ public final class S3GatewayMetrics implements MetricsSource {
     return headKeySuccess.value();
   }
 
+  public long getHeadKeyFailure() {
+    return headKeyFailure.value();
+  }
+
+  public long getGetKeySuccess() {
+    return getKeySuccess.value();
+  }
+
+  public long getGetKeyFailure() {
+    return getKeyFailure.value();
+  }
+
+  public long getCreateKeySuccess() {
+    return createKeySuccess.value();
+  }
+
+  public long getCreateKeyFailure() {
+    return createKeyFailure.value();
+  }
+
+  public long getDeleteKeySuccess() {
+    return deleteKeySuccess.value();
+  }
+
+  public long getDeleteKeyFailure() {
+    return deleteKeyFailure.value();
+  }
+
+  public long getCopyObjectSuccess() {
+    return copyObjectSuccess.value();
+  }
+
+  public long getCopyObjectFailure() {
+    return copyObjectFailure.value();
+  }
+
+  public long getInitMultiPartUploadSuccess() {
+    return initMultiPartUploadSuccess.value();
+  }
+
+  public long getInitMultiPartUploadFailure() {
+    return initMultiPartUploadFailure.value();
+  }
+
+  public long getCreateMultipartKeySuccess() {
+    return createMultipartKeySuccess.value();
+  }
+
+  public long getCreateMultipartKeyFailure() {
+    return createMultipartKeyFailure.value();
+  }
+
+  public long getCompleteMultiPartUploadSuccess() {
+    return completeMultiPartUploadSuccess.value();
+  }
+
+  public long getCompleteMultiPartUploadFailure() {
+    return completeMultiPartUploadFailure.value();
+  }
+
+  public long getAbortMultiPartUploadSuccess() {
+    return abortMultiPartUploadSuccess.value();
+  }
+
+  public long getAbortMultiPartUploadFailure() {
+    return abortMultiPartUploadFailure.value();
+  }
+
+  public long getListPartsSuccess() {
+    return listPartsSuccess.value();
+  }
+
+  public long getListPartsFailure() {
+    return listPartsFailure.value();
+  }
+
   public long getGetBucketSuccess() {
     return getBucketSuccess.value();
   }
@@ -382,4 +873,137 @@ public final class S3GatewayMetrics implements MetricsSource {
   public long getinitMultiPartUploadFaliure(){
     return initMultiPartUploadFailure.value();
   }
+
+  public long getCopyObjectFastPath() {
+    return copyObjectFastPath.value();
+  }
+
+  public long getCopyObjectStreamed() {
+    return copyObjectStreamed.value();
+  }
+
+  public long getCopyObjectStreamedBytes() {
+    return copyObjectStreamedBytes.value();
+  }
+
+  public long getUploadPartBytes() {
+    return uploadPartBytes.value();
+  }
+
+  public long getUploadPartCopyBytes() {
+    return uploadPartCopyBytes.value();
+  }
+
+  public long getStorageClassRequests(S3StorageType storageType) {
+    return storageClassRequests.get(storageType).value();
+  }
+
+  public long getStorageClassBytes(S3StorageType storageType) {
+    return storageClassBytes.get(storageType).value();
+  }
+
+  public long getPutRejectedBeforeBody() {
+    return putRejectedBeforeBody.value();
+  }
+
+  public long getPutRejectedBodyBytesSaved() {
+    return putRejectedBodyBytesSaved.value();
+  }
+
+  public long getDeleteBatchKeys() {
+    return deleteBatchKeys.value();
+  }
+
+  public long getDeleteBatchKeyFailure() {
+    return deleteBatchKeyFailure.value();
+  }
+
+  public long getDeleteBatchFallback() {
+    return deleteBatchFallback.value();
+  }
+
+  public long getCopyObjectKeepAlive() {
+    return copyObjectKeepAlive.value();
+  }
+
+  public long getCopyObjectParallel() {
+    return copyObjectParallel.value();
+  }
+
+  public long getCopyObjectPendingBytes() {
+    return copyObjectPendingBytes.value();
+  }
+
+  public long getETagDigestBytes() {
+    return eTagDigestBytes.value();
+  }
+
+  public long getBadDigestFailure() {
+    return badDigestFailure.value();
+  }
+
+  public long getMetadataAdmissionRejected() {
+    return metadataAdmissionRejected.value();
+  }
+
+  public long getDataAdmissionRejected() {
+    return dataAdmissionRejected.value();
+  }
+
+  public long getMetadataAdmissionShed() {
+    return metadataAdmissionShed.value();
+  }
+
+  public long getDataAdmissionShed() {
+    return dataAdmissionShed.value();
+  }
+
+  public long getDataAdaptiveLimit() {
+    return dataAdaptiveLimit.value();
+  }
+
+  public long getSlowRequests() {
+    return slowRequests.value();
+  }
+
+  /**
+   * @return the metrics of the registry: the annotated fields and the
+   * storage class metrics.
+   */
+  public Collection<MutableMetric> getRegistryMetrics() {
+    return registry.metrics();
+  }
+
+  /**
+   * @return the histograms of the operations, in a fixed order.
+   */
+  public List<LogHistogram> getHistograms() {
+    List<LogHistogram> histograms = new ArrayList<>();
+    for (int op = 0; op < requestNanos.length; op++) {
+      histograms.add(requestNanos[op]);
+      Collections.addAll(histograms, phaseNanos[op]);
+      Collections.addAll(histograms, cpuNanos[op]);
+      Collections.addAll(histograms, allocatedBytes[op]);
+    }
+    return histograms;
+  }
+
+  public LogHistogram getRequestNanos(S3Operation operation) {
+    return requestNanos[operation.ordinal()];
+  }
+
+  public LogHistogram getCpuNanos(S3Operation operation,
+      boolean signedChunks) {
+    return cpuNanos[operation.ordinal()][signedChunks ? 1 : 0];
+  }
+
+  public LogHistogram getAllocatedBytes(S3Operation operation,
+      boolean signedChunks) {
+    return allocatedBytes[operation.ordinal()][signedChunks ? 1 : 0];
+  }
+
+  public LogHistogram getPhaseNanos(S3Operation operation,
+      S3RequestPhase phase) {
+    return phaseNanos[operation.ordinal()][phase.ordinal()];
+  }
 }
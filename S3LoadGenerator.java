@@ -0,0 +1,480 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.endpoint;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.client.OzoneBucket;
+import org.apache.hadoop.ozone.client.OzoneClient;
+import org.apache.hadoop.ozone.client.OzoneClientStub;
+import org.apache.hadoop.ozone.s3.exception.OS3Exception;
+import org.apache.hadoop.ozone.s3.metrics.S3GatewayMetrics;
+
+import static org.apache.hadoop.ozone.s3.util.S3Consts.COPY_SOURCE_HEADER;
+
+/**
+ * In-process load generator for ObjectEndpoint.
+ * <p>
+ * Concurrent clients issue a weighted mix of S3 operations against
+ * ObjectEndpoint, each client with its own OzoneClientStub, as the stub is
+ * not thread safe. The gateway state shared by the requests, the metrics,
+ * the admission controller and the upload tracker, is shared as in the
+ * gateway. The run reports the throughput and latency percentiles per
+ * operation, and checks that the S3GatewayMetrics counters moved exactly by
+ * the number of operations issued, to catch lost updates under
+ * concurrency.
+ * <p>
+ * Usage for a soak run:
+ * <pre>
+ * S3LoadGenerator [mix] [clients] [seconds] [objectSize]
+ * S3LoadGenerator GET=70,HEAD=20,PUT=10,COPY=5,MULTIPART=1 32 3600 65536
+ * </pre>
+ */
+public final class S3LoadGenerator {
+
+  /**
+   * Operations of the mix.
+   */
+  public enum Operation {
+    GET, HEAD, PUT, DELETE, COPY, MULTIPART
+  }
+
+  private static final String BUCKET = "bucket";
+
+  /**
+   * Number of keys written by each client before the run, read by GET,
+   * HEAD and COPY and overwritten by PUT.
+   */
+  private static final int KEYS = 16;
+
+  private static final int MULTIPART_PARTS = 2;
+
+  /**
+   * Latency samples kept per operation and client.
+   */
+  private static final int RESERVOIR_SIZE = 10000;
+
+  private final Operation[] weighted;
+
+  private final int clients;
+
+  private final int objectSize;
+
+  public S3LoadGenerator(Map<Operation, Integer> mix, int clients,
+      int objectSize) {
+    List<Operation> operations = new ArrayList<>();
+    mix.forEach((operation, weight) -> {
+      for (int i = 0; i < weight; i++) {
+        operations.add(operation);
+      }
+    });
+    if (operations.isEmpty()) {
+      throw new IllegalArgumentException("Empty operation mix: " + mix);
+    }
+    this.weighted = operations.toArray(new Operation[0]);
+    this.clients = clients;
+    this.objectSize = objectSize;
+  }
+
+  /**
+   * Parse a mix like GET=70,HEAD=20,PUT=10.
+   */
+  public static Map<Operation, Integer> parseMix(String mix) {
+    Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split("=");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid mix entry: " + entry);
+      }
+      weights.put(Operation.valueOf(parts[0].trim().toUpperCase()),
+          Integer.parseInt(parts[1].trim()));
+    }
+    return weights;
+  }
+
+  /**
+   * Run the load until each client issued the number of operations or the
+   * duration elapsed.
+   *
+   * @param opsPerClient number of operations per client, 0 for no limit
+   */
+  public Result run(long opsPerClient, long duration, TimeUnit unit)
+      throws Exception {
+    S3GatewayMetrics metrics = S3GatewayMetrics.create();
+    List<Client> clientList = new ArrayList<>(clients);
+    for (int i = 0; i < clients; i++) {
+      Client client = new Client(i);
+      client.preload();
+      clientList.add(client);
+    }
+
+    long[] before = snapshot(metrics);
+    long deadline = System.nanoTime() + unit.toNanos(duration);
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    long start = System.nanoTime();
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (Client client : clientList) {
+        futures.add(executor.submit(() -> {
+          client.run(opsPerClient, deadline);
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    long elapsed = System.nanoTime() - start;
+    long[] after = snapshot(metrics);
+
+    Result result = new Result(elapsed);
+    for (Client client : clientList) {
+      result.add(client);
+    }
+    result.crossCheck(before, after);
+    return result;
+  }
+
+  /**
+   * Counters checked against the operations, in the order of
+   * {@link #COUNTER_NAMES}.
+   */
+  private static final List<ToLongFunction<S3GatewayMetrics>> COUNTERS =
+      Arrays.asList(
+          S3GatewayMetrics::getGetKeySuccess,
+          S3GatewayMetrics::getHeadKeySuccess,
+          S3GatewayMetrics::getCreateKeySuccess,
+          S3GatewayMetrics::getDeleteKeySuccess,
+          S3GatewayMetrics::getCopyObjectSuccess,
+          S3GatewayMetrics::getInitMultiPartUploadSuccess,
+          S3GatewayMetrics::getCreateMultipartKeySuccess,
+          S3GatewayMetrics::getCompleteMultiPartUploadSuccess);
+
+  private static final String[] COUNTER_NAMES = {
+      "GetKeySuccess", "HeadKeySuccess", "CreateKeySuccess",
+      "DeleteKeySuccess", "CopyObjectSuccess", "InitMultiPartUploadSuccess",
+      "CreateMultipartKeySuccess", "CompleteMultiPartUploadSuccess"};
+
+  private static long[] snapshot(S3GatewayMetrics metrics) {
+    long[] values = new long[COUNTERS.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = COUNTERS.get(i).applyAsLong(metrics);
+    }
+    return values;
+  }
+
+  /**
+   * One client, with its own endpoint and stub.
+   */
+  private final class Client {
+
+    private final int id;
+
+    private final Map<String, String> headerValues = new HashMap<>();
+
+    private final ObjectEndpoint endpoint = new ObjectEndpoint();
+
+    private final OzoneBucket bucket;
+
+    private final byte[] content;
+
+    private final long[] succeeded = new long[Operation.values().length];
+
+    private final long[] failed = new long[Operation.values().length];
+
+    private final long[][] samples =
+        new long[Operation.values().length][RESERVOIR_SIZE];
+
+    private final long[] maxNanos = new long[Operation.values().length];
+
+    private Client(int id) throws IOException {
+      this.id = id;
+      OzoneClient client = new OzoneClientStub();
+      client.getObjectStore().createS3Bucket(BUCKET);
+      bucket = client.getObjectStore().getS3Bucket(BUCKET);
+      endpoint.setClient(client);
+      endpoint.setOzoneConfiguration(new OzoneConfiguration());
+      endpoint.setHeaders((HttpHeaders) Proxy.newProxyInstance(
+          HttpHeaders.class.getClassLoader(),
+          new Class<?>[] {HttpHeaders.class},
+          (proxy, method, args) -> "getHeaderString".equals(method.getName())
+              ? headerValues.get((String) args[0]) : null));
+      endpoint.init();
+      content = new byte[objectSize];
+      ThreadLocalRandom.current().nextBytes(content);
+    }
+
+    private void preload() throws IOException, OS3Exception {
+      for (int i = 0; i < KEYS; i++) {
+        put("key-" + i);
+      }
+    }
+
+    private void run(long opsPerClient, long deadline) {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (long n = 0; opsPerClient == 0 || n < opsPerClient; n++) {
+        if (System.nanoTime() - deadline > 0) {
+          break;
+        }
+        Operation operation = weighted[random.nextInt(weighted.length)];
+        String key = "key-" + random.nextInt(KEYS);
+        long start = System.nanoTime();
+        boolean success;
+        try {
+          success = execute(operation, key);
+        } catch (IOException | OS3Exception | RuntimeException ex) {
+          success = false;
+        }
+        record(operation, success, System.nanoTime() - start, random);
+      }
+    }
+
+    private boolean execute(Operation operation, String key)
+        throws IOException, OS3Exception {
+      headerValues.clear();
+      switch (operation) {
+      case GET:
+        return isOk(consume(endpoint.get(BUCKET, key, null, 0, null, null)));
+      case HEAD:
+        return isOk(endpoint.head(BUCKET, key));
+      case PUT:
+        return isOk(put(key));
+      case DELETE:
+        String deleted = "delete-" + id;
+        bucket.createKey(deleted, 0).close();
+        return endpoint.delete(BUCKET, deleted, "").getStatus() == 204;
+      case COPY:
+        headerValues.put(COPY_SOURCE_HEADER, BUCKET + "/" + key);
+        return isOk(consume(endpoint.put(BUCKET, "copy-" + id, 0, 0, "",
+            null)));
+      case MULTIPART:
+        return multipartUpload("multipart-" + id);
+      default:
+        throw new IllegalArgumentException("Unknown operation " + operation);
+      }
+    }
+
+    private Response put(String key) throws IOException, OS3Exception {
+      return endpoint.put(BUCKET, key, content.length, 0, "",
+          new ByteArrayInputStream(content));
+    }
+
+    private boolean multipartUpload(String key)
+        throws IOException, OS3Exception {
+      String uploadID = ((MultipartUploadInitiateResponse) endpoint
+          .initializeMultipartUpload(BUCKET, key).getEntity()).getUploadID();
+      CompleteMultipartUploadParts parts =
+          new CompleteMultipartUploadParts(MULTIPART_PARTS);
+      for (int partNumber = 1; partNumber <= MULTIPART_PARTS; partNumber++) {
+        Response response = endpoint.put(BUCKET, key, content.length,
+            partNumber, uploadID, new ByteArrayInputStream(content));
+        parts.add(partNumber, response.getHeaderString("ETag"));
+      }
+      return isOk(endpoint.completeMultipartUpload(BUCKET, key, uploadID,
+          parts));
+    }
+
+    private void record(Operation operation, boolean success, long nanos,
+        ThreadLocalRandom random) {
+      int op = operation.ordinal();
+      long count = succeeded[op] + failed[op];
+      if (success) {
+        succeeded[op]++;
+      } else {
+        failed[op]++;
+      }
+      maxNanos[op] = Math.max(maxNanos[op], nanos);
+      // Reservoir sampling, the samples are uniform over the run.
+      if (count < RESERVOIR_SIZE) {
+        samples[op][(int) count] = nanos;
+      } else {
+        long slot = random.nextLong(count + 1);
+        if (slot < RESERVOIR_SIZE) {
+          samples[op][(int) slot] = nanos;
+        }
+      }
+    }
+  }
+
+  private static Response consume(Response response) throws IOException {
+    if (response.getEntity() instanceof StreamingOutput) {
+      ((StreamingOutput) response.getEntity())
+          .write(NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+    return response;
+  }
+
+  private static boolean isOk(Response response) {
+    return response.getStatus() == 200;
+  }
+
+  /**
+   * Outcome of a run.
+   */
+  public static final class Result {
+
+    private final long elapsedNanos;
+
+    private final long[] succeeded = new long[Operation.values().length];
+
+    private final long[] failed = new long[Operation.values().length];
+
+    private final long[] maxNanos = new long[Operation.values().length];
+
+    private final List<List<Long>> samples = new ArrayList<>();
+
+    private final List<String> mismatches = new ArrayList<>();
+
+    private Result(long elapsedNanos) {
+      this.elapsedNanos = elapsedNanos;
+      for (int i = 0; i < Operation.values().length; i++) {
+        samples.add(new ArrayList<>());
+      }
+    }
+
+    private void add(Client client) {
+      for (int op = 0; op < succeeded.length; op++) {
+        long count = client.succeeded[op] + client.failed[op];
+        succeeded[op] += client.succeeded[op];
+        failed[op] += client.failed[op];
+        maxNanos[op] = Math.max(maxNanos[op], client.maxNanos[op]);
+        for (int i = 0; i < Math.min(count, RESERVOIR_SIZE); i++) {
+          samples.get(op).add(client.samples[op][i]);
+        }
+      }
+    }
+
+    private void crossCheck(long[] before, long[] after) {
+      long multipart = succeeded[Operation.MULTIPART.ordinal()];
+      long[] expected = {
+          succeeded[Operation.GET.ordinal()],
+          succeeded[Operation.HEAD.ordinal()],
+          succeeded[Operation.PUT.ordinal()],
+          succeeded[Operation.DELETE.ordinal()],
+          succeeded[Operation.COPY.ordinal()],
+          multipart,
+          multipart * MULTIPART_PARTS,
+          multipart};
+      for (int i = 0; i < expected.length; i++) {
+        long actual = after[i] - before[i];
+        if (actual != expected[i]) {
+          mismatches.add(COUNTER_NAMES[i] + ": expected " + expected[i]
+              + ", metrics " + actual);
+        }
+      }
+    }
+
+    public long getSucceeded(Operation operation) {
+      return succeeded[operation.ordinal()];
+    }
+
+    public long getFailed(Operation operation) {
+      return failed[operation.ordinal()];
+    }
+
+    /**
+     * @return the counters which do not match the operations issued.
+     */
+    public List<String> getMismatches() {
+      return mismatches;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency percentile of the operation, in nanoseconds
+     */
+    public long getLatencyNanos(Operation operation, double percentile) {
+      List<Long> values = samples.get(operation.ordinal());
+      if (values.isEmpty()) {
+        return 0;
+      }
+      if (percentile >= 100) {
+        return maxNanos[operation.ordinal()];
+      }
+      Long[] sorted = values.toArray(new Long[0]);
+      Arrays.sort(sorted);
+      return sorted[(int) (percentile / 100 * (sorted.length - 1))];
+    }
+
+    public void print(PrintStream out) {
+      double seconds = elapsedNanos / 1e9;
+      long total = 0;
+      out.printf("%-10s %10s %8s %10s %10s %10s %10s %10s%n", "operation",
+          "ops", "failed", "ops/s", "p50 us", "p90 us", "p99 us", "max us");
+      for (Operation operation : Operation.values()) {
+        long ops = getSucceeded(operation) + getFailed(operation);
+        if (ops == 0) {
+          continue;
+        }
+        total += ops;
+        out.printf("%-10s %10d %8d %10.0f %10d %10d %10d %10d%n", operation,
+            ops, getFailed(operation), ops / seconds,
+            micros(getLatencyNanos(operation, 50)),
+            micros(getLatencyNanos(operation, 90)),
+            micros(getLatencyNanos(operation, 99)),
+            micros(getLatencyNanos(operation, 100)));
+      }
+      out.printf("total %d ops in %.1f s, %.0f ops/s%n", total, seconds,
+          total / seconds);
+      if (mismatches.isEmpty()) {
+        out.println("metrics match the operations");
+      } else {
+        mismatches.forEach(m -> out.println("METRICS MISMATCH " + m));
+      }
+    }
+
+    private static long micros(long nanos) {
+      return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    String mix = args.length > 0 ? args[0] : "GET=70,HEAD=20,PUT=10";
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    long seconds = args.length > 2 ? Long.parseLong(args[2]) : 60;
+    int objectSize = args.length > 3 ? Integer.parseInt(args[3]) : 65536;
+    Result result = new S3LoadGenerator(parseMix(mix), clients, objectSize)
+        .run(0, seconds, TimeUnit.SECONDS);
+    result.print(System.out);
+    System.exit(result.getMismatches().isEmpty() ? 0 : 1);
+  }
+}
@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.BUCKETS_OFFSET;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.HEADER_SIZE;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.HISTOGRAM_NAME_SIZE;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.HISTOGRAM_SLOTS_OFFSET;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.MAGIC;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.SCALARS_OFFSET;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.SCALAR_NAME_SIZE;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.SCALAR_SLOTS_OFFSET;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.SCALAR_SLOT_SIZE;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.SEQUENCE_OFFSET;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.TIME_OFFSET;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.TYPE_DOUBLE;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.VERSION;
+
+/**
+ * Reads the metrics file written by {@link S3MetricsMmapWriter}, of a
+ * running gateway or of a crashed one.
+ * <pre>
+ * S3MetricsMmapReader &lt;metrics file&gt; [-buckets]
+ * </pre>
+ * prints the scalar metrics and the count, mean, percentiles and maximum
+ * of the histograms with values, and their buckets with -buckets.
+ */
+public final class S3MetricsMmapReader {
+
+  /**
+   * Reads retried while the file is written, before giving up.
+   */
+  private static final int MAX_ATTEMPTS = 1000;
+
+  /**
+   * Wait before a retry, a write takes less than a millisecond.
+   */
+  private static final long RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private S3MetricsMmapReader() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: S3MetricsMmapReader <metrics file> " +
+          "[-buckets]");
+      System.exit(1);
+    }
+    boolean buckets = args.length > 1 && args[1].equals("-buckets");
+    read(Paths.get(args[0])).print(System.out, buckets);
+  }
+
+  /**
+   * @return a consistent snapshot of the metrics file.
+   * @throws IOException if the file is not a metrics file, or is written
+   * during all the attempts
+   */
+  public static Snapshot read(Path path) throws IOException {
+    MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.READ)) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    mapped.order(ByteOrder.LITTLE_ENDIAN);
+    if (mapped.capacity() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+      throw new IOException(path + " is not an S3 gateway metrics file");
+    }
+    if (mapped.getInt(4) != VERSION) {
+      throw new IOException("Unsupported version " + mapped.getInt(4) +
+          " of " + path);
+    }
+    byte[] copy = new byte[mapped.capacity()];
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      long sequence = mapped.getLong(SEQUENCE_OFFSET);
+      if ((sequence & 1) == 0) {
+        S3MetricsMmapWriter.loadFence();
+        ByteBuffer source = mapped.duplicate();
+        source.position(0);
+        source.get(copy);
+        S3MetricsMmapWriter.loadFence();
+        if (mapped.getLong(SEQUENCE_OFFSET) == sequence) {
+          return new Snapshot(
+              ByteBuffer.wrap(copy).order(ByteOrder.LITTLE_ENDIAN));
+        }
+      }
+      LockSupport.parkNanos(RETRY_NANOS);
+    }
+    throw new IOException(path + " was written during all the " +
+        MAX_ATTEMPTS + " reads");
+  }
+
+  private static String getName(ByteBuffer buffer, int offset, int size) {
+    int length = 0;
+    while (length < size && buffer.get(offset + length) != 0) {
+      length++;
+    }
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Metrics of the file at a point in time.
+   */
+  public static final class Snapshot {
+    private final long sequence;
+    private final long timeMillis;
+    private final Map<String, Number> scalars = new LinkedHashMap<>();
+    private final List<Histogram> histograms = new ArrayList<>();
+
+    private Snapshot(ByteBuffer buffer) {
+      sequence = buffer.getLong(SEQUENCE_OFFSET);
+      timeMillis = buffer.getLong(TIME_OFFSET);
+      int scalarCount = buffer.getInt(SCALARS_OFFSET);
+      for (int i = 0; i < scalarCount; i++) {
+        int offset = HEADER_SIZE + i * SCALAR_SLOT_SIZE;
+        String name = getName(buffer, offset, SCALAR_NAME_SIZE);
+        int type = buffer.getInt(offset + SCALAR_NAME_SIZE);
+        long value = buffer.getLong(offset + SCALAR_NAME_SIZE + 4);
+        if (type == TYPE_DOUBLE) {
+          scalars.put(name, Double.longBitsToDouble(value));
+        } else {
+          scalars.put(name, value);
+        }
+      }
+      int buckets = buffer.getInt(BUCKETS_OFFSET);
+      int histogramSlotSize = HISTOGRAM_NAME_SIZE + 24 + 8 * buckets;
+      int histogramsOffset = HEADER_SIZE
+          + buffer.getInt(SCALAR_SLOTS_OFFSET) * SCALAR_SLOT_SIZE;
+      int histogramCount = buffer.getInt(HISTOGRAM_SLOTS_OFFSET);
+      for (int i = 0; i < histogramCount; i++) {
+        int offset = histogramsOffset + i * histogramSlotSize;
+        String name = getName(buffer, offset, HISTOGRAM_NAME_SIZE);
+        offset += HISTOGRAM_NAME_SIZE;
+        long[] counts = new long[buckets];
+        for (int b = 0; b < buckets; b++) {
+          counts[b] = buffer.getLong(offset + 24 + 8 * b);
+        }
+        histograms.add(new Histogram(name, buffer.getLong(offset),
+            buffer.getLong(offset + 8), buffer.getLong(offset + 16),
+            counts));
+      }
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    public long getTimeMillis() {
+      return timeMillis;
+    }
+
+    public Map<String, Number> getScalars() {
+      return Collections.unmodifiableMap(scalars);
+    }
+
+    public List<Histogram> getHistograms() {
+      return Collections.unmodifiableList(histograms);
+    }
+
+    /**
+     * @return the histogram of the name, or null.
+     */
+    public Histogram getHistogram(String name) {
+      for (Histogram histogram : histograms) {
+        if (histogram.getName().equals(name)) {
+          return histogram;
+        }
+      }
+      return null;
+    }
+
+    public void print(PrintStream out, boolean buckets) {
+      out.printf("Written at %d, sequence %d%n", timeMillis, sequence);
+      for (Map.Entry<String, Number> scalar : scalars.entrySet()) {
+        out.printf("%s %s%n", scalar.getKey(), scalar.getValue());
+      }
+      for (Histogram histogram : histograms) {
+        if (histogram.getCount() == 0) {
+          continue;
+        }
+        out.printf("%s count=%d mean=%d p50=%d p90=%d p99=%d max=%d%n",
+            histogram.getName(), histogram.getCount(),
+            histogram.getSum() / histogram.getCount(),
+            histogram.getPercentile(50), histogram.getPercentile(90),
+            histogram.getPercentile(99), histogram.getMax());
+        if (buckets) {
+          long[] counts = histogram.getBucketCounts();
+          for (int b = 0; b < counts.length; b++) {
+            if (counts[b] > 0) {
+              out.printf("  [%d, %d] %d%n", LogHistogram.lowerBound(b),
+                  LogHistogram.upperBound(b), counts[b]);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Histogram of the file, with the buckets of {@link LogHistogram}.
+   */
+  public static final class Histogram {
+    private final String name;
+    private final long count;
+    private final long sum;
+    private final long max;
+    private final long[] bucketCounts;
+
+    private Histogram(String name, long count, long sum, long max,
+        long[] bucketCounts) {
+      this.name = name;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+      this.bucketCounts = bucketCounts;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getSum() {
+      return sum;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    public long[] getBucketCounts() {
+      return bucketCounts.clone();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket of the percentile, at most the
+     * maximum, 0 if empty.
+     */
+    public long getPercentile(double percentile) {
+      long total = 0;
+      for (long n : bucketCounts) {
+        total += n;
+      }
+      if (total == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+      long seen = 0;
+      for (int b = 0; b < bucketCounts.length; b++) {
+        seen += bucketCounts[b];
+        if (seen >= rank) {
+          return Math.min(LogHistogram.upperBound(b), max);
+        }
+      }
+      return max;
+    }
+  }
+}
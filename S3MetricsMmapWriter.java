@@ -0,0 +1,423 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.metrics2.AbstractMetric;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsTag;
+import org.apache.hadoop.metrics2.lib.MutableCounter;
+import org.apache.hadoop.metrics2.lib.MutableGauge;
+import org.apache.hadoop.metrics2.lib.MutableMetric;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes S3GatewayMetrics in a memory mapped file, read by agents
+ * without HTTP or JMX, see {@link S3MetricsMmapReader}. The file is left
+ * in place when the gateway stops or crashes, and is moved to
+ * &lt;file&gt;.previous when the gateway starts again.
+ * <p>
+ * The counters and gauges of the metrics registry and the operation
+ * histograms are written periodically. The rates are not: a snapshot
+ * would reset their interval. The file layout is little-endian:
+ * <pre>
+ * header, 64 bytes
+ *   0   int    magic, 0x5333474d
+ *   4   int    version, 1
+ *   8   long   sequence, odd while the file is written
+ *   16  long   time of the last write, epoch milliseconds
+ *   24  int    scalar slots
+ *   28  int    scalar slots used
+ *   32  int    histogram slots
+ *   36  int    buckets per histogram
+ * scalar slots, 96 bytes each, from offset 64
+ *   0   84 bytes  name, UTF-8, zero padded
+ *   84  int       type, 1 long value, 2 double value
+ *   88  long      value, or the bits of a double value
+ * histogram slots, 112 + 8 * buckets bytes each, after the scalar slots
+ *   0   88 bytes  name, UTF-8, zero padded
+ *   88  long      count
+ *   96  long      sum
+ *   104 long      max
+ *   112 long[]    count of each bucket, see LogHistogram#lowerBound
+ * </pre>
+ * A metric keeps its slot while the gateway runs. A reader copies the
+ * file between two reads of the sequence, and retries if the sequence was
+ * odd or changed. The writer orders its stores with store fences, the
+ * reader its loads with load fences, as a seqlock.
+ */
+public final class S3MetricsMmapWriter {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(S3MetricsMmapWriter.class);
+
+  /**
+   * Path of the metrics file, empty to disable it.
+   */
+  public static final String OZONE_S3G_METRICS_MMAP_FILE =
+      "ozone.s3g.metrics.mmap.file";
+
+  /**
+   * Interval between two writes of the metrics file.
+   */
+  public static final String OZONE_S3G_METRICS_MMAP_INTERVAL =
+      "ozone.s3g.metrics.mmap.interval";
+  public static final String OZONE_S3G_METRICS_MMAP_INTERVAL_DEFAULT = "1s";
+
+  static final int MAGIC = 0x5333474d;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 64;
+  static final int SEQUENCE_OFFSET = 8;
+  static final int TIME_OFFSET = 16;
+  static final int SCALAR_SLOTS_OFFSET = 24;
+  static final int SCALARS_OFFSET = 28;
+  static final int HISTOGRAM_SLOTS_OFFSET = 32;
+  static final int BUCKETS_OFFSET = 36;
+
+  static final int SCALAR_SLOTS = 2048;
+  static final int SCALAR_SLOT_SIZE = 96;
+  static final int SCALAR_NAME_SIZE = 84;
+  static final int TYPE_LONG = 1;
+  static final int TYPE_DOUBLE = 2;
+
+  static final int HISTOGRAM_NAME_SIZE = 88;
+  static final int HISTOGRAM_SLOT_SIZE =
+      HISTOGRAM_NAME_SIZE + 24 + 8 * LogHistogram.BUCKETS;
+
+  private static S3MetricsMmapWriter instance;
+
+  /**
+   * The metrics file is not configured, the endpoints call create() for
+   * each request.
+   */
+  private static boolean disabled;
+
+  /**
+   * Unsafe.storeFence() and loadFence(), public API from Java 9 only.
+   */
+  private static final MethodHandle STORE_FENCE;
+  private static final MethodHandle LOAD_FENCE;
+
+  static {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      Object unsafe = field.get(null);
+      MethodType fence = MethodType.methodType(void.class);
+      STORE_FENCE = MethodHandles.lookup()
+          .findVirtual(unsafeClass, "storeFence", fence).bindTo(unsafe);
+      LOAD_FENCE = MethodHandles.lookup()
+          .findVirtual(unsafeClass, "loadFence", fence).bindTo(unsafe);
+    } catch (ReflectiveOperationException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private final S3GatewayMetrics metrics;
+
+  private final List<LogHistogram> histograms;
+
+  private final MappedByteBuffer buffer;
+
+  private final int histogramsOffset;
+
+  private final Map<String, Integer> scalarSlots = new HashMap<>();
+
+  private final ScalarBuilder scalarBuilder = new ScalarBuilder();
+
+  private final ScheduledExecutorService writer;
+
+  private long sequence;
+
+  private boolean full;
+
+  private S3MetricsMmapWriter(Path path, long intervalMillis)
+      throws IOException {
+    metrics = S3GatewayMetrics.create();
+    histograms = metrics.getHistograms();
+    histogramsOffset = HEADER_SIZE + SCALAR_SLOTS * SCALAR_SLOT_SIZE;
+    int size = histogramsOffset + histograms.size() * HISTOGRAM_SLOT_SIZE;
+    if (Files.exists(path)) {
+      // Keep the file of the previous gateway, which may have crashed.
+      Path previous = path.resolveSibling(path.getFileName() + ".previous");
+      Files.move(path, previous, StandardCopyOption.REPLACE_EXISTING);
+      LOG.info("Moved the metrics file of the previous gateway to {}",
+          previous);
+    }
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(SCALAR_SLOTS_OFFSET, SCALAR_SLOTS);
+    buffer.putInt(HISTOGRAM_SLOTS_OFFSET, histograms.size());
+    buffer.putInt(BUCKETS_OFFSET, LogHistogram.BUCKETS);
+    for (int i = 0; i < histograms.size(); i++) {
+      putName(histogramsOffset + i * HISTOGRAM_SLOT_SIZE,
+          HISTOGRAM_NAME_SIZE, histograms.get(i).getName());
+    }
+    write();
+
+    if (intervalMillis > 0) {
+      writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "S3G-MetricsMmapWriter");
+        thread.setDaemon(true);
+        return thread;
+      });
+      writer.scheduleWithFixedDelay(this::write, intervalMillis,
+          intervalMillis, TimeUnit.MILLISECONDS);
+    } else {
+      writer = null;
+    }
+    LOG.info("Publishing the S3 gateway metrics in {}", path);
+  }
+
+  /**
+   * Create and returns the S3MetricsMmapWriter instance.
+   *
+   * @return the instance, or null if the metrics file is disabled
+   */
+  public static synchronized S3MetricsMmapWriter create(
+      OzoneConfiguration conf) {
+    if (instance != null || disabled) {
+      return instance;
+    }
+    String file = conf.getTrimmed(OZONE_S3G_METRICS_MMAP_FILE, "");
+    if (file.isEmpty()) {
+      disabled = true;
+    } else {
+      long interval = conf.getTimeDuration(OZONE_S3G_METRICS_MMAP_INTERVAL,
+          OZONE_S3G_METRICS_MMAP_INTERVAL_DEFAULT, TimeUnit.MILLISECONDS);
+      try {
+        instance = new S3MetricsMmapWriter(Paths.get(file), interval);
+      } catch (IOException | RuntimeException ex) {
+        // Called by the requests, the gateway runs without the file.
+        LOG.error("Failed to create the metrics file {}, it is disabled",
+            file, ex);
+        disabled = true;
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Write the metrics a last time and drop the instance.
+   */
+  @VisibleForTesting
+  public static synchronized void reset() {
+    if (instance != null) {
+      if (instance.writer != null) {
+        instance.writer.shutdownNow();
+      }
+      instance.write();
+    }
+    instance = null;
+    disabled = false;
+  }
+
+  /**
+   * Write the current metrics in the file.
+   */
+  public synchronized void write() {
+    try {
+      buffer.putLong(SEQUENCE_OFFSET, ++sequence);
+      storeFence();
+      for (MutableMetric metric : metrics.getRegistryMetrics()) {
+        if (metric instanceof MutableCounter
+            || metric instanceof MutableGauge) {
+          metric.snapshot(scalarBuilder, true);
+        }
+      }
+      for (int i = 0; i < histograms.size(); i++) {
+        LogHistogram histogram = histograms.get(i);
+        int offset = histogramsOffset + i * HISTOGRAM_SLOT_SIZE
+            + HISTOGRAM_NAME_SIZE;
+        buffer.putLong(offset, histogram.getCount());
+        buffer.putLong(offset + 8, histogram.getSum());
+        buffer.putLong(offset + 16, histogram.getMax());
+        for (int b = 0; b < LogHistogram.BUCKETS; b++) {
+          buffer.putLong(offset + 24 + 8 * b, histogram.getBucketCount(b));
+        }
+      }
+      buffer.putLong(TIME_OFFSET, System.currentTimeMillis());
+      storeFence();
+      buffer.putLong(SEQUENCE_OFFSET, ++sequence);
+    } catch (RuntimeException ex) {
+      // Keep the writer scheduled. An odd sequence would fail the readers
+      // until the next write: publish the values written so far, each one
+      // is valid.
+      LOG.error("Failed to write the metrics file", ex);
+      sequence |= 1;
+      storeFence();
+      buffer.putLong(SEQUENCE_OFFSET, ++sequence);
+    }
+  }
+
+  /**
+   * Keep the stores before the fence before the stores after it.
+   */
+  static void storeFence() {
+    try {
+      STORE_FENCE.invokeExact();
+    } catch (Throwable ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Keep the loads before the fence before the loads after it.
+   */
+  static void loadFence() {
+    try {
+      LOAD_FENCE.invokeExact();
+    } catch (Throwable ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  @VisibleForTesting
+  long getSequence() {
+    return sequence;
+  }
+
+  private void putScalar(MetricsInfo info, int type, long value) {
+    Integer slot = scalarSlots.get(info.name());
+    if (slot == null) {
+      if (scalarSlots.size() == SCALAR_SLOTS) {
+        if (!full) {
+          full = true;
+          LOG.warn("No slot left in the metrics file for {}", info.name());
+        }
+        return;
+      }
+      slot = scalarSlots.size();
+      scalarSlots.put(info.name(), slot);
+      putName(HEADER_SIZE + slot * SCALAR_SLOT_SIZE, SCALAR_NAME_SIZE,
+          info.name());
+      buffer.putInt(SCALARS_OFFSET, scalarSlots.size());
+    }
+    int offset = HEADER_SIZE + slot * SCALAR_SLOT_SIZE + SCALAR_NAME_SIZE;
+    buffer.putInt(offset, type);
+    buffer.putLong(offset + 4, value);
+  }
+
+  private void putName(int offset, int size, String name) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < size; i++) {
+      // The last byte is always zero, the name is truncated if too long.
+      buffer.put(offset + i, i < bytes.length && i < size - 1 ? bytes[i] : 0);
+    }
+  }
+
+  /**
+   * Writes the counters and gauges snapshots in their slots.
+   */
+  private final class ScalarBuilder extends MetricsRecordBuilder {
+
+    @Override
+    public MetricsRecordBuilder tag(MetricsInfo info, String value) {
+      return this;
+    }
+
+    @Override
+    public MetricsRecordBuilder add(MetricsTag tag) {
+      return this;
+    }
+
+    @Override
+    public MetricsRecordBuilder add(AbstractMetric metric) {
+      Number value = metric.value();
+      if (value instanceof Double || value instanceof Float) {
+        return addGauge(metric.info(), value.doubleValue());
+      }
+      return addGauge(metric.info(), value.longValue());
+    }
+
+    @Override
+    public MetricsRecordBuilder setContext(String value) {
+      return this;
+    }
+
+    @Override
+    public MetricsRecordBuilder addCounter(MetricsInfo info, int value) {
+      return addGauge(info, (long) value);
+    }
+
+    @Override
+    public MetricsRecordBuilder addCounter(MetricsInfo info, long value) {
+      return addGauge(info, value);
+    }
+
+    @Override
+    public MetricsRecordBuilder addGauge(MetricsInfo info, int value) {
+      return addGauge(info, (long) value);
+    }
+
+    @Override
+    public MetricsRecordBuilder addGauge(MetricsInfo info, long value) {
+      putScalar(info, TYPE_LONG, value);
+      return this;
+    }
+
+    @Override
+    public MetricsRecordBuilder addGauge(MetricsInfo info, float value) {
+      return addGauge(info, (double) value);
+    }
+
+    @Override
+    public MetricsRecordBuilder addGauge(MetricsInfo info, double value) {
+      putScalar(info, TYPE_DOUBLE, Double.doubleToRawLongBits(value));
+      return this;
+    }
+
+    @Override
+    public MetricsCollector parent() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
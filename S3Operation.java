@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.util;
+
+/**
+ * Object level S3 operations served by the S3 gateway.
+ */
+public enum S3Operation {
+
+  PUT_OBJECT(Type.DATA),
+  COPY_OBJECT(Type.DATA),
+  GET_OBJECT(Type.DATA),
+  HEAD_OBJECT(Type.METADATA),
+  DELETE_OBJECT(Type.METADATA),
+  INIT_MULTIPART_UPLOAD(Type.METADATA),
+  UPLOAD_PART(Type.DATA),
+  UPLOAD_PART_COPY(Type.DATA),
+  COMPLETE_MULTIPART_UPLOAD(Type.METADATA),
+  ABORT_MULTIPART_UPLOAD(Type.METADATA),
+  LIST_PARTS(Type.METADATA);
+
+  /**
+   * Operations which only talk to OM are metadata operations, operations
+   * which also move object data from/to the datanodes are data operations.
+   */
+  public enum Type {
+    METADATA,
+    DATA
+  }
+
+  private final Type type;
+
+  S3Operation(Type type) {
+    this.type = type;
+  }
+
+  public Type getType() {
+    return type;
+  }
+}
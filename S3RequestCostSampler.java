@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Samples the CPU time and the heap allocations of the object requests,
+ * recorded per operation in S3GatewayMetrics.
+ * <p>
+ * The thread CPU time and allocated bytes are read from the ThreadMXBean
+ * when a sampled request starts and finishes. Only the request thread is
+ * accounted: the work of the parallel key readers is not, and a request
+ * whose response body is written by another thread is not recorded.
+ */
+public final class S3RequestCostSampler {
+
+  /**
+   * Ratio of the object requests sampled, between 0 and 1, 0 disables the
+   * sampling.
+   */
+  public static final String OZONE_S3G_REQUEST_COST_SAMPLE_RATIO =
+      "ozone.s3g.request-cost.sample-ratio";
+  public static final float OZONE_S3G_REQUEST_COST_SAMPLE_RATIO_DEFAULT =
+      0.01f;
+
+  private static final ThreadMXBean THREADS =
+      ManagementFactory.getThreadMXBean();
+
+  private static volatile S3RequestCostSampler instance;
+
+  private final double sampleRatio;
+
+  private final boolean allocationsSupported;
+
+  private S3RequestCostSampler(OzoneConfiguration conf) {
+    float ratio = conf.getFloat(OZONE_S3G_REQUEST_COST_SAMPLE_RATIO,
+        OZONE_S3G_REQUEST_COST_SAMPLE_RATIO_DEFAULT);
+    boolean cpuSupported = THREADS.isCurrentThreadCpuTimeSupported()
+        && THREADS.isThreadCpuTimeEnabled();
+    this.sampleRatio = cpuSupported ? ratio : 0;
+    this.allocationsSupported =
+        THREADS instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) THREADS)
+            .isThreadAllocatedMemorySupported()
+        && ((com.sun.management.ThreadMXBean) THREADS)
+            .isThreadAllocatedMemoryEnabled();
+  }
+
+  /**
+   * Create and returns the S3RequestCostSampler instance.
+   *
+   * @return S3RequestCostSampler
+   */
+  public static synchronized S3RequestCostSampler create(
+      OzoneConfiguration conf) {
+    if (instance == null) {
+      instance = new S3RequestCostSampler(conf);
+    }
+    return instance;
+  }
+
+  @VisibleForTesting
+  public static synchronized void reset() {
+    instance = null;
+  }
+
+  /**
+   * @return the start of the request on the current thread if the request
+   * is sampled, otherwise null.
+   */
+  static Sample sample() {
+    S3RequestCostSampler sampler = instance;
+    if (sampler == null || sampler.sampleRatio <= 0) {
+      return null;
+    }
+    double ratio = sampler.sampleRatio;
+    if (ratio < 1 && ThreadLocalRandom.current().nextDouble() >= ratio) {
+      return null;
+    }
+    return sampler.new Sample();
+  }
+
+  private static long allocatedBytes(long threadId) {
+    return ((com.sun.management.ThreadMXBean) THREADS)
+        .getThreadAllocatedBytes(threadId);
+  }
+
+  /**
+   * CPU time and allocated bytes of the request thread at the start of a
+   * sampled request.
+   */
+  final class Sample {
+    private final long threadId = Thread.currentThread().getId();
+    private final long cpuNanos = THREADS.getCurrentThreadCpuTime();
+    private final long allocated =
+        allocationsSupported ? allocatedBytes(threadId) : -1;
+
+    private Sample() {
+    }
+
+    /**
+     * Record the cost of the finished request, if it finished on the
+     * thread which started it.
+     */
+    void finish(S3RequestTimer timer) {
+      if (Thread.currentThread().getId() != threadId) {
+        return;
+      }
+      long cpu = THREADS.getCurrentThreadCpuTime() - cpuNanos;
+      long bytes = allocationsSupported
+          ? allocatedBytes(threadId) - allocated : -1;
+      S3GatewayMetrics.create().addRequestCost(timer, cpu, bytes);
+    }
+  }
+}
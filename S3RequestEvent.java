@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.ADMISSION;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.BUCKET_LOOKUP;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.COMMIT;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.DATA_TRANSFER;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.KEY_LOOKUP;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.OM_CALL;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.STREAM_OPEN;
+
+/**
+ * Flight Recorder event of an object request, spanning the request from
+ * its admission to its last response byte, so it can be lined up with the
+ * GC pauses, lock contention and socket I/O of the gateway.
+ * <p>
+ * The event is disabled by default. It is enabled in the recording
+ * settings, with a threshold to record the slow requests only:
+ * <pre>
+ * &lt;event name="org.apache.hadoop.ozone.s3.ObjectRequest"&gt;
+ *   &lt;setting name="enabled"&gt;true&lt;/setting&gt;
+ *   &lt;setting name="threshold"&gt;20 ms&lt;/setting&gt;
+ * &lt;/event&gt;
+ * </pre>
+ * When it is not recorded, a request only checks that the event type is
+ * disabled, nothing is allocated.
+ */
+@Name(S3RequestEvent.NAME)
+@Label("S3 Object Request")
+@Category({"Ozone", "S3 Gateway"})
+@Description("Object request served by the S3 gateway")
+@Enabled(false)
+@StackTrace(false)
+final class S3RequestEvent extends Event {
+
+  static final String NAME = "org.apache.hadoop.ozone.s3.ObjectRequest";
+
+  private static final EventType TYPE =
+      EventType.getEventType(S3RequestEvent.class);
+
+  @Label("Operation")
+  private String operation;
+
+  @Label("Bucket")
+  private String bucket;
+
+  @Label("Key")
+  private String key;
+
+  @Label("Key Size")
+  @Description("Size of the object, or of the range of a GET")
+  @DataAmount
+  private long keySize;
+
+  @Label("Range")
+  @Description("Range of a GET or of an upload part copy")
+  private String range;
+
+  @Label("Bytes Streamed")
+  @Description("Bytes read from or written to the key streams")
+  @DataAmount
+  private long bytesStreamed;
+
+  @Label("Result")
+  @Description("OK, S3 error code, OM result code or exception class")
+  private String result;
+
+  @Label("Admission")
+  @Timespan
+  private long admission;
+
+  @Label("Bucket Lookup")
+  @Description("OM bucket lookups")
+  @Timespan
+  private long bucketLookup;
+
+  @Label("Key Lookup")
+  @Description("OM key and upload lookups")
+  @Timespan
+  private long keyLookup;
+
+  @Label("OM Call")
+  @Description("OM calls of the metadata operations")
+  @Timespan
+  private long omCall;
+
+  @Label("Stream Open")
+  @Timespan
+  private long streamOpen;
+
+  @Label("Data Transfer")
+  @Timespan
+  private long dataTransfer;
+
+  @Label("Commit")
+  @Description("Key commits to OM")
+  @Timespan
+  private long keyCommit;
+
+  /**
+   * @return an event begun now if the event is recorded, otherwise null.
+   */
+  static S3RequestEvent beginIfEnabled() {
+    if (!TYPE.isEnabled()) {
+      return null;
+    }
+    S3RequestEvent event = new S3RequestEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * End the event and commit it with the details of the finished request,
+   * unless it is under the threshold of the recording.
+   */
+  void finish(S3RequestTimer timer) {
+    end();
+    if (!shouldCommit()) {
+      return;
+    }
+    operation = timer.getOperation().name();
+    bucket = timer.getBucket();
+    key = timer.getKey();
+    keySize = timer.getBytes();
+    range = timer.getRange();
+    bytesStreamed = timer.getBytesStreamed();
+    result = timer.getResult();
+    admission = timer.getPhaseNanos(ADMISSION);
+    bucketLookup = timer.getPhaseNanos(BUCKET_LOOKUP);
+    keyLookup = timer.getPhaseNanos(KEY_LOOKUP);
+    omCall = timer.getPhaseNanos(OM_CALL);
+    streamOpen = timer.getPhaseNanos(STREAM_OPEN);
+    dataTransfer = timer.getPhaseNanos(DATA_TRANSFER);
+    keyCommit = timer.getPhaseNanos(COMMIT);
+    commit();
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.util;
+
+/**
+ * Phases of an object request, timed by
+ * {@link org.apache.hadoop.ozone.s3.metrics.S3RequestTimer}.
+ */
+public enum S3RequestPhase {
+
+  /**
+   * Wait for the admission controller.
+   */
+  ADMISSION,
+
+  /**
+   * Bucket lookup in OM.
+   */
+  BUCKET_LOOKUP,
+
+  /**
+   * Key lookup in OM, or the upload lookup of a part upload.
+   */
+  KEY_LOOKUP,
+
+  /**
+   * OM call of a metadata operation: delete, initiate, complete or abort a
+   * multipart upload, list the parts.
+   */
+  OM_CALL,
+
+  /**
+   * Opening the key streams, which allocates the first block of a write.
+   */
+  STREAM_OPEN,
+
+  /**
+   * Moving the data between the client and the key streams.
+   */
+  DATA_TRANSFER,
+
+  /**
+   * Closing the output stream, which commits the key to OM.
+   */
+  COMMIT
+}
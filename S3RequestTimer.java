@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import org.apache.hadoop.ozone.om.exceptions.OMException;
+import org.apache.hadoop.ozone.s3.exception.OS3Exception;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+import org.apache.hadoop.ozone.s3.util.S3RequestPhase;
+
+/**
+ * Times the phases of an object request, see {@link S3RequestPhase}.
+ * <p>
+ * A phase can be timed several times in a request, e.g. the source and
+ * destination bucket lookups of a copy, the times are added. The request
+ * is recorded in S3GatewayMetrics when it finishes: when the endpoint
+ * method returns, or when its response body is written if the timer was
+ * deferred to the body. Slow requests are also kept by S3SlowRequestLog,
+ * and the request is a Flight Recorder event if S3RequestEvent is enabled.
+ * The CPU time and allocations of the sampled requests are recorded too,
+ * see S3RequestCostSampler.
+ * <p>
+ * Not thread safe, a request is timed by one thread at a time.
+ */
+public final class S3RequestTimer {
+
+  private static final S3RequestPhase[] PHASES = S3RequestPhase.values();
+
+  private final S3Operation operation;
+
+  private final String bucket;
+
+  private final String key;
+
+  private final long startNanos = System.nanoTime();
+
+  private final long[] phaseNanos = new long[PHASES.length];
+
+  /**
+   * Bit set of the timed phases.
+   */
+  private int phases;
+
+  private long elapsedNanos = -1;
+
+  private boolean deferred;
+
+  private long bytes;
+
+  private long bytesStreamed;
+
+  private String range;
+
+  private boolean signedChunks;
+
+  private String result = "OK";
+
+  private final S3RequestEvent event = S3RequestEvent.beginIfEnabled();
+
+  private final S3RequestCostSampler.Sample costSample =
+      S3RequestCostSampler.sample();
+
+  private S3RequestTimer(S3Operation operation, String bucket, String key) {
+    this.operation = operation;
+    this.bucket = bucket;
+    this.key = key;
+  }
+
+  public static S3RequestTimer start(S3Operation operation, String bucket,
+      String key) {
+    return new S3RequestTimer(operation, bucket, key);
+  }
+
+  /**
+   * @return the start of a phase, to pass to {@link #end}.
+   */
+  public long begin() {
+    return System.nanoTime();
+  }
+
+  public void end(S3RequestPhase phase, long beginNanos) {
+    add(phase, System.nanoTime() - beginNanos);
+  }
+
+  public void add(S3RequestPhase phase, long nanos) {
+    phaseNanos[phase.ordinal()] += nanos;
+    phases |= 1 << phase.ordinal();
+  }
+
+  /**
+   * Size of the object read or written by the request.
+   */
+  public void setBytes(long bytes) {
+    this.bytes = bytes;
+  }
+
+  /**
+   * Range header of the request.
+   */
+  public void setRange(String range) {
+    this.range = range;
+  }
+
+  /**
+   * Count bytes read from or written to the key streams.
+   */
+  public void addBytesStreamed(long n) {
+    bytesStreamed += n;
+  }
+
+  /**
+   * The payload is sent in signed chunks, which are verified by the
+   * gateway.
+   */
+  public void setSignedChunks() {
+    this.signedChunks = true;
+  }
+
+  /**
+   * Result of the request, "OK" by default.
+   */
+  public void setResult(String result) {
+    this.result = result;
+  }
+
+  /**
+   * The request failed: the result is the S3 error code, the OM result
+   * code or the exception class.
+   */
+  public void fail(Throwable ex) {
+    if (ex instanceof OS3Exception) {
+      result = ((OS3Exception) ex).getCode();
+    } else if (ex instanceof OMException) {
+      result = ((OMException) ex).getResult().name();
+    } else {
+      result = ex.getClass().getSimpleName();
+    }
+  }
+
+  /**
+   * The request finishes when its response body is written, the body
+   * calls {@link #finishDeferred()}.
+   */
+  public void defer() {
+    deferred = true;
+  }
+
+  /**
+   * Record the request, unless it is deferred to its body or already
+   * recorded.
+   */
+  public void finish() {
+    if (deferred || elapsedNanos >= 0) {
+      return;
+    }
+    elapsedNanos = System.nanoTime() - startNanos;
+    S3GatewayMetrics.create().addRequest(this);
+    S3SlowRequestLog slowRequestLog = S3SlowRequestLog.getInstance();
+    if (slowRequestLog != null) {
+      slowRequestLog.add(this);
+    }
+    if (event != null) {
+      event.finish(this);
+    }
+    if (costSample != null) {
+      costSample.finish(this);
+    }
+  }
+
+  /**
+   * Record the request deferred to its response body.
+   */
+  public void finishDeferred() {
+    deferred = false;
+    finish();
+  }
+
+  public boolean isDeferred() {
+    return deferred;
+  }
+
+  public S3Operation getOperation() {
+    return operation;
+  }
+
+  public String getBucket() {
+    return bucket;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public long getBytesStreamed() {
+    return bytesStreamed;
+  }
+
+  public String getRange() {
+    return range;
+  }
+
+  public boolean isSignedChunks() {
+    return signedChunks;
+  }
+
+  public String getResult() {
+    return result;
+  }
+
+  public boolean isTimed(S3RequestPhase phase) {
+    return (phases & (1 << phase.ordinal())) != 0;
+  }
+
+  public long getPhaseNanos(S3RequestPhase phase) {
+    return phaseNanos[phase.ordinal()];
+  }
+
+  /**
+   * @return the time spent in the OM calls of the request: the lookups,
+   * the metadata calls, the stream opens and the commits. The data transfer
+   * is not included, it is bound by the client as much as by the cluster.
+   */
+  public long getBackendNanos() {
+    return getPhaseNanos(S3RequestPhase.BUCKET_LOOKUP)
+        + getPhaseNanos(S3RequestPhase.KEY_LOOKUP)
+        + getPhaseNanos(S3RequestPhase.OM_CALL)
+        + getPhaseNanos(S3RequestPhase.STREAM_OPEN)
+        + getPhaseNanos(S3RequestPhase.COMMIT);
+  }
+
+  /**
+   * @return the duration of the request, or -1 if not finished.
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+import org.apache.hadoop.ozone.s3.util.S3RequestPhase;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Log of the object requests slower than a threshold, with their bucket,
+ * key, size, result and phase timings.
+ * <p>
+ * The slow requests are kept in a bounded ring, the oldest are overwritten
+ * when it is full, and logged periodically by a background thread, so a
+ * storm of slow requests does not flood the log from the request threads.
+ * When the cluster stalls every request is slow: only the configured
+ * ratio of the slow requests is kept, all of them are counted in
+ * S3GatewayMetrics.
+ * <p>
+ * The requests are logged at WARN by this class' logger, which can be
+ * routed to its own file.
+ */
+public final class S3SlowRequestLog {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(S3SlowRequestLog.class);
+
+  /**
+   * Requests slower than this are logged, 0 disables the log.
+   */
+  public static final String OZONE_S3G_SLOW_REQUEST_THRESHOLD =
+      "ozone.s3g.slow-request.threshold";
+  public static final String OZONE_S3G_SLOW_REQUEST_THRESHOLD_DEFAULT =
+      "10s";
+
+  /**
+   * Ratio of the slow requests kept for the log, between 0 and 1.
+   */
+  public static final String OZONE_S3G_SLOW_REQUEST_SAMPLE_RATIO =
+      "ozone.s3g.slow-request.sample-ratio";
+  public static final float OZONE_S3G_SLOW_REQUEST_SAMPLE_RATIO_DEFAULT = 1;
+
+  /**
+   * Number of slow requests kept between two flushes.
+   */
+  public static final String OZONE_S3G_SLOW_REQUEST_BUFFER_SIZE =
+      "ozone.s3g.slow-request.buffer-size";
+  public static final int OZONE_S3G_SLOW_REQUEST_BUFFER_SIZE_DEFAULT = 1000;
+
+  /**
+   * Interval between two flushes of the slow requests to the log.
+   */
+  public static final String OZONE_S3G_SLOW_REQUEST_FLUSH_INTERVAL =
+      "ozone.s3g.slow-request.flush-interval";
+  public static final String OZONE_S3G_SLOW_REQUEST_FLUSH_INTERVAL_DEFAULT =
+      "1m";
+
+  private static final S3RequestPhase[] PHASES = S3RequestPhase.values();
+
+  private static volatile S3SlowRequestLog instance;
+
+  private final long thresholdNanos;
+
+  private final double sampleRatio;
+
+  private final Entry[] ring;
+
+  /**
+   * Number of entries added to the ring, guarded by the ring.
+   */
+  private long added;
+
+  /**
+   * Number of entries taken from the ring, guarded by the ring.
+   */
+  private long taken;
+
+  private final AtomicLong overwritten = new AtomicLong();
+
+  private final AtomicLong sampledOut = new AtomicLong();
+
+  private final ScheduledExecutorService flusher;
+
+  private S3SlowRequestLog(OzoneConfiguration conf) {
+    this.thresholdNanos = conf.getTimeDuration(
+        OZONE_S3G_SLOW_REQUEST_THRESHOLD,
+        OZONE_S3G_SLOW_REQUEST_THRESHOLD_DEFAULT, TimeUnit.NANOSECONDS);
+    this.sampleRatio = conf.getFloat(OZONE_S3G_SLOW_REQUEST_SAMPLE_RATIO,
+        OZONE_S3G_SLOW_REQUEST_SAMPLE_RATIO_DEFAULT);
+    this.ring = new Entry[Math.max(1, conf.getInt(
+        OZONE_S3G_SLOW_REQUEST_BUFFER_SIZE,
+        OZONE_S3G_SLOW_REQUEST_BUFFER_SIZE_DEFAULT))];
+    long interval = conf.getTimeDuration(
+        OZONE_S3G_SLOW_REQUEST_FLUSH_INTERVAL,
+        OZONE_S3G_SLOW_REQUEST_FLUSH_INTERVAL_DEFAULT, TimeUnit.MILLISECONDS);
+    if (thresholdNanos > 0 && interval > 0) {
+      flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "S3G-SlowRequestLog");
+        thread.setDaemon(true);
+        return thread;
+      });
+      flusher.scheduleWithFixedDelay(this::flush, interval, interval,
+          TimeUnit.MILLISECONDS);
+    } else {
+      flusher = null;
+    }
+  }
+
+  /**
+   * Create and returns the S3SlowRequestLog instance.
+   *
+   * @return S3SlowRequestLog
+   */
+  public static synchronized S3SlowRequestLog create(
+      OzoneConfiguration conf) {
+    if (instance == null) {
+      instance = new S3SlowRequestLog(conf);
+    }
+    return instance;
+  }
+
+  /**
+   * @return the instance, or null if it is not created yet.
+   */
+  static S3SlowRequestLog getInstance() {
+    return instance;
+  }
+
+  /**
+   * Flush the log and drop the instance, the next create() call reads the
+   * configuration again.
+   */
+  @VisibleForTesting
+  public static synchronized void reset() {
+    if (instance != null) {
+      if (instance.flusher != null) {
+        instance.flusher.shutdownNow();
+      }
+      instance.flush();
+    }
+    instance = null;
+  }
+
+  /**
+   * Keep the finished request if it is slow and sampled.
+   */
+  void add(S3RequestTimer timer) {
+    if (thresholdNanos <= 0 || timer.getElapsedNanos() < thresholdNanos) {
+      return;
+    }
+    S3GatewayMetrics.create().incSlowRequests();
+    if (sampleRatio < 1
+        && ThreadLocalRandom.current().nextDouble() >= sampleRatio) {
+      sampledOut.incrementAndGet();
+      return;
+    }
+    Entry entry = new Entry(timer);
+    synchronized (ring) {
+      if (added - taken == ring.length) {
+        taken++;
+        overwritten.incrementAndGet();
+      }
+      ring[(int) (added++ % ring.length)] = entry;
+    }
+  }
+
+  /**
+   * Remove the kept requests from the ring, oldest first.
+   */
+  @VisibleForTesting
+  List<Entry> drain() {
+    synchronized (ring) {
+      List<Entry> entries = new ArrayList<>((int) (added - taken));
+      while (taken < added) {
+        int slot = (int) (taken++ % ring.length);
+        entries.add(ring[slot]);
+        ring[slot] = null;
+      }
+      return entries;
+    }
+  }
+
+  /**
+   * Log the kept requests.
+   */
+  public void flush() {
+    try {
+      for (Entry entry : drain()) {
+        LOG.warn("{}", entry);
+      }
+      long lost = overwritten.getAndSet(0);
+      long skipped = sampledOut.getAndSet(0);
+      if (lost > 0 || skipped > 0) {
+        LOG.warn("{} slow requests overwritten in the buffer and {} not " +
+            "sampled since the previous flush", lost, skipped);
+      }
+    } catch (RuntimeException ex) {
+      // Keep the flusher scheduled.
+      LOG.error("Failed to flush the slow request log", ex);
+    }
+  }
+
+  /**
+   * A slow request.
+   */
+  static final class Entry {
+    private final long finishMillis = System.currentTimeMillis();
+    private final S3Operation operation;
+    private final String bucket;
+    private final String key;
+    private final long bytes;
+    private final String result;
+    private final long elapsedNanos;
+    private final long[] phaseNanos = new long[PHASES.length];
+
+    private Entry(S3RequestTimer timer) {
+      operation = timer.getOperation();
+      bucket = timer.getBucket();
+      key = timer.getKey();
+      bytes = timer.getBytes();
+      result = timer.getResult();
+      elapsedNanos = timer.getElapsedNanos();
+      for (S3RequestPhase phase : PHASES) {
+        phaseNanos[phase.ordinal()] =
+            timer.isTimed(phase) ? timer.getPhaseNanos(phase) : -1;
+      }
+    }
+
+    S3Operation getOperation() {
+      return operation;
+    }
+
+    String getResult() {
+      return result;
+    }
+
+    long getPhaseNanos(S3RequestPhase phase) {
+      return phaseNanos[phase.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder(256)
+          .append("Slow request ").append(operation)
+          .append(' ').append(bucket).append('/').append(key)
+          .append(" result=").append(result)
+          .append(" bytes=").append(bytes)
+          .append(" elapsedMs=").append(millis(elapsedNanos))
+          .append(" finishedAt=").append(finishMillis)
+          .append(" phasesMs:");
+      for (S3RequestPhase phase : PHASES) {
+        long nanos = phaseNanos[phase.ordinal()];
+        if (nanos >= 0) {
+          sb.append(' ').append(phase.name().toLowerCase()).append('=')
+              .append(millis(nanos));
+        }
+      }
+      return sb.toString();
+    }
+
+    private static String millis(long nanos) {
+      return String.format("%.1f", nanos / 1e6);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.s3.exception.OS3Exception;
+
+import static org.apache.hadoop.ozone.s3.exception.S3ErrorTable.INVALID_ARGUMENT;
+import static org.apache.hadoop.ozone.s3.exception.S3Errors.newError;
+
+/**
+ * Resolves the storage class header of a request to a {@link S3StorageType}.
+ * <p>
+ * The default storage type is computed once from the configuration instead
+ * of on each request, and the storage class names are looked up in a map
+ * instead of with {@link S3StorageType#valueOf(String)}, which fails with an
+ * exception. The resolver is shared and rebuilt only when the configuration
+ * instance changes: the gateway has no reconfiguration, the default storage
+ * type is fixed when the gateway starts.
+ */
+public final class S3StorageClassResolver {
+
+  private static final Map<String, S3StorageType> STORAGE_TYPES =
+      new HashMap<>();
+
+  static {
+    for (S3StorageType storageType : S3StorageType.values()) {
+      STORAGE_TYPES.put(storageType.name(), storageType);
+    }
+  }
+
+  private static volatile S3StorageClassResolver instance;
+
+  private final OzoneConfiguration conf;
+
+  private final S3StorageType defaultType;
+
+  private S3StorageClassResolver(OzoneConfiguration conf) {
+    this.conf = conf;
+    this.defaultType = S3StorageType.getDefault(conf);
+  }
+
+  /**
+   * Returns the resolver of the configuration, created on the first call
+   * with the configuration.
+   *
+   * @return S3StorageClassResolver
+   */
+  public static S3StorageClassResolver get(OzoneConfiguration conf) {
+    S3StorageClassResolver resolver = instance;
+    if (resolver == null || resolver.conf != conf) {
+      resolver = new S3StorageClassResolver(conf);
+      instance = resolver;
+    }
+    return resolver;
+  }
+
+  /**
+   * @param storageClass value of the storage class header, may be null
+   * @return the storage type of the storage class, the configured default
+   * if the storage class is not set
+   * @throws OS3Exception if the storage class is unknown
+   */
+  public S3StorageType resolve(String storageClass) throws OS3Exception {
+    if (storageClass == null || storageClass.isEmpty()) {
+      return defaultType;
+    }
+    S3StorageType storageType = STORAGE_TYPES.get(storageClass);
+    if (storageType == null) {
+      throw newError(INVALID_ARGUMENT, storageClass);
+    }
+    return storageType;
+  }
+
+  public S3StorageType getDefault() {
+    return defaultType;
+  }
+}
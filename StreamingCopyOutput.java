@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.endpoint;
+
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.ozone.s3.exception.OS3Exception;
+import org.apache.hadoop.ozone.s3.exception.S3ErrorTable;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.hadoop.ozone.s3.exception.S3ErrorTable.newError;
+
+/**
+ * Response body of a long running CopyObject request.
+ * <p>
+ * The copy runs while the response is written: the status, the headers and
+ * a first whitespace are sent right away, and a whitespace is written
+ * periodically by a timer until the copy is finished, so that idle
+ * timeouts of clients and proxies don't close the connection, also while
+ * the copy waits for a datanode or for the commit of the key. The result
+ * follows the whitespace. As the 200 status is already sent, a failure is
+ * reported with an error document in the body, as AWS does.
+ */
+public class StreamingCopyOutput implements StreamingOutput {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(StreamingCopyOutput.class);
+
+  /**
+   * Copies of sources smaller than this are finished before the response
+   * is sent.
+   */
+  public static final String OZONE_S3G_COPY_KEEP_ALIVE_THRESHOLD =
+      "ozone.s3g.copy.keep-alive.threshold";
+  public static final String OZONE_S3G_COPY_KEEP_ALIVE_THRESHOLD_DEFAULT =
+      "128MB";
+
+  /**
+   * Time between two whitespaces written during a copy.
+   */
+  public static final String OZONE_S3G_COPY_KEEP_ALIVE_INTERVAL =
+      "ozone.s3g.copy.keep-alive.interval";
+  public static final String OZONE_S3G_COPY_KEEP_ALIVE_INTERVAL_DEFAULT =
+      "10s";
+
+  /**
+   * Writes the whitespaces of all the copies, a write only takes the time
+   * to hand a byte to the container.
+   */
+  private static final ScheduledThreadPoolExecutor KEEP_ALIVE =
+      new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+          .setDaemon(true).setNameFormat("S3G-CopyKeepAlive-%d").build());
+
+  static {
+    KEEP_ALIVE.setRemoveOnCancelPolicy(true);
+  }
+
+  private static final long MIN_INTERVAL_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final String XML_DECLARATION_START = "<?xml";
+
+  private static final String XML_DECLARATION_END = "?>";
+
+  private static volatile JAXBContext jaxbContext;
+
+  private final String resource;
+
+  private final long intervalNanos;
+
+  private final Copier copier;
+
+  /**
+   * No whitespace is written once the result is written or a write failed.
+   * Guarded by this.
+   */
+  private boolean done;
+
+  public StreamingCopyOutput(String resource, long intervalNanos,
+      Copier copier) {
+    this.resource = resource;
+    this.intervalNanos = Math.max(intervalNanos, MIN_INTERVAL_NANOS);
+    this.copier = copier;
+  }
+
+  @Override
+  public void write(OutputStream out) throws IOException {
+    // Send the headers and start the body before the copy starts.
+    synchronized (this) {
+      out.write(' ');
+      out.flush();
+    }
+    ScheduledFuture<?> keepAlive = KEEP_ALIVE.scheduleWithFixedDelay(
+        () -> keepAlive(out), intervalNanos, intervalNanos,
+        TimeUnit.NANOSECONDS);
+    byte[] body;
+    try {
+      body = toXml(copier.copy());
+    } catch (OS3Exception ex) {
+      body = toXml(ex);
+    } catch (IOException | RuntimeException ex) {
+      body = toXml(newError(S3ErrorTable.INTERNAL_ERROR, resource, ex));
+    } finally {
+      keepAlive.cancel(false);
+    }
+    synchronized (this) {
+      done = true;
+      out.write(body);
+      out.flush();
+    }
+  }
+
+  /**
+   * Write a whitespace, called by the timer while the copy is running.
+   */
+  private synchronized void keepAlive(OutputStream out) {
+    if (done) {
+      return;
+    }
+    try {
+      out.write(' ');
+      out.flush();
+    } catch (IOException ex) {
+      // The client is gone, the write of the result fails as well.
+      LOG.debug("Failed to write keep-alive of the copy to {}", resource,
+          ex);
+      done = true;
+    }
+  }
+
+  private static byte[] toXml(CopyObjectResponse response)
+      throws IOException {
+    try {
+      Marshaller marshaller = getJaxbContext().createMarshaller();
+      // The XML declaration is not allowed after the whitespaces.
+      marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+      ByteArrayOutputStream xml = new ByteArrayOutputStream();
+      marshaller.marshal(response, xml);
+      return xml.toByteArray();
+    } catch (JAXBException ex) {
+      throw new IOException("Failed to serialize copy response", ex);
+    }
+  }
+
+  /**
+   * @return the error document without its XML declaration, which is not
+   * allowed after the whitespaces either.
+   */
+  private static byte[] toXml(OS3Exception ex) {
+    String xml = ex.toXml();
+    if (xml.startsWith(XML_DECLARATION_START)) {
+      int end = xml.indexOf(XML_DECLARATION_END);
+      if (end >= 0) {
+        xml = xml.substring(end + XML_DECLARATION_END.length()).trim();
+      }
+    }
+    return xml.getBytes(UTF_8);
+  }
+
+  private static JAXBContext getJaxbContext() throws JAXBException {
+    if (jaxbContext == null) {
+      jaxbContext = JAXBContext.newInstance(CopyObjectResponse.class);
+    }
+    return jaxbContext;
+  }
+
+  /**
+   * Performs the copy.
+   */
+  @FunctionalInterface
+  public interface Copier {
+    CopyObjectResponse copy() throws IOException, OS3Exception;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.IntToLongFunction;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AdaptiveConcurrencyLimiter}.
+ * <p>
+ * The limiter is driven by a simulated closed loop workload: every client
+ * sends a new request when the previous one is finished or retries after a
+ * while when it is shed. The latency of the backend is a function of the
+ * number of requests in flight, given by a latency curve.
+ */
+public class TestAdaptiveConcurrencyLimiter {
+
+  private static final long BASE_LATENCY = 1_000_000L;
+
+  private static final int CAPACITY = 50;
+
+  /**
+   * Constant latency up to the capacity of the backend, linear growth
+   * (queueing) above it.
+   */
+  private static final IntToLongFunction QUEUEING_CURVE =
+      inFlight -> (long) (BASE_LATENCY *
+          Math.max(1.0, (double) inFlight / CAPACITY));
+
+  @Test
+  public void testNoSheddingWithoutOverload() {
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(20, 4, 1000, 1.5);
+    Result result = simulate(limiter, 10, QUEUEING_CURVE, 10_000_000_000L);
+
+    assertEquals(0, result.shed);
+    assertEquals(20, result.limit);
+  }
+
+  @Test
+  public void testLimitConvergesUnderOverload() {
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(20, 4, 1000, 1.5);
+    Result result = simulate(limiter, 400, QUEUEING_CURVE, 20_000_000_000L);
+
+    assertTrue(result.shed > 0);
+    // Without the limit 400 requests would be in flight with 8x latency.
+    assertTrue("Limit: " + result.limit,
+        result.limit >= CAPACITY && result.limit <= 2 * CAPACITY);
+    assertTrue("Latency: " + result.rtt, result.rtt < 2 * BASE_LATENCY);
+    assertTrue("No load latency: " + result.noLoadRtt,
+        result.noLoadRtt < 1.2 * BASE_LATENCY);
+  }
+
+  @Test
+  public void testLimitGrowsToMax() {
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(20, 4, 100, 1.5);
+    // Backend which is never overloaded.
+    Result result =
+        simulate(limiter, 400, inFlight -> BASE_LATENCY, 5_000_000_000L);
+
+    assertEquals(100, result.limit);
+  }
+
+  @Test
+  public void testRecoverFromLatencyStep() {
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(20, 4, 1000, 1.5);
+    simulate(limiter, 400, QUEUEING_CURVE, 10_000_000_000L);
+
+    // The backend becomes permanently 3 times slower: the limit first
+    // collapses, then the limiter learns the new baseline.
+    Result result = simulate(limiter, 400,
+        inFlight -> 3 * QUEUEING_CURVE.applyAsLong(inFlight),
+        60_000_000_000L);
+    assertTrue("Limit: " + result.limit, result.limit >= CAPACITY / 2);
+    assertTrue("Latency: " + result.rtt, result.rtt < 6 * BASE_LATENCY);
+  }
+
+  private Result simulate(AdaptiveConcurrencyLimiter limiter, int clients,
+      IntToLongFunction latencyCurve, long duration) {
+    Random random = new Random(1);
+    // time, client, in flight at start (0: new request), latency
+    PriorityQueue<long[]> events =
+        new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+    for (int i = 0; i < clients; i++) {
+      events.add(new long[] {random.nextInt((int) BASE_LATENCY), i, 0, 0});
+    }
+    Result result = new Result();
+    while (true) {
+      long[] event = events.poll();
+      long time = event[0];
+      if (time > duration) {
+        break;
+      }
+      if (event[2] > 0) {
+        limiter.release((int) event[2], event[3]);
+        result.completed++;
+      }
+      int inFlight = limiter.tryAcquire();
+      if (inFlight == 0) {
+        result.shed++;
+        events.add(new long[] {time + BASE_LATENCY, event[1], 0, 0});
+      } else {
+        long latency = (long) (latencyCurve.applyAsLong(
+            limiter.getInFlight()) * (0.8 + 0.4 * random.nextDouble()));
+        events.add(new long[] {time + latency, event[1], inFlight, latency});
+      }
+    }
+    result.limit = limiter.getLimit();
+    result.rtt = limiter.getRttNanos();
+    result.noLoadRtt = limiter.getNoLoadRttNanos();
+    // finish the requests in flight, so the limiter can be used again
+    for (long[] event : events) {
+      if (event[2] > 0) {
+        limiter.release((int) event[2], event[3]);
+      }
+    }
+    return result;
+  }
+
+  private static class Result {
+    private long completed;
+    private long shed;
+    private int limit;
+    private long rtt;
+    private long noLoadRtt;
+  }
+}
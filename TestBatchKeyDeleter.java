@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.client.OzoneBucket;
+import org.apache.hadoop.ozone.om.exceptions.OMException;
+import org.apache.hadoop.ozone.om.exceptions.OMException.ResultCodes;
+import org.apache.hadoop.ozone.s3.exception.S3ErrorTable;
+import org.apache.hadoop.ozone.s3.metrics.S3GatewayMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.hadoop.ozone.s3.BatchKeyDeleter.OZONE_S3G_DELETE_BATCH_SIZE;
+import static org.apache.hadoop.ozone.s3.BatchKeyDeleter.OZONE_S3G_DELETE_QUEUE_SIZE;
+import static org.apache.hadoop.ozone.s3.BatchKeyDeleter.OZONE_S3G_DELETE_THREADS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for {@link BatchKeyDeleter}.
+ */
+public class TestBatchKeyDeleter {
+
+  private BatchKeyDeleter deleter;
+
+  private OzoneBucket bucket;
+
+  @Before
+  public void setup() {
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(OZONE_S3G_DELETE_BATCH_SIZE, 10);
+    BatchKeyDeleter.reset();
+    deleter = BatchKeyDeleter.create(conf);
+    bucket = mock(OzoneBucket.class);
+  }
+
+  @After
+  public void cleanup() {
+    BatchKeyDeleter.reset();
+  }
+
+  @Test
+  public void testBatches() throws Exception {
+    S3GatewayMetrics metrics = S3GatewayMetrics.create();
+    long keysBefore = metrics.getDeleteBatchKeys();
+    List<String> keys = keys(25);
+
+    List<BatchKeyDeleter.Result> results = deleter.delete(bucket, keys);
+
+    verify(bucket, times(3)).deleteKeys(anyList());
+    verify(bucket).deleteKeys(keys.subList(0, 10));
+    verify(bucket).deleteKeys(keys.subList(20, 25));
+    verify(bucket, never()).deleteKey(keys.get(0));
+    assertEquals(keys.size(), results.size());
+    for (int i = 0; i < keys.size(); i++) {
+      assertEquals(keys.get(i), results.get(i).getKey());
+      assertTrue(results.get(i).isDeleted());
+      assertNull(results.get(i).getErrorCode());
+    }
+    assertEquals(keysBefore + keys.size(), metrics.getDeleteBatchKeys());
+  }
+
+  @Test
+  public void testFailedBatchRetriesFailedKeys() throws Exception {
+    S3GatewayMetrics metrics = S3GatewayMetrics.create();
+    long fallbackBefore = metrics.getDeleteBatchFallback();
+    long failureBefore = metrics.getDeleteBatchKeyFailure();
+    List<String> keys = keys(15);
+    // The batches with key12 fail.
+    doThrow(new OMException("denied", ResultCodes.PERMISSION_DENIED))
+        .when(bucket).deleteKeys(argThat(batch -> batch.contains("key12")));
+    doThrow(new OMException("denied", ResultCodes.PERMISSION_DENIED))
+        .when(bucket).deleteKey("key12");
+
+    List<BatchKeyDeleter.Result> results = deleter.delete(bucket, keys);
+
+    // [10, 15) fails, [10, 12) is deleted, [12, 15) fails, key12 is
+    // deleted alone and [13, 15) together.
+    verify(bucket).deleteKeys(keys.subList(10, 12));
+    verify(bucket).deleteKeys(keys.subList(13, 15));
+    verify(bucket).deleteKey("key12");
+    verify(bucket, never()).deleteKey("key10");
+    verify(bucket, never()).deleteKey("key13");
+    assertEquals(keys.size(), results.size());
+    for (int i = 0; i < keys.size(); i++) {
+      if (i == 12) {
+        assertFalse(results.get(i).isDeleted());
+        assertEquals(S3ErrorTable.ACCESS_DENIED.getCode(),
+            results.get(i).getErrorCode());
+      } else {
+        assertTrue(results.get(i).isDeleted());
+      }
+    }
+    assertEquals(fallbackBefore + 1, metrics.getDeleteBatchFallback());
+    assertEquals(failureBefore + 1, metrics.getDeleteBatchKeyFailure());
+  }
+
+  @Test
+  public void testMissingKeyOfFailedBatch() throws Exception {
+    List<String> keys = keys(4);
+    doThrow(new OMException("missing", ResultCodes.KEY_NOT_FOUND))
+        .when(bucket).deleteKeys(argThat(batch -> batch.contains("key3")));
+    doThrow(new OMException("missing", ResultCodes.KEY_NOT_FOUND))
+        .when(bucket).deleteKey("key3");
+
+    List<BatchKeyDeleter.Result> results = deleter.delete(bucket, keys);
+
+    verify(bucket).deleteKeys(keys.subList(0, 2));
+    verify(bucket).deleteKey("key2");
+    verify(bucket).deleteKey("key3");
+    for (BatchKeyDeleter.Result result : results) {
+      // A missing key is deleted for S3.
+      assertTrue(result.isDeleted());
+    }
+  }
+
+  @Test
+  public void testFullQueueDeletesOnRequestThread() throws Exception {
+    BatchKeyDeleter.reset();
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(OZONE_S3G_DELETE_BATCH_SIZE, 1);
+    conf.setInt(OZONE_S3G_DELETE_THREADS, 1);
+    conf.setInt(OZONE_S3G_DELETE_QUEUE_SIZE, 1);
+    deleter = BatchKeyDeleter.create(conf);
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+    doAnswer(invocation -> {
+      threads.add(Thread.currentThread().getName());
+      Thread.sleep(10);
+      return null;
+    }).when(bucket).deleteKeys(anyList());
+    List<String> keys = keys(10);
+
+    List<BatchKeyDeleter.Result> results = deleter.delete(bucket, keys);
+
+    assertEquals(keys.size(), results.size());
+    for (int i = 0; i < keys.size(); i++) {
+      assertEquals(keys.get(i), results.get(i).getKey());
+      assertTrue(results.get(i).isDeleted());
+    }
+    assertTrue(threads.toString(),
+        threads.contains(Thread.currentThread().getName()));
+  }
+
+  private static List<String> keys(int count) {
+    List<String> keys = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      keys.add("key" + i);
+    }
+    return keys;
+  }
+}
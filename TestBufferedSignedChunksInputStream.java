@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test input stream parsing with signatures, using bulk reads.
+ */
+public class TestBufferedSignedChunksInputStream {
+
+  private static final String SIGNATURE = ";chunk-signature="
+      + "23abb2bd920ddeeaac78a63ed808bc59fa6e7d3ef0e356474b82cdc2f8c93c40";
+
+  @Test
+  public void emptyfile() throws IOException {
+    InputStream is = fileContent("0" + SIGNATURE);
+    String result = IOUtils.toString(is, StandardCharsets.UTF_8);
+    Assert.assertEquals("", result);
+
+    is = fileContent("0" + SIGNATURE + "\r\n\r\n");
+    result = IOUtils.toString(is, StandardCharsets.UTF_8);
+    Assert.assertEquals("", result);
+  }
+
+  @Test
+  public void singlechunk() throws IOException {
+    //test simple read()
+    InputStream is = fileContent("0A" + SIGNATURE + "\r\n1234567890\r\n");
+    String result = IOUtils.toString(is, StandardCharsets.UTF_8);
+    Assert.assertEquals("1234567890", result);
+
+    //test read(byte[],int,int)
+    is = fileContent("0A" + SIGNATURE + "\r\n1234567890\r\n");
+    byte[] bytes = new byte[10];
+    IOUtils.read(is, bytes, 0, 10);
+    Assert.assertEquals("1234567890", new String(bytes,
+        StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void singlechunkwithoutend() throws IOException {
+    InputStream is = fileContent("0A" + SIGNATURE + "\r\n1234567890");
+    String result = IOUtils.toString(is, StandardCharsets.UTF_8);
+    Assert.assertEquals("1234567890", result);
+  }
+
+  @Test
+  public void multichunks() throws IOException {
+    InputStream is = fileContent("0a" + SIGNATURE + "\r\n1234567890\r\n"
+        + "05" + SIGNATURE + "\r\nabcde\r\n"
+        + "0" + SIGNATURE + "\r\n\r\n");
+    String result = IOUtils.toString(is, StandardCharsets.UTF_8);
+    Assert.assertEquals("1234567890abcde", result);
+  }
+
+  @Test
+  public void singleByteReads() throws IOException {
+    InputStream is = fileContent("0a" + SIGNATURE + "\r\n1234567890\r\n"
+        + "05" + SIGNATURE + "\r\nabcde\r\n"
+        + "0" + SIGNATURE + "\r\n\r\n");
+    StringBuilder result = new StringBuilder();
+    int b;
+    while ((b = is.read()) != -1) {
+      result.append((char) b);
+    }
+    Assert.assertEquals("1234567890abcde", result.toString());
+  }
+
+  /**
+   * Chunk headers and payloads crossing the boundaries of a tiny internal
+   * buffer, and reads larger than the buffer.
+   */
+  @Test
+  public void bufferBoundaries() throws IOException {
+    String content = RandomStringUtils.randomAlphanumeric(10000);
+    byte[] encoded = encode(content.getBytes(StandardCharsets.UTF_8), 777);
+
+    for (int bufferSize : new int[] {1, 7, 64, 1024, 65536}) {
+      InputStream is = new BufferedSignedChunksInputStream(
+          new ByteArrayInputStream(encoded), bufferSize);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      IOUtils.copyLarge(is, out, new byte[3000]);
+      Assert.assertEquals(content,
+          new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void invalidSignatureLine() throws IOException {
+    InputStream is = fileContent("0A;something=else\r\n1234567890\r\n");
+    IOUtils.toString(is, StandardCharsets.UTF_8);
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedChunk() throws IOException {
+    InputStream is = fileContent("0A" + SIGNATURE + "\r\n12345");
+    IOUtils.toString(is, StandardCharsets.UTF_8);
+  }
+
+  @Test(expected = IOException.class)
+  public void chunkLongerThanHeader() throws IOException {
+    InputStream is = fileContent("05" + SIGNATURE + "\r\n1234567890\r\n"
+        + "0" + SIGNATURE + "\r\n\r\n");
+    IOUtils.toString(is, StandardCharsets.UTF_8);
+  }
+
+  private InputStream fileContent(String content) {
+    return new BufferedSignedChunksInputStream(
+        new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static byte[] encode(byte[] content, int chunkSize) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < content.length; i += chunkSize) {
+      int len = Math.min(chunkSize, content.length - i);
+      byte[] header = (Integer.toHexString(len) + SIGNATURE + "\r\n")
+          .getBytes(StandardCharsets.UTF_8);
+      out.write(header, 0, header.length);
+      out.write(content, i, len);
+      out.write('\r');
+      out.write('\n');
+    }
+    byte[] last = ("0" + SIGNATURE + "\r\n\r\n")
+        .getBytes(StandardCharsets.UTF_8);
+    out.write(last, 0, last.length);
+    return out.toByteArray();
+  }
+}
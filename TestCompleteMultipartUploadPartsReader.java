@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.endpoint;
+
+import javax.ws.rs.WebApplicationException;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link CompleteMultipartUploadPartsReader}.
+ */
+public class TestCompleteMultipartUploadPartsReader {
+
+  private static final String NAMESPACE =
+      " xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"";
+
+  @Test
+  public void testRead() throws Exception {
+    CompleteMultipartUploadParts parts = read(body(NAMESPACE, 1, 2, 10));
+
+    assertEquals(3, parts.size());
+    assertTrue(parts.isAscending());
+    List<Integer> partNumbers = new ArrayList<>();
+    for (Map.Entry<Integer, String> entry : parts.entrySet()) {
+      partNumbers.add(entry.getKey());
+      assertEquals("\"etag" + entry.getKey() + "\"", entry.getValue());
+    }
+    assertEquals(3, partNumbers.size());
+    assertEquals(Integer.valueOf(1), partNumbers.get(0));
+    assertEquals(Integer.valueOf(10), partNumbers.get(2));
+    assertEquals("\"etag2\"", parts.get(2));
+    assertNull(parts.get(3));
+  }
+
+  @Test
+  public void testReadWithoutNamespace() throws Exception {
+    CompleteMultipartUploadParts parts = read(body("", 1, 2));
+    assertEquals(2, parts.size());
+    assertEquals("\"etag1\"", parts.get(1));
+  }
+
+  @Test
+  public void testReadEmpty() throws Exception {
+    assertEquals(0, read(body(NAMESPACE)).size());
+  }
+
+  @Test
+  public void testPartOrder() throws Exception {
+    assertFalse(read(body(NAMESPACE, 2, 1)).isAscending());
+    assertFalse(read(body(NAMESPACE, 1, 1)).isAscending());
+  }
+
+  @Test
+  public void testInvalidPartNumber() throws Exception {
+    try {
+      read(body(NAMESPACE, 0));
+      fail("Part number 0 should be rejected");
+    } catch (WebApplicationException ex) {
+      assertEquals(400, ex.getResponse().getStatus());
+    }
+  }
+
+  @Test
+  public void testMalformedBody() throws Exception {
+    try {
+      read("<CompleteMultipartUpload><Part>");
+      fail("Malformed body should be rejected");
+    } catch (WebApplicationException ex) {
+      assertEquals(400, ex.getResponse().getStatus());
+    }
+  }
+
+  private static CompleteMultipartUploadParts read(String body)
+      throws Exception {
+    return new CompleteMultipartUploadPartsReader().readFrom(
+        CompleteMultipartUploadParts.class, null, null, null, null,
+        new ByteArrayInputStream(body.getBytes(UTF_8)));
+  }
+
+  private static String body(String namespace, int... partNumbers) {
+    StringBuilder sb = new StringBuilder("<CompleteMultipartUpload")
+        .append(namespace).append(">");
+    for (int partNumber : partNumbers) {
+      sb.append("<Part><PartNumber>").append(partNumber)
+          .append("</PartNumber><ETag>\"etag").append(partNumber)
+          .append("\"</ETag></Part>");
+    }
+    return sb.append("</CompleteMultipartUpload>").toString();
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.endpoint;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.xml.bind.JAXBContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.OzoneConsts;
+import org.apache.hadoop.ozone.client.OzoneClient;
+import org.apache.hadoop.ozone.client.OzoneClientStub;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.hadoop.ozone.s3.util.S3Consts.STORAGE_CLASS_HEADER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ListPartsOutput}.
+ */
+public class TestListPartsOutput {
+
+  private static final String CONTENT = "0123456789";
+
+  private final String bucketName = OzoneConsts.BUCKET;
+
+  private ObjectEndpoint rest;
+
+  @Before
+  public void setup() throws Exception {
+    OzoneClient client = new OzoneClientStub();
+    client.getObjectStore().createS3Bucket(bucketName);
+
+    HttpHeaders headers = Mockito.mock(HttpHeaders.class);
+    when(headers.getHeaderString(STORAGE_CLASS_HEADER)).thenReturn(
+        "STANDARD");
+
+    rest = new ObjectEndpoint();
+    rest.setHeaders(headers);
+    rest.setClient(client);
+    rest.setOzoneConfiguration(new OzoneConfiguration());
+  }
+
+  @Test
+  public void testSameDocumentAsJaxb() throws Exception {
+    Response response = rest.initializeMultipartUpload(bucketName, "key1");
+    String uploadID = ((MultipartUploadInitiateResponse)
+        response.getEntity()).getUploadID();
+    for (int partNumber = 1; partNumber <= 3; partNumber++) {
+      rest.put(bucketName, "key1", CONTENT.length(), partNumber, uploadID,
+          new ByteArrayInputStream(CONTENT.getBytes(UTF_8)));
+    }
+
+    response = rest.get(bucketName, "key1", uploadID, 2, "0", null);
+    assertEquals(200, response.getStatus());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ((ListPartsOutput) response.getEntity()).write(out);
+
+    // The streamed document can be read back as ListPartsResponse.
+    ListPartsResponse listPartsResponse = (ListPartsResponse)
+        JAXBContext.newInstance(ListPartsResponse.class).createUnmarshaller()
+            .unmarshal(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(bucketName, listPartsResponse.getBucket());
+    assertEquals("key1", listPartsResponse.getKey());
+    assertEquals(uploadID, listPartsResponse.getUploadID());
+    assertEquals("STANDARD", listPartsResponse.getStorageClass());
+    assertEquals(2, listPartsResponse.getMaxParts());
+    assertEquals(2, listPartsResponse.getPartList().size());
+    assertEquals(1, listPartsResponse.getPartList().get(0).getPartNumber());
+    assertEquals(CONTENT.length(),
+        listPartsResponse.getPartList().get(0).getSize());
+    assertEquals(2, listPartsResponse.getNextPartNumberMarker());
+    assertTrue(listPartsResponse.getTruncated());
+
+    response = rest.get(bucketName, "key1", uploadID, 2, "2", null);
+    out.reset();
+    ((ListPartsOutput) response.getEntity()).write(out);
+    listPartsResponse = (ListPartsResponse)
+        JAXBContext.newInstance(ListPartsResponse.class).createUnmarshaller()
+            .unmarshal(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(1, listPartsResponse.getPartList().size());
+    assertEquals(3, listPartsResponse.getPartList().get(0).getPartNumber());
+    assertFalse(listPartsResponse.getTruncated());
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.junit.Test;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
+import static org.apache.hadoop.test.MetricsAsserts.mockMetricsRecordBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LogHistogram}.
+ */
+public class TestLogHistogram {
+
+  @Test
+  public void testBuckets() {
+    for (long value : new long[] {0, 1, 3, 4, 7, 8, 1000, 123456789,
+        Long.MAX_VALUE}) {
+      int bucket = LogHistogram.bucket(value);
+      assertTrue(bucket >= 0 && bucket < LogHistogram.BUCKETS);
+      assertTrue(LogHistogram.lowerBound(bucket) <= value);
+      assertTrue(value <= LogHistogram.upperBound(bucket));
+    }
+    assertEquals(LogHistogram.BUCKETS - 1,
+        LogHistogram.bucket(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testPercentiles() {
+    LogHistogram histogram = new LogHistogram("Test", "test values");
+    assertEquals(0, histogram.getPercentile(50));
+    for (long i = 1; i <= 1000; i++) {
+      histogram.add(i);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500500, histogram.getSum());
+    assertEquals(1000, histogram.getMax());
+    assertEquals(1000, histogram.getPercentile(100));
+    // Exact to the width of a bucket, a quarter of the power of 2.
+    long p50 = histogram.getPercentile(50);
+    assertTrue(p50 >= 500 && p50 < 500 * 1.25);
+    long p99 = histogram.getPercentile(99);
+    assertTrue(p99 >= 990 && p99 <= 1000);
+  }
+
+  @Test
+  public void testIntervalSnapshot() {
+    LogHistogram histogram = new LogHistogram("Test", "test values");
+    for (long i = 1; i <= 1000; i++) {
+      histogram.add(i);
+    }
+    MetricsRecordBuilder rb = mockMetricsRecordBuilder();
+    histogram.snapshot(rb);
+    assertGauge("TestCount", 1000L, rb);
+    assertGauge("TestMean", 500L, rb);
+    assertGauge("TestMax", 1000L, rb);
+
+    // A slow interval after a fast history.
+    for (int i = 0; i < 10; i++) {
+      histogram.add(100_000);
+    }
+    rb = mockMetricsRecordBuilder();
+    histogram.snapshot(rb);
+    assertGauge("TestCount", 1010L, rb);
+    assertGauge("TestMean", 100_000L, rb);
+    assertGauge("TestP50", 100_000L, rb);
+    assertGauge("TestP99", 100_000L, rb);
+    assertGauge("TestMax", 100_000L, rb);
+    // The getters are cumulative.
+    long p50 = histogram.getPercentile(50);
+    assertTrue(p50 >= 500 && p50 < 1000);
+
+    // No value in the interval.
+    rb = mockMetricsRecordBuilder();
+    histogram.snapshot(rb);
+    assertGauge("TestCount", 1010L, rb);
+    assertGauge("TestP99", 0L, rb);
+    assertGauge("TestMax", 0L, rb);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+import static org.apache.hadoop.ozone.s3.MultipartUploadLookupCache.OZONE_S3G_MULTIPART_LOOKUP_CACHE_EXPIRY;
+import static org.apache.hadoop.ozone.s3.MultipartUploadLookupCache.OZONE_S3G_MULTIPART_LOOKUP_CACHE_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link MultipartUploadLookupCache}.
+ */
+public class TestMultipartUploadLookupCache {
+
+  @After
+  public void cleanup() {
+    MultipartUploadLookupCache.reset();
+  }
+
+  @Test
+  public void testLookups() {
+    MultipartUploadLookupCache lookups =
+        MultipartUploadLookupCache.create(new OzoneConfiguration());
+    assertNull(lookups.exists("upload1"));
+
+    lookups.onFound("upload1");
+    lookups.onMissing("upload2");
+    assertEquals(Boolean.TRUE, lookups.exists("upload1"));
+    assertEquals(Boolean.FALSE, lookups.exists("upload2"));
+
+    // completed through this gateway
+    lookups.onMissing("upload1");
+    assertEquals(Boolean.FALSE, lookups.exists("upload1"));
+  }
+
+  @Test
+  public void testBounded() {
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(OZONE_S3G_MULTIPART_LOOKUP_CACHE_SIZE, 1);
+    conf.set(OZONE_S3G_MULTIPART_LOOKUP_CACHE_EXPIRY, "10m");
+    AtomicLong time = new AtomicLong();
+    MultipartUploadLookupCache lookups =
+        MultipartUploadLookupCache.create(conf, new Ticker() {
+          @Override
+          public long read() {
+            return time.get();
+          }
+        });
+
+    lookups.onFound("upload1");
+    lookups.onMissing("upload2");
+    assertNull(lookups.exists("upload1"));
+    assertEquals(Boolean.FALSE, lookups.exists("upload2"));
+
+    time.addAndGet(TimeUnit.MINUTES.toNanos(11));
+    assertNull(lookups.exists("upload2"));
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.hadoop.ozone.s3.metrics.MultipartUploadTracker.OZONE_S3G_MULTIPART_TRACKER_EXPIRY;
+import static org.apache.hadoop.ozone.s3.metrics.MultipartUploadTracker.OZONE_S3G_MULTIPART_TRACKER_IDLE_THRESHOLD;
+import static org.apache.hadoop.ozone.s3.metrics.MultipartUploadTracker.OZONE_S3G_MULTIPART_TRACKER_MAX_UPLOADS;
+import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MultipartUploadTracker}.
+ */
+public class TestMultipartUploadTracker {
+
+  private final AtomicLong time = new AtomicLong(1000);
+
+  private MultipartUploadTracker tracker;
+
+  @Before
+  public void setup() {
+    MultipartUploadTracker.reset();
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(OZONE_S3G_MULTIPART_TRACKER_MAX_UPLOADS, 2);
+    conf.set(OZONE_S3G_MULTIPART_TRACKER_IDLE_THRESHOLD, "1h");
+    tracker = MultipartUploadTracker.create(conf, time::get);
+  }
+
+  @After
+  public void cleanup() {
+    MultipartUploadTracker.reset();
+  }
+
+  @Test
+  public void testLifecycle() {
+    tracker.onInitiate("upload1", "b/key1");
+    tracker.onPart("upload1", "b/key1", 1, 10);
+    tracker.onPart("upload1", "b/key1", 2, 20);
+    // part of an upload initiated before the gateway was started
+    tracker.onPart("upload2", "b/key2", 1, 5);
+    // over the limit
+    tracker.onInitiate("upload3", "b/key3");
+    assertEquals(2, tracker.getOpenUploads());
+
+    MetricsRecordBuilder rb = getMetrics(S3GatewayMetrics.create());
+    assertGauge("MultipartUploadsOpen", 2, rb);
+    assertGauge("MultipartUploadsBytesPending", 35L, rb);
+    assertGauge("MultipartUploadsPartsMax", 2, rb);
+    assertGauge("MultipartUploadsPartsAvg", 1.5, rb);
+    assertGauge("MultipartUploadsAgeUnder1h", 2L, rb);
+    assertGauge("MultipartUploadsIdle", 0, rb);
+    assertCounter("MultipartUploadsUntracked", 1L, rb);
+
+    tracker.onFinish("upload1");
+    tracker.onFinish("upload2");
+    assertEquals(0, tracker.getOpenUploads());
+  }
+
+  @Test
+  public void testIdleUploads() {
+    tracker.onInitiate("upload1", "b/key1");
+    time.addAndGet(TimeUnit.MINUTES.toMillis(90));
+    tracker.onInitiate("upload2", "b/key2");
+
+    assertEquals(1, tracker.getIdleUploads().size());
+    assertTrue(tracker.getIdleUploads().get(0).contains("upload1"));
+    assertGauge("MultipartUploadsIdle", 1,
+        getMetrics(S3GatewayMetrics.create()));
+
+    // new activity clears the idle state
+    tracker.onPart("upload1", "b/key1", 1, 1);
+    assertTrue(tracker.getIdleUploads().isEmpty());
+  }
+
+  @Test
+  public void testPartUploadedAgain() {
+    tracker.onInitiate("upload1", "b/key1");
+    tracker.onPart("upload1", "b/key1", 1, 10);
+    tracker.onPart("upload1", "b/key1", 2, 20);
+    // a retried part replaces the previous one
+    tracker.onPart("upload1", "b/key1", 2, 25);
+
+    MetricsRecordBuilder rb = getMetrics(S3GatewayMetrics.create());
+    assertGauge("MultipartUploadsBytesPending", 35L, rb);
+    assertGauge("MultipartUploadsPartsMax", 2, rb);
+  }
+
+  @Test
+  public void testExpiredUploads() {
+    MultipartUploadTracker.reset();
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(OZONE_S3G_MULTIPART_TRACKER_MAX_UPLOADS, 1);
+    conf.set(OZONE_S3G_MULTIPART_TRACKER_EXPIRY, "1d");
+    tracker = MultipartUploadTracker.create(conf, time::get);
+
+    tracker.onInitiate("upload1", "b/key1");
+    time.addAndGet(TimeUnit.DAYS.toMillis(2));
+    // the abandoned upload makes room for the new one
+    tracker.onInitiate("upload2", "b/key2");
+
+    assertFalse(tracker.isOpen("upload1"));
+    assertTrue(tracker.isOpen("upload2"));
+    MetricsRecordBuilder rb = getMetrics(S3GatewayMetrics.create());
+    assertCounter("MultipartUploadsExpired", 1L, rb);
+    assertCounter("MultipartUploadsUntracked", 0L, rb);
+  }
+}
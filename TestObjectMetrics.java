@@ -19,6 +19,7 @@
  */
 package org.apache.hadoop.ozone.s3.metrics;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.hadoop.hdds.client.ReplicationFactor;
 import org.apache.hadoop.hdds.client.ReplicationType;
@@ -28,22 +29,35 @@ import org.apache.hadoop.ozone.client.OzoneBucket;
 import org.apache.hadoop.ozone.client.OzoneClient;
 import org.apache.hadoop.ozone.client.OzoneClientStub;
 import org.apache.hadoop.ozone.client.io.OzoneOutputStream;
+import org.apache.hadoop.ozone.s3.S3AdmissionController;
 import org.apache.hadoop.ozone.s3.endpoint.*;
 import org.apache.hadoop.ozone.s3.exception.OS3Exception;
 import org.apache.hadoop.ozone.s3.exception.S3ErrorTable;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+import org.apache.hadoop.ozone.s3.util.S3RequestPhase;
+import org.apache.hadoop.ozone.s3.util.S3StorageType;
+import org.glassfish.jersey.server.CloseableService;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.apache.hadoop.ozone.s3.util.S3Consts.COPY_SOURCE_HEADER;
+import static org.apache.hadoop.ozone.s3.util.S3Consts.RANGE_HEADER;
 import static org.apache.hadoop.ozone.s3.util.S3Consts.STORAGE_CLASS_HEADER;
 import static org.apache.hadoop.ozone.s3.util.S3Utils.urlEncode;
 import static org.junit.Assert.*;
@@ -179,6 +193,122 @@ public class TestS3GatewayMetrics {
     assertEquals(1L, curMetric - oriMetric);
   }
 
+  @Test
+  public void testCreateKeyRejectedBeforeBody() throws Exception {
+    long oriRejected = metrics.getPutRejectedBeforeBody();
+    long oriSaved = metrics.getPutRejectedBodyBytesSaved();
+    when(headers.getHeaderString("Expect")).thenReturn("100-continue");
+    keyEndpoint.setHeaders(headers);
+    InputStream body = Mockito.mock(InputStream.class);
+
+    // Bucket does not exist, the body is not read
+    try {
+      keyEndpoint.put("unknownBucket", "key1", CONTENT.length(), 1, null,
+          body);
+      fail();
+    } catch (OS3Exception ex) {
+      assertEquals(S3ErrorTable.NO_SUCH_BUCKET.getCode(), ex.getCode());
+    }
+    // Upload does not exist, the part is not read
+    try {
+      keyEndpoint.put(bucketName, "key1", CONTENT.length(), 1, "randomId",
+          body);
+      fail();
+    } catch (OS3Exception ex) {
+      assertEquals(S3ErrorTable.NO_SUCH_UPLOAD.getCode(), ex.getCode());
+    }
+
+    Mockito.verifyZeroInteractions(body);
+    assertEquals(2L, metrics.getPutRejectedBeforeBody() - oriRejected);
+    assertEquals(2L * CONTENT.length(),
+        metrics.getPutRejectedBodyBytesSaved() - oriSaved);
+  }
+
+  @Test
+  public void testCreateKeyStorageClass() throws Exception {
+    long oriRequests = metrics.getStorageClassRequests(S3StorageType.STANDARD);
+    long oriBytes = metrics.getStorageClassBytes(S3StorageType.STANDARD);
+    keyEndpoint.setHeaders(headers);
+
+    keyEndpoint.put(bucketName, "key1", CONTENT.length(), 1, null,
+        new ByteArrayInputStream(CONTENT.getBytes(UTF_8)));
+
+    assertEquals(1L,
+        metrics.getStorageClassRequests(S3StorageType.STANDARD) - oriRequests);
+    assertEquals(CONTENT.length(),
+        metrics.getStorageClassBytes(S3StorageType.STANDARD) - oriBytes);
+
+    when(headers.getHeaderString(STORAGE_CLASS_HEADER)).thenReturn("unknown");
+    try {
+      keyEndpoint.put(bucketName, "key1", CONTENT.length(), 1, null,
+          new ByteArrayInputStream(CONTENT.getBytes(UTF_8)));
+      fail();
+    } catch (OS3Exception ex) {
+      assertEquals(S3ErrorTable.INVALID_ARGUMENT.getCode(), ex.getCode());
+    }
+  }
+
+  @Test
+  public void testCreateKeyETag() throws Exception {
+    long oriMetric = metrics.getETagDigestBytes();
+    ByteArrayInputStream body =
+        new ByteArrayInputStream(CONTENT.getBytes(UTF_8));
+    when(headers.getHeaderString("Content-MD5")).thenReturn(
+        Base64.getEncoder().encodeToString(DigestUtils.md5(CONTENT)));
+    keyEndpoint.setHeaders(headers);
+
+    Response response = keyEndpoint.put(bucketName, "key1", CONTENT
+        .length(), 1, null, body);
+
+    String eTag = "\"" + DigestUtils.md5Hex(CONTENT) + "\"";
+    assertEquals(eTag, response.getHeaderString("ETag"));
+    long curMetric = metrics.getETagDigestBytes();
+    assertEquals(CONTENT.length(), curMetric - oriMetric);
+
+    // The ETag given in advance is stored with the key.
+    assertEquals(eTag,
+        keyEndpoint.head(bucketName, "key1").getHeaderString("ETag"));
+    assertEquals(eTag, keyEndpoint.get(bucketName, "key1", null, 0, null,
+        null).getHeaderString("ETag"));
+  }
+
+  @Test
+  public void testCreateKeyETagWithoutContentMD5() throws Exception {
+    keyEndpoint.setHeaders(headers);
+    Response response = keyEndpoint.put(bucketName, "key1", CONTENT
+        .length(), 1, null, new ByteArrayInputStream(CONTENT.getBytes(UTF_8)));
+    assertEquals("\"" + DigestUtils.md5Hex(CONTENT) + "\"",
+        response.getHeaderString("ETag"));
+
+    // Not stored with the key, HEAD and GET still return an ETag.
+    assertNotNull(
+        keyEndpoint.head(bucketName, "key1").getHeaderString("ETag"));
+    assertNotNull(keyEndpoint.get(bucketName, "key1", null, 0, null,
+        null).getHeaderString("ETag"));
+  }
+
+  @Test
+  public void testBadDigestFailure() throws Exception {
+    long oriMetric = metrics.getBadDigestFailure();
+    long oriFailure = metrics.getCreateKeyFailure();
+    when(headers.getHeaderString("Content-MD5")).thenReturn(
+        Base64.getEncoder().encodeToString(DigestUtils.md5("other")));
+    keyEndpoint.setHeaders(headers);
+    ByteArrayInputStream body =
+        new ByteArrayInputStream(CONTENT.getBytes(UTF_8));
+    try {
+      keyEndpoint.put(bucketName, "key1", CONTENT
+          .length(), 1, null, body);
+      fail();
+    } catch (OS3Exception ex) {
+      assertEquals("BadDigest", ex.getCode());
+    }
+    assertEquals(1L, metrics.getBadDigestFailure() - oriMetric);
+    assertEquals(1L, metrics.getCreateKeyFailure() - oriFailure);
+    // The key is not committed.
+    assertEquals(404, keyEndpoint.head(bucketName, "key1").getStatus());
+  }
+
   @Test
   public void testInitMultiPartUploadSuccess() throws Exception {
     keyEndpoint.setHeaders(headers);
@@ -321,6 +451,25 @@ public class TestS3GatewayMetrics {
     assertEquals(1L, curMetric - oriMetric);
   }
 
+  @Test
+  public void testCompleteMultiPartUploadPartOrder() throws Exception {
+    keyEndpoint.setHeaders(headers);
+    String uploadID = initiateMultipartUpload(bucketName, "key1");
+
+    long oriMetric = metrics.getCompleteMultiPartUploadFailure();
+    CompleteMultipartUploadParts parts = new CompleteMultipartUploadParts();
+    parts.add(2, "etag2");
+    parts.add(1, "etag1");
+    try {
+      keyEndpoint.completeMultipartUpload(bucketName, "key1", uploadID,
+          parts);
+      fail();
+    } catch (OS3Exception ex) {
+      assertEquals(S3ErrorTable.INVALID_PART_ORDER.getCode(), ex.getCode());
+    }
+    assertEquals(1L, metrics.getCompleteMultiPartUploadFailure() - oriMetric);
+  }
+
   @Test
   public void testCompleteMultiPartUploadFailure() throws Exception {
     // Test for Success of CompleteMultiPartUploadFailure Metric
@@ -347,12 +496,35 @@ public class TestS3GatewayMetrics {
 
     // Test for Success of CreateMultipartKeySuccess Metric
     long oriMetric = metrics.getCreateMultipartKeySuccess();
+    long oriPartBytes = metrics.getUploadPartBytes();
+    long oriPartCopyBytes = metrics.getUploadPartCopyBytes();
     ByteArrayInputStream body =
         new ByteArrayInputStream(CONTENT.getBytes(UTF_8));
     keyEndpoint.put(bucketName, "key1", CONTENT.length(),
         1, uploadID, body);
     long curMetric = metrics.getCreateMultipartKeySuccess();
     assertEquals(1L, curMetric - oriMetric);
+    assertEquals(CONTENT.length(),
+        metrics.getUploadPartBytes() - oriPartBytes);
+    assertEquals(0L, metrics.getUploadPartCopyBytes() - oriPartCopyBytes);
+  }
+
+  @Test
+  public void testUploadPartCopyMetrics() throws Exception {
+    keyEndpoint.setHeaders(headers);
+    keyEndpoint.put(bucketName, "source", CONTENT.length(), 1, null,
+        new ByteArrayInputStream(CONTENT.getBytes(UTF_8)));
+    String uploadID = initiateMultipartUpload(bucketName, "key1");
+
+    long oriPartBytes = metrics.getUploadPartBytes();
+    long oriPartCopyBytes = metrics.getUploadPartCopyBytes();
+    when(headers.getHeaderString(COPY_SOURCE_HEADER)).thenReturn(
+        bucketName + "/" + urlEncode("source"));
+    keyEndpoint.put(bucketName, "key1", CONTENT.length(), 1, uploadID,
+        null);
+    assertEquals(CONTENT.length(),
+        metrics.getUploadPartCopyBytes() - oriPartCopyBytes);
+    assertEquals(0L, metrics.getUploadPartBytes() - oriPartBytes);
   }
 
   @Test
@@ -448,6 +620,199 @@ public class TestS3GatewayMetrics {
     assertEquals(1L, curMetric - oriMetric);
   }
 
+  @Test
+  public void testCopyObjectKeepAlive() throws Exception {
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.set(StreamingCopyOutput.OZONE_S3G_COPY_KEEP_ALIVE_THRESHOLD, "1");
+    conf.set(StreamingCopyOutput.OZONE_S3G_COPY_KEEP_ALIVE_INTERVAL, "0s");
+    keyEndpoint.setOzoneConfiguration(conf);
+    keyEndpoint.setHeaders(headers);
+    clientStub.getObjectStore().createS3Bucket("b2");
+    keyEndpoint.put(bucketName, "key1", CONTENT.length(), 1, null,
+        new ByteArrayInputStream(CONTENT.getBytes(UTF_8)));
+
+    long oriKeepAlive = metrics.getCopyObjectKeepAlive();
+    long oriSuccess = metrics.getCopyObjectSuccess();
+    when(headers.getHeaderString(COPY_SOURCE_HEADER)).thenReturn(
+        bucketName + "/" + urlEncode("key1"));
+    Response response = keyEndpoint.put("b2", "key2", CONTENT.length(), 1,
+        null, null);
+    assertEquals(200, response.getStatus());
+    assertNull(response.getHeaderString("Connection"));
+    assertEquals(1L, metrics.getCopyObjectKeepAlive() - oriKeepAlive);
+
+    // The copy runs when the response is written.
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ((StreamingCopyOutput) response.getEntity()).write(out);
+    String body = out.toString(UTF_8.name());
+    assertTrue(body, body.startsWith(" "));
+    assertTrue(body, body.contains(DigestUtils.md5Hex(CONTENT)));
+    assertEquals(1L, metrics.getCopyObjectSuccess() - oriSuccess);
+  }
+
+  @Test
+  public void testCopyObjectFastPath() throws Exception {
+    keyEndpoint.setHeaders(headers);
+    String destBucket = "b2";
+    clientStub.getObjectStore().createS3Bucket(destBucket);
+
+    keyEndpoint.put(bucketName, "key1", CONTENT.length(), 1, null,
+        new ByteArrayInputStream(CONTENT.getBytes(UTF_8)));
+    keyEndpoint.put(bucketName, "empty", 0, 1, null,
+        new ByteArrayInputStream(new byte[0]));
+
+    // Streamed copy of a non empty key
+    long oriStreamed = metrics.getCopyObjectStreamed();
+    long oriStreamedBytes = metrics.getCopyObjectStreamedBytes();
+    long oriFastPath = metrics.getCopyObjectFastPath();
+    when(headers.getHeaderString(COPY_SOURCE_HEADER)).thenReturn(
+        bucketName + "/" + urlEncode("key1"));
+    keyEndpoint.put(destBucket, "key2", CONTENT.length(), 1, null, null);
+    assertEquals(1L, metrics.getCopyObjectStreamed() - oriStreamed);
+    assertEquals(CONTENT.length(),
+        metrics.getCopyObjectStreamedBytes() - oriStreamedBytes);
+    assertEquals(0L, metrics.getCopyObjectFastPath() - oriFastPath);
+
+    // Empty key is copied without reading the source
+    when(headers.getHeaderString(COPY_SOURCE_HEADER)).thenReturn(
+        bucketName + "/" + urlEncode("empty"));
+    Response response = keyEndpoint.put(destBucket, "empty2", 0, 1, null,
+        null);
+    assertEquals(200, response.getStatus());
+    assertEquals(1L, metrics.getCopyObjectFastPath() - oriFastPath);
+    assertEquals(1L, metrics.getCopyObjectStreamed() - oriStreamed);
+    assertNotNull(clientStub.getObjectStore().getS3Bucket(destBucket)
+        .getKey("empty2"));
+  }
+
+  @Test
+  public void testRequestPhases() throws Exception {
+    keyEndpoint.setHeaders(headers);
+    LogHistogram putCommit = metrics.getPhaseNanos(S3Operation.PUT_OBJECT,
+        S3RequestPhase.COMMIT);
+    LogHistogram putKeyLookup = metrics.getPhaseNanos(
+        S3Operation.PUT_OBJECT, S3RequestPhase.KEY_LOOKUP);
+    LogHistogram getRequests =
+        metrics.getRequestNanos(S3Operation.GET_OBJECT);
+    LogHistogram getTransfer = metrics.getPhaseNanos(S3Operation.GET_OBJECT,
+        S3RequestPhase.DATA_TRANSFER);
+    long oriCommit = putCommit.getCount();
+    long oriKeyLookup = putKeyLookup.getCount();
+    long oriGetRequests = getRequests.getCount();
+    long oriGetTransfer = getTransfer.getCount();
+
+    keyEndpoint.put(bucketName, "phases", CONTENT.length(), 1, null,
+        new ByteArrayInputStream(CONTENT.getBytes(UTF_8)));
+    assertEquals(1L, putCommit.getCount() - oriCommit);
+    // A PUT does not look up the key.
+    assertEquals(0L, putKeyLookup.getCount() - oriKeyLookup);
+
+    Response response = keyEndpoint.get(bucketName, "phases", null, 0, null,
+        null);
+    // The GET finishes when its body is written.
+    assertEquals(0L, getRequests.getCount() - oriGetRequests);
+    ((StreamingOutput) response.getEntity())
+        .write(new ByteArrayOutputStream());
+    assertEquals(1L, getRequests.getCount() - oriGetRequests);
+    assertEquals(1L, getTransfer.getCount() - oriGetTransfer);
+  }
+
+  @Test
+  public void testGetHoldsPermitUntilBodyWritten() throws Exception {
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(
+        S3AdmissionController.OZONE_S3G_ADMISSION_DATA_MAX_CONCURRENT, 1);
+    conf.setInt(S3AdmissionController.OZONE_S3G_ADMISSION_DATA_MAX_QUEUE, 0);
+    keyEndpoint.setHeaders(headers);
+    keyEndpoint.put(bucketName, "permit", CONTENT.length(), 1, null,
+        new ByteArrayInputStream(CONTENT.getBytes(UTF_8)));
+    S3AdmissionController.reset();
+    keyEndpoint.setOzoneConfiguration(conf);
+    try {
+      Response response = keyEndpoint.get(bucketName, "permit", null, 0,
+          null, null);
+      // The body is not written yet, the data budget is still in use.
+      LogHistogram admission = metrics.getPhaseNanos(
+          S3Operation.GET_OBJECT, S3RequestPhase.ADMISSION);
+      long oriAdmission = admission.getCount();
+      try {
+        keyEndpoint.get(bucketName, "permit", null, 0, null, null);
+        fail("GET admitted while the body of the first one is pending");
+      } catch (OS3Exception ex) {
+        assertEquals(S3AdmissionController.SLOW_DOWN.getCode(),
+            ex.getCode());
+      }
+      // The admission of the rejected request is recorded.
+      assertEquals(1L, admission.getCount() - oriAdmission);
+      ((StreamingOutput) response.getEntity())
+          .write(new ByteArrayOutputStream());
+      response = keyEndpoint.get(bucketName, "permit", null, 0, null, null);
+      assertEquals(200, response.getStatus());
+    } finally {
+      S3AdmissionController.reset();
+    }
+  }
+
+  @Test
+  public void testPermitReleasedWhenBodyNotWritten() throws Exception {
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(
+        S3AdmissionController.OZONE_S3G_ADMISSION_DATA_MAX_CONCURRENT, 1);
+    conf.setInt(S3AdmissionController.OZONE_S3G_ADMISSION_DATA_MAX_QUEUE, 0);
+    keyEndpoint.setHeaders(headers);
+    keyEndpoint.put(bucketName, "permit", CONTENT.length(), 1, null,
+        new ByteArrayInputStream(CONTENT.getBytes(UTF_8)));
+    S3AdmissionController.reset();
+    keyEndpoint.setOzoneConfiguration(conf);
+    CloseableService closeableService =
+        Mockito.mock(CloseableService.class);
+    keyEndpoint.setCloseableService(closeableService);
+    try {
+      LogHistogram getRequests =
+          metrics.getRequestNanos(S3Operation.GET_OBJECT);
+      long oriGetRequests = getRequests.getCount();
+      keyEndpoint.get(bucketName, "permit", null, 0, null, null);
+      ArgumentCaptor<Closeable> closeable =
+          ArgumentCaptor.forClass(Closeable.class);
+      Mockito.verify(closeableService).add(closeable.capture());
+
+      // The body is never written, the container closes the request.
+      closeable.getValue().close();
+      assertEquals(1L, getRequests.getCount() - oriGetRequests);
+      Response response =
+          keyEndpoint.get(bucketName, "permit", null, 0, null, null);
+      assertEquals(200, response.getStatus());
+    } finally {
+      S3AdmissionController.reset();
+    }
+  }
+
+  @Test
+  public void testRangeGetSlowLogBytes() throws Exception {
+    keyEndpoint.setHeaders(headers);
+    keyEndpoint.put(bucketName, "range", CONTENT.length(), 1, null,
+        new ByteArrayInputStream(CONTENT.getBytes(UTF_8)));
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.set(S3SlowRequestLog.OZONE_S3G_SLOW_REQUEST_THRESHOLD, "1ns");
+    conf.set(S3SlowRequestLog.OZONE_S3G_SLOW_REQUEST_FLUSH_INTERVAL, "0s");
+    S3SlowRequestLog.reset();
+    S3SlowRequestLog log = S3SlowRequestLog.create(conf);
+    try {
+      when(headers.getHeaderString(RANGE_HEADER)).thenReturn("bytes=2-5");
+      Response response = keyEndpoint.get(bucketName, "range", null, 0,
+          null, null);
+      ((StreamingOutput) response.getEntity())
+          .write(new ByteArrayOutputStream());
+
+      // The bytes served, not the size of the key.
+      List<S3SlowRequestLog.Entry> entries = log.drain();
+      String entry = entries.get(entries.size() - 1).toString();
+      assertTrue(entry, entry.contains("bytes=4 "));
+    } finally {
+      S3SlowRequestLog.reset();
+    }
+  }
+
     private OzoneClient createClientWithKeys(String... keys) throws IOException {
     OzoneBucket bkt = clientStub.getObjectStore().getS3Bucket(bucketName);
     for (String key : keys) {
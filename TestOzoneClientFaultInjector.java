@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.client;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdds.client.ReplicationFactor;
+import org.apache.hadoop.hdds.client.ReplicationType;
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.client.OzoneClientFaultInjector.Latency;
+import org.apache.hadoop.ozone.client.io.OzoneInputStream;
+import org.apache.hadoop.ozone.client.io.OzoneOutputStream;
+import org.apache.hadoop.ozone.om.exceptions.OMException;
+import org.apache.hadoop.ozone.om.exceptions.OMException.ResultCodes;
+import org.apache.hadoop.ozone.s3.endpoint.MultipartUploadInitiateResponse;
+import org.apache.hadoop.ozone.s3.endpoint.ObjectEndpoint;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.hadoop.ozone.s3.util.S3Consts.COPY_SOURCE_HEADER;
+import static org.apache.hadoop.ozone.s3.util.S3Consts.RANGE_HEADER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link OzoneClientFaultInjector}.
+ */
+public class TestOzoneClientFaultInjector {
+
+  private static final String BUCKET = "bucket";
+
+  private OzoneClientFaultInjector injector;
+
+  private OzoneClient client;
+
+  private OzoneBucket bucket;
+
+  @Before
+  public void setup() throws IOException {
+    injector = new OzoneClientFaultInjector();
+    client = injector.wrap(new OzoneClientStub());
+    client.getObjectStore().createS3Bucket(BUCKET);
+    bucket = client.getObjectStore().getS3Bucket(BUCKET);
+    write("key", new byte[1024 * 1024]);
+  }
+
+  @Test
+  public void testFailure() throws IOException {
+    injector.failure("getKey", ResultCodes.TIMEOUT, 1);
+    try {
+      bucket.getKey("key");
+      fail("getKey should fail");
+    } catch (OMException ex) {
+      assertEquals(ResultCodes.TIMEOUT, ex.getResult());
+    }
+    assertEquals(1, injector.getInjectedFailures());
+
+    injector.clear();
+    assertEquals(1024 * 1024, bucket.getKey("key").getDataSize());
+  }
+
+  @Test
+  public void testLatency() throws IOException {
+    injector.latency("getKey", Latency.fixed(50, TimeUnit.MILLISECONDS));
+    long start = System.nanoTime();
+    bucket.getKey("key");
+    assertTrue(System.nanoTime() - start
+        >= TimeUnit.MILLISECONDS.toNanos(50));
+  }
+
+  @Test
+  public void testReadThroughput() throws IOException {
+    injector.readThroughput(4 * 1024 * 1024);
+    long start = System.nanoTime();
+    try (OzoneInputStream in = bucket.readKey("key")) {
+      assertEquals(1024 * 1024, IOUtils.toByteArray(in).length);
+    }
+    // 1 MB at 4 MB/s.
+    assertTrue(System.nanoTime() - start
+        >= TimeUnit.MILLISECONDS.toNanos(200));
+  }
+
+  @Test
+  public void testWriteThroughput() throws IOException {
+    injector.writeThroughput(4 * 1024 * 1024);
+    long start = System.nanoTime();
+    write("written", new byte[1024 * 1024]);
+    assertTrue(System.nanoTime() - start
+        >= TimeUnit.MILLISECONDS.toNanos(200));
+    assertEquals(1024 * 1024, bucket.getKey("written").getDataSize());
+  }
+
+  @Test
+  public void testThrottledStreamsKeepMethods() throws IOException {
+    injector.readThroughput(64 * 1024 * 1024);
+    injector.writeThroughput(64 * 1024 * 1024);
+    byte[] content = content(1024);
+    write("content", content);
+
+    try (OzoneInputStream in = bucket.readKey("content")) {
+      in.seek(1000);
+      assertEquals(content[1000], (byte) in.read());
+    }
+
+    String uploadID = bucket.initiateMultipartUpload("mpu",
+        ReplicationType.RATIS, ReplicationFactor.ONE).getUploadID();
+    OzoneOutputStream out = bucket.createMultipartKey("mpu", content.length,
+        1, uploadID);
+    out.write(content);
+    out.close();
+    assertNotNull(out.getCommitUploadPartInfo());
+  }
+
+  @Test
+  public void testUploadPartThroughEndpoint() throws Exception {
+    injector.writeThroughput(64 * 1024 * 1024);
+    ObjectEndpoint endpoint = endpoint(mock(HttpHeaders.class));
+    Response response = endpoint.initializeMultipartUpload(BUCKET, "mpu");
+    String uploadID = ((MultipartUploadInitiateResponse)
+        response.getEntity()).getUploadID();
+
+    byte[] part = content(1024);
+    response = endpoint.put(BUCKET, "mpu", part.length, 1, uploadID,
+        new ByteArrayInputStream(part));
+
+    assertEquals(200, response.getStatus());
+    assertNotNull(response.getHeaderString("ETag"));
+  }
+
+  @Test
+  public void testRangeGetThroughEndpoint() throws Exception {
+    injector.readThroughput(64 * 1024 * 1024);
+    byte[] content = content(1024);
+    write("content", content);
+    HttpHeaders headers = mock(HttpHeaders.class);
+    when(headers.getHeaderString(RANGE_HEADER)).thenReturn("bytes=100-199");
+    ObjectEndpoint endpoint = endpoint(headers);
+
+    Response response = endpoint.get(BUCKET, "content", null, 0, null, null);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ((StreamingOutput) response.getEntity()).write(out);
+
+    assertArrayEquals(Arrays.copyOfRange(content, 100, 200),
+        out.toByteArray());
+  }
+
+  @Test
+  public void testFailedCopyIsNotCommitted() throws Exception {
+    write("content", content(1024));
+    HttpHeaders headers = mock(HttpHeaders.class);
+    when(headers.getHeaderString(COPY_SOURCE_HEADER))
+        .thenReturn(BUCKET + "/content");
+    ObjectEndpoint endpoint = endpoint(headers);
+    // The destination key is opened before the source is read.
+    injector.failure("readKey", ResultCodes.TIMEOUT, 1);
+
+    try {
+      endpoint.put(BUCKET, "copy", 0, 1, null, null);
+      fail("copy should fail");
+    } catch (OMException ex) {
+      assertEquals(ResultCodes.TIMEOUT, ex.getResult());
+    }
+
+    injector.clear();
+    endpoint.setHeaders(mock(HttpHeaders.class));
+    assertEquals(404, endpoint.head(BUCKET, "copy").getStatus());
+  }
+
+  private ObjectEndpoint endpoint(HttpHeaders headers) {
+    ObjectEndpoint endpoint = new ObjectEndpoint();
+    endpoint.setClient(client);
+    endpoint.setOzoneConfiguration(new OzoneConfiguration());
+    endpoint.setHeaders(headers);
+    return endpoint;
+  }
+
+  private static byte[] content(int length) {
+    byte[] content = new byte[length];
+    for (int i = 0; i < length; i++) {
+      content[i] = (byte) i;
+    }
+    return content;
+  }
+
+  private void write(String key, byte[] content) throws IOException {
+    try (OzoneOutputStream out = bucket.createKey(key, content.length)) {
+      out.write(content);
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.s3.metrics.S3GatewayMetrics;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import static org.apache.hadoop.ozone.s3.ParallelKeyReader.OZONE_S3G_COPY_PARALLEL_CHUNK_SIZE;
+import static org.apache.hadoop.ozone.s3.ParallelKeyReader.OZONE_S3G_COPY_PARALLEL_MAX_BUFFER;
+import static org.apache.hadoop.ozone.s3.ParallelKeyReader.OZONE_S3G_COPY_PARALLEL_READ_AHEAD;
+import static org.apache.hadoop.ozone.s3.ParallelKeyReader.OZONE_S3G_COPY_PARALLEL_THREADS;
+import static org.apache.hadoop.ozone.s3.ParallelKeyReader.OZONE_S3G_COPY_PARALLEL_THRESHOLD;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link ParallelKeyReader}.
+ */
+public class TestParallelKeyReader {
+
+  private static final int CHUNK_SIZE = 1024;
+
+  private final byte[] data = new byte[10 * CHUNK_SIZE + 17];
+
+  private S3GatewayMetrics metrics;
+
+  private ParallelKeyReader reader;
+
+  @Before
+  public void setup() {
+    new Random(1).nextBytes(data);
+    ParallelKeyReader.reset();
+    metrics = S3GatewayMetrics.create();
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(OZONE_S3G_COPY_PARALLEL_THREADS, 4);
+    conf.set(OZONE_S3G_COPY_PARALLEL_THRESHOLD, "4KB");
+    conf.set(OZONE_S3G_COPY_PARALLEL_CHUNK_SIZE, "1KB");
+    conf.setInt(OZONE_S3G_COPY_PARALLEL_READ_AHEAD, 3);
+    reader = ParallelKeyReader.create(conf);
+  }
+
+  @After
+  public void cleanup() {
+    ParallelKeyReader.reset();
+  }
+
+  @Test
+  public void testAccept() {
+    assertFalse(reader.accept(4 * CHUNK_SIZE - 1));
+    assertTrue(reader.accept(4 * CHUNK_SIZE));
+
+    ParallelKeyReader.reset();
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(OZONE_S3G_COPY_PARALLEL_THREADS, 0);
+    assertFalse(ParallelKeyReader.create(conf).accept(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testReadInOrder() throws Exception {
+    DataOpener opener = new DataOpener(Long.MAX_VALUE);
+    long oriParallel = metrics.getCopyObjectParallel();
+    long oriPending = metrics.getCopyObjectPendingBytes();
+    int oriBuffers = reader.getAvailableBuffers();
+
+    byte[] read;
+    try (InputStream in = reader.open(opener, data.length)) {
+      // mix single byte and bulk reads
+      assertEquals(data[0] & 0xff, in.read());
+      byte[] rest = IOUtils.toByteArray(in);
+      read = new byte[data.length];
+      read[0] = data[0];
+      System.arraycopy(rest, 0, read, 1, rest.length);
+      assertEquals(data.length - 1, rest.length);
+      assertEquals(-1, in.read());
+    }
+
+    assertArrayEquals(data, read);
+    // The 11 chunks are read from at most one stream per chunk in flight.
+    assertTrue(opener.opened.get() <= 3);
+    assertEquals(1L, metrics.getCopyObjectParallel() - oriParallel);
+    assertEquals(oriPending, metrics.getCopyObjectPendingBytes());
+    assertEquals(oriBuffers, reader.getAvailableBuffers());
+  }
+
+  @Test
+  public void testBufferBudget() throws Exception {
+    ParallelKeyReader.reset();
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(OZONE_S3G_COPY_PARALLEL_THREADS, 4);
+    conf.set(OZONE_S3G_COPY_PARALLEL_THRESHOLD, "4KB");
+    conf.set(OZONE_S3G_COPY_PARALLEL_CHUNK_SIZE, "1KB");
+    conf.setInt(OZONE_S3G_COPY_PARALLEL_READ_AHEAD, 3);
+    conf.set(OZONE_S3G_COPY_PARALLEL_MAX_BUFFER, "2KB");
+    reader = ParallelKeyReader.create(conf);
+
+    try (InputStream first = reader.open(new DataOpener(Long.MAX_VALUE),
+        data.length);
+         InputStream second = reader.open(new DataOpener(Long.MAX_VALUE),
+             data.length)) {
+      // The first copy takes the whole budget, the second one reads when
+      // the first one releases its buffers.
+      assertEquals(0, reader.getAvailableBuffers());
+      assertArrayEquals(data, IOUtils.toByteArray(first));
+      assertArrayEquals(data, IOUtils.toByteArray(second));
+    }
+    assertEquals(2, reader.getAvailableBuffers());
+  }
+
+  @Test
+  public void testReadFailure() throws Exception {
+    long oriPending = metrics.getCopyObjectPendingBytes();
+    int oriBuffers = reader.getAvailableBuffers();
+    try (InputStream in = reader.open(new DataOpener(5 * CHUNK_SIZE),
+        data.length)) {
+      IOUtils.toByteArray(in);
+      fail("Read should fail");
+    } catch (IOException ex) {
+      assertEquals("Injected failure", ex.getMessage());
+    }
+    // pending bytes and buffers of the failed copy are released on close,
+    // the buffers of the running reads when they finish
+    assertEquals(oriPending, metrics.getCopyObjectPendingBytes());
+    GenericTestUtils.waitFor(
+        () -> reader.getAvailableBuffers() == oriBuffers, 10, 10000);
+  }
+
+  @Test
+  public void testRunningReadReleasesBufferOnClose() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch resume = new CountDownLatch(1);
+    int oriBuffers = reader.getAvailableBuffers();
+    DataOpener opener = new DataOpener(Long.MAX_VALUE) {
+      @Override
+      public void seek(InputStream in, long offset) throws IOException {
+        if (offset == 0) {
+          started.countDown();
+          Uninterruptibles.awaitUninterruptibly(resume);
+        }
+        super.seek(in, offset);
+      }
+    };
+    InputStream in = reader.open(opener, data.length);
+    started.await();
+    in.close();
+
+    // The first chunk is still being read, its buffer is in use.
+    assertTrue(reader.getAvailableBuffers() < oriBuffers);
+    resume.countDown();
+    GenericTestUtils.waitFor(
+        () -> reader.getAvailableBuffers() == oriBuffers, 10, 10000);
+  }
+
+  @Test
+  public void testShortSource() throws Exception {
+    try (InputStream in = reader.open(new DataOpener(Long.MAX_VALUE),
+        data.length + 1)) {
+      IOUtils.toByteArray(in);
+      fail("Read should fail");
+    } catch (IOException ex) {
+      // expected, the source is shorter than its length
+    }
+  }
+
+  /**
+   * Opens streams of the data, the seeks at or after an offset fail.
+   */
+  private class DataOpener implements ParallelKeyReader.KeyOpener {
+
+    private final AtomicInteger opened = new AtomicInteger();
+
+    private final long failAt;
+
+    private DataOpener(long failAt) {
+      this.failAt = failAt;
+    }
+
+    @Override
+    public InputStream open() {
+      opened.incrementAndGet();
+      return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public void seek(InputStream in, long offset) throws IOException {
+      if (offset >= failAt) {
+        throw new IOException("Injected failure");
+      }
+      in.reset();
+      in.skip(offset);
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.s3.endpoint.S3AccessTraceReplay;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link S3AccessTrace} and its replay.
+ */
+public class TestS3AccessTrace {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @After
+  public void cleanup() {
+    S3AccessTrace.reset();
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    assertNull(S3AccessTrace.create(new OzoneConfiguration()));
+  }
+
+  @Test
+  public void testRecordAndRead() throws Exception {
+    File file = new File(folder.getRoot(), "s3g.trace");
+    S3AccessTrace trace = S3AccessTrace.create(conf(file, 16));
+    assertNotNull(trace);
+
+    trace.record(1000L, S3Operation.PUT_OBJECT, "bucket", "key", 200, 1024,
+        -1, 5000);
+    trace.record(1001L, S3Operation.GET_OBJECT, "bucket", "key", 206, 512,
+        256, 3000);
+    S3AccessTrace.reset();
+
+    List<S3AccessTrace.Record> records = new ArrayList<>();
+    S3AccessTrace.read(file.toPath(), records::add);
+    assertEquals(2, records.size());
+
+    S3AccessTrace.Record put = records.get(0);
+    assertEquals(1000L, put.getStartMillis());
+    assertEquals(S3Operation.PUT_OBJECT, put.getOperation());
+    assertEquals(200, put.getStatus());
+    assertEquals("bucket".hashCode(), put.getBucketHash());
+    assertEquals("key".hashCode(), put.getKeyHash());
+    assertEquals(1024, put.getBytes());
+    assertFalse(put.isRange());
+    assertEquals(5000, put.getLatencyNanos());
+
+    S3AccessTrace.Record get = records.get(1);
+    assertEquals(S3Operation.GET_OBJECT, get.getOperation());
+    assertEquals(206, get.getStatus());
+    assertTrue(get.isRange());
+    assertEquals(256, get.getRangeStart());
+  }
+
+  @Test
+  public void testDropWhenFull() throws Exception {
+    File file = new File(folder.getRoot(), "s3g.trace");
+    S3AccessTrace trace = S3AccessTrace.create(conf(file, 4));
+    int total = 100000;
+    for (int i = 0; i < total; i++) {
+      trace.record(i, S3Operation.HEAD_OBJECT, "bucket", "key" + i, 200, 0,
+          -1, 1000);
+    }
+    long dropped = trace.getDropped();
+    S3AccessTrace.reset();
+
+    long[] read = new long[1];
+    S3AccessTrace.read(file.toPath(), record -> read[0]++);
+    assertEquals(total, read[0] + dropped);
+  }
+
+  @Test
+  public void testReplay() throws Exception {
+    File file = new File(folder.getRoot(), "s3g.trace");
+    S3AccessTrace trace = S3AccessTrace.create(conf(file, 1024));
+    for (int i = 0; i < 10; i++) {
+      String key = "key" + i;
+      trace.record(i, S3Operation.PUT_OBJECT, "bucket", key, 200, 1024, -1,
+          1000);
+      trace.record(i, S3Operation.GET_OBJECT, "bucket", key, 200, 1024, -1,
+          1000);
+      trace.record(i, S3Operation.HEAD_OBJECT, "bucket", key, 200, 0, -1,
+          1000);
+      trace.record(i, S3Operation.DELETE_OBJECT, "bucket", key, 204, 0, -1,
+          1000);
+    }
+    trace.record(10, S3Operation.INIT_MULTIPART_UPLOAD, "bucket", "mpu", 200,
+        0, -1, 1000);
+    S3AccessTrace.reset();
+
+    S3AccessTraceReplay.Result result =
+        S3AccessTraceReplay.load(file.toPath(), 0, 4).run();
+    for (S3Operation operation : new S3Operation[] {S3Operation.PUT_OBJECT,
+        S3Operation.GET_OBJECT, S3Operation.HEAD_OBJECT,
+        S3Operation.DELETE_OBJECT}) {
+      assertEquals(10, result.getReplayed(operation));
+      assertEquals(0, result.getStatusMismatches(operation));
+    }
+    assertEquals(1,
+        result.getSkipped(S3Operation.INIT_MULTIPART_UPLOAD));
+  }
+
+  private static OzoneConfiguration conf(File file, int bufferRecords) {
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.set(S3AccessTrace.OZONE_S3G_ACCESS_TRACE_FILE,
+        file.getAbsolutePath());
+    conf.setInt(S3AccessTrace.OZONE_S3G_ACCESS_TRACE_BUFFER_RECORDS,
+        bufferRecords);
+    return conf;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.s3.exception.OS3Exception;
+import org.apache.hadoop.ozone.s3.metrics.S3GatewayMetrics;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.hadoop.ozone.s3.S3AdmissionController.OZONE_S3G_ADMISSION_ADAPTIVE_ENABLED;
+import static org.apache.hadoop.ozone.s3.S3AdmissionController.OZONE_S3G_ADMISSION_ADAPTIVE_INITIAL_LIMIT;
+import static org.apache.hadoop.ozone.s3.S3AdmissionController.OZONE_S3G_ADMISSION_ADAPTIVE_MAX_LIMIT;
+import static org.apache.hadoop.ozone.s3.S3AdmissionController.OZONE_S3G_ADMISSION_ADAPTIVE_MIN_LIMIT;
+import static org.apache.hadoop.ozone.s3.S3AdmissionController.OZONE_S3G_ADMISSION_DATA_MAX_CONCURRENT;
+import static org.apache.hadoop.ozone.s3.S3AdmissionController.OZONE_S3G_ADMISSION_DATA_MAX_QUEUE;
+import static org.apache.hadoop.ozone.s3.S3AdmissionController.OZONE_S3G_ADMISSION_MAX_WAIT;
+import static org.apache.hadoop.ozone.s3.S3AdmissionController.OZONE_S3G_ADMISSION_METADATA_MAX_CONCURRENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link S3AdmissionController}.
+ */
+public class TestS3AdmissionController {
+
+  private S3GatewayMetrics metrics;
+
+  @Before
+  public void setup() {
+    S3AdmissionController.reset();
+    metrics = S3GatewayMetrics.create();
+  }
+
+  @After
+  public void cleanup() {
+    S3AdmissionController.reset();
+  }
+
+  @Test
+  public void testUnlimitedByDefault() throws Exception {
+    S3AdmissionController controller =
+        S3AdmissionController.create(new OzoneConfiguration());
+    for (int i = 0; i < 1000; i++) {
+      controller.acquire(S3Operation.PUT_OBJECT, "key");
+    }
+  }
+
+  @Test
+  public void testRejectWhenQueueIsFull() throws Exception {
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(OZONE_S3G_ADMISSION_DATA_MAX_CONCURRENT, 1);
+    conf.setInt(OZONE_S3G_ADMISSION_DATA_MAX_QUEUE, 0);
+    conf.setInt(OZONE_S3G_ADMISSION_METADATA_MAX_CONCURRENT, 1);
+    S3AdmissionController controller = S3AdmissionController.create(conf);
+
+    long oriRejected = metrics.getDataAdmissionRejected();
+    S3AdmissionController.Permit permit =
+        controller.acquire(S3Operation.PUT_OBJECT, "key1");
+    try {
+      controller.acquire(S3Operation.GET_OBJECT, "key2");
+      fail("Data operation should be rejected");
+    } catch (OS3Exception ex) {
+      assertEquals("SlowDown", ex.getCode());
+      assertEquals(503, ex.getHttpCode());
+    }
+    assertEquals(1L, metrics.getDataAdmissionRejected() - oriRejected);
+
+    // metadata operations have their own budget
+    controller.acquire(S3Operation.HEAD_OBJECT, "key3").close();
+
+    // closing twice releases only one permit
+    permit.close();
+    permit.close();
+    controller.acquire(S3Operation.PUT_OBJECT, "key1");
+    try {
+      controller.acquire(S3Operation.PUT_OBJECT, "key2");
+      fail("Data operation should be rejected");
+    } catch (OS3Exception ex) {
+      assertEquals("SlowDown", ex.getCode());
+    }
+  }
+
+  @Test
+  public void testWaitInQueue() throws Exception {
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(OZONE_S3G_ADMISSION_DATA_MAX_CONCURRENT, 1);
+    conf.setInt(OZONE_S3G_ADMISSION_DATA_MAX_QUEUE, 1);
+    conf.set(OZONE_S3G_ADMISSION_MAX_WAIT, "10s");
+    S3AdmissionController controller = S3AdmissionController.create(conf);
+
+    S3AdmissionController.Permit permit =
+        controller.acquire(S3Operation.PUT_OBJECT, "key1");
+    Thread releaser = new Thread(() -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      permit.close();
+    });
+    releaser.start();
+    controller.acquire(S3Operation.PUT_OBJECT, "key2").close();
+    releaser.join();
+  }
+
+  @Test
+  public void testRejectAfterMaxWait() throws Exception {
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setInt(OZONE_S3G_ADMISSION_DATA_MAX_CONCURRENT, 1);
+    conf.setInt(OZONE_S3G_ADMISSION_DATA_MAX_QUEUE, 1);
+    conf.set(OZONE_S3G_ADMISSION_MAX_WAIT, "50ms");
+    S3AdmissionController controller = S3AdmissionController.create(conf);
+
+    long oriRejected = metrics.getDataAdmissionRejected();
+    controller.acquire(S3Operation.PUT_OBJECT, "key1");
+    try {
+      controller.acquire(S3Operation.PUT_OBJECT, "key2");
+      fail("Data operation should be rejected");
+    } catch (OS3Exception ex) {
+      assertEquals("SlowDown", ex.getCode());
+    }
+    assertEquals(1L, metrics.getDataAdmissionRejected() - oriRejected);
+  }
+
+  @Test
+  public void testAdaptiveLimitSheds() throws Exception {
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setBoolean(OZONE_S3G_ADMISSION_ADAPTIVE_ENABLED, true);
+    conf.setInt(OZONE_S3G_ADMISSION_ADAPTIVE_INITIAL_LIMIT, 1);
+    conf.setInt(OZONE_S3G_ADMISSION_ADAPTIVE_MIN_LIMIT, 1);
+    conf.setInt(OZONE_S3G_ADMISSION_ADAPTIVE_MAX_LIMIT, 1);
+    S3AdmissionController controller = S3AdmissionController.create(conf);
+
+    long oriShed = metrics.getMetadataAdmissionShed();
+    long oriRejected = metrics.getMetadataAdmissionRejected();
+    S3AdmissionController.Permit permit =
+        controller.acquire(S3Operation.DELETE_OBJECT, "key1");
+    try {
+      controller.acquire(S3Operation.HEAD_OBJECT, "key2");
+      fail("Metadata operation should be shed");
+    } catch (OS3Exception ex) {
+      assertEquals("SlowDown", ex.getCode());
+    }
+    assertEquals(1L, metrics.getMetadataAdmissionShed() - oriShed);
+    assertEquals(1L, metrics.getMetadataAdmissionRejected() - oriRejected);
+
+    permit.close();
+    assertEquals(0, controller.getAdaptiveLimiter(
+        S3Operation.Type.METADATA).getInFlight());
+    controller.acquire(S3Operation.HEAD_OBJECT, "key2").close();
+  }
+
+  @Test
+  public void testAdaptiveLimitUsesBackendLatency() throws Exception {
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.setBoolean(OZONE_S3G_ADMISSION_ADAPTIVE_ENABLED, true);
+    conf.setInt(OZONE_S3G_ADMISSION_ADAPTIVE_INITIAL_LIMIT, 1);
+    conf.setInt(OZONE_S3G_ADMISSION_ADAPTIVE_MIN_LIMIT, 1);
+    conf.setInt(OZONE_S3G_ADMISSION_ADAPTIVE_MAX_LIMIT, 1);
+    S3AdmissionController controller = S3AdmissionController.create(conf);
+
+    // The time the permit is held is not a sample, the latency passed to
+    // close is.
+    for (int i = 0; i < 10; i++) {
+      S3AdmissionController.Permit permit =
+          controller.acquire(S3Operation.GET_OBJECT, "key1");
+      Thread.sleep(1);
+      permit.close(1000);
+    }
+    assertEquals(1000, controller.getAdaptiveLimiter(
+        S3Operation.Type.DATA).getRttNanos());
+  }
+}
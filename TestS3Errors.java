@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.exception;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link S3Errors}.
+ */
+public class TestS3Errors {
+
+  @Test
+  public void testExpectedErrorWithoutStackTrace() {
+    OS3Exception ex = S3Errors.newError(S3ErrorTable.NO_SUCH_UPLOAD,
+        "uploadID", new IOException("cause"));
+    assertEquals(S3ErrorTable.NO_SUCH_UPLOAD.getCode(), ex.getCode());
+    assertEquals(S3ErrorTable.NO_SUCH_UPLOAD.getHttpCode(), ex.getHttpCode());
+    assertEquals("uploadID", ex.getResource());
+    assertEquals(0, ex.getStackTrace().length);
+  }
+
+  @Test
+  public void testInternalErrorWithStackTrace() {
+    OS3Exception ex = S3Errors.newError(S3ErrorTable.INTERNAL_ERROR, "key");
+    assertEquals(S3ErrorTable.INTERNAL_ERROR.getCode(), ex.getCode());
+    assertTrue(ex.getStackTrace().length > 0);
+  }
+}
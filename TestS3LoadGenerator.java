@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.endpoint;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.ozone.s3.endpoint.S3LoadGenerator.Operation;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Short mixed load on ObjectEndpoint, checking the metrics against the
+ * operations issued.
+ */
+public class TestS3LoadGenerator {
+
+  @Test
+  public void testMetricsMatchMixedLoad() throws Exception {
+    S3LoadGenerator generator = new S3LoadGenerator(S3LoadGenerator.parseMix(
+        "GET=50,HEAD=20,PUT=15,DELETE=5,COPY=5,MULTIPART=5"), 8, 1024);
+
+    S3LoadGenerator.Result result =
+        generator.run(500, 60, TimeUnit.SECONDS);
+
+    long total = 0;
+    for (Operation operation : Operation.values()) {
+      assertEquals(operation.name(), 0, result.getFailed(operation));
+      total += result.getSucceeded(operation);
+    }
+    assertEquals(8 * 500, total);
+    assertEquals(Collections.emptyList(), result.getMismatches());
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.OZONE_S3G_METRICS_MMAP_FILE;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.OZONE_S3G_METRICS_MMAP_INTERVAL;
+import static org.apache.hadoop.ozone.s3.metrics.S3MetricsMmapWriter.SEQUENCE_OFFSET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link S3MetricsMmapWriter} and {@link S3MetricsMmapReader}.
+ */
+public class TestS3MetricsMmapWriter {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+
+  private S3MetricsMmapWriter writer;
+
+  private S3GatewayMetrics metrics;
+
+  @Before
+  public void setup() throws IOException {
+    S3MetricsMmapWriter.reset();
+    file = new File(folder.getRoot(), "s3g.metrics");
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.set(OZONE_S3G_METRICS_MMAP_FILE, file.getPath());
+    // Written by the test only.
+    conf.set(OZONE_S3G_METRICS_MMAP_INTERVAL, "0s");
+    writer = S3MetricsMmapWriter.create(conf);
+    metrics = S3GatewayMetrics.create();
+  }
+
+  @After
+  public void cleanup() {
+    S3MetricsMmapWriter.reset();
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    S3MetricsMmapWriter.reset();
+    assertNull(S3MetricsMmapWriter.create(new OzoneConfiguration()));
+  }
+
+  @Test
+  public void testCounters() throws IOException {
+    metrics.incSlowRequests();
+    metrics.incSlowRequests();
+    writer.write();
+
+    S3MetricsMmapReader.Snapshot snapshot =
+        S3MetricsMmapReader.read(file.toPath());
+    assertEquals(writer.getSequence(), snapshot.getSequence());
+    assertEquals(0, snapshot.getSequence() % 2);
+    assertEquals(metrics.getSlowRequests(),
+        snapshot.getScalars().get("SlowRequests").longValue());
+    assertEquals(metrics.getDataAdaptiveLimit(),
+        snapshot.getScalars().get("DataAdaptiveLimit").longValue());
+  }
+
+  @Test
+  public void testHistograms() throws IOException {
+    LogHistogram histogram = metrics.getRequestNanos(S3Operation.HEAD_OBJECT);
+    histogram.add(1000);
+    histogram.add(5000);
+    writer.write();
+
+    S3MetricsMmapReader.Histogram read = S3MetricsMmapReader
+        .read(file.toPath()).getHistogram("HeadObjectRequestNanos");
+    assertEquals(histogram.getCount(), read.getCount());
+    assertEquals(histogram.getSum(), read.getSum());
+    assertEquals(histogram.getMax(), read.getMax());
+    assertEquals(histogram.getPercentile(50), read.getPercentile(50));
+    assertEquals(histogram.getPercentile(99), read.getPercentile(99));
+    long[] counts = read.getBucketCounts();
+    assertTrue(counts[LogHistogram.bucket(1000)] >= 1);
+    assertTrue(counts[LogHistogram.bucket(5000)] >= 1);
+  }
+
+  @Test
+  public void testSurvivesTheWriter() throws IOException {
+    metrics.incSlowRequests();
+    long slowRequests = metrics.getSlowRequests();
+    // The last write of the gateway.
+    S3MetricsMmapWriter.reset();
+
+    assertEquals(slowRequests, S3MetricsMmapReader.read(file.toPath())
+        .getScalars().get("SlowRequests").longValue());
+  }
+
+  @Test
+  public void testPreviousFileKept() throws IOException {
+    metrics.incSlowRequests();
+    long slowRequests = metrics.getSlowRequests();
+    S3MetricsMmapWriter.reset();
+    OzoneConfiguration conf = new OzoneConfiguration();
+    conf.set(OZONE_S3G_METRICS_MMAP_FILE, file.getPath());
+    conf.set(OZONE_S3G_METRICS_MMAP_INTERVAL, "0s");
+    // The gateway starts again.
+    metrics.incSlowRequests();
+    writer = S3MetricsMmapWriter.create(conf);
+
+    File previous = new File(folder.getRoot(), "s3g.metrics.previous");
+    assertEquals(slowRequests, S3MetricsMmapReader.read(previous.toPath())
+        .getScalars().get("SlowRequests").longValue());
+    assertEquals(slowRequests + 1, S3MetricsMmapReader.read(file.toPath())
+        .getScalars().get("SlowRequests").longValue());
+  }
+
+  @Test
+  public void testBadPathDisables() throws IOException {
+    S3MetricsMmapWriter.reset();
+    OzoneConfiguration conf = new OzoneConfiguration();
+    // A directory under a regular file can't be created.
+    conf.set(OZONE_S3G_METRICS_MMAP_FILE,
+        new File(folder.newFile(), "s3g.metrics").getPath());
+    assertNull(S3MetricsMmapWriter.create(conf));
+    assertNull(S3MetricsMmapWriter.create(conf));
+  }
+
+  @Test
+  public void testConcurrentWriteAndRead() throws Exception {
+    LogHistogram histogram = metrics.getRequestNanos(S3Operation.HEAD_OBJECT);
+    String name = "HeadObjectRequestNanos";
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // The count and the buckets change with each write, a torn copy
+      // has a count different from the sum of its buckets.
+      Future<?> writes = executor.submit(() -> {
+        for (int i = 0; i < 2000; i++) {
+          histogram.add(i);
+          writer.write();
+        }
+      });
+      int reads = 0;
+      while (!writes.isDone() || reads == 0) {
+        S3MetricsMmapReader.Snapshot snapshot =
+            S3MetricsMmapReader.read(file.toPath());
+        assertEquals(0, snapshot.getSequence() % 2);
+        S3MetricsMmapReader.Histogram read = snapshot.getHistogram(name);
+        long sum = 0;
+        for (long count : read.getBucketCounts()) {
+          sum += count;
+        }
+        assertEquals(read.getCount(), sum);
+        reads++;
+      }
+      writes.get();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testOddSequenceRetried() throws Exception {
+    long sequence = writer.getSequence();
+    MappedByteBuffer mapped = map();
+    // A write in progress, finished while the reader retries.
+    mapped.putLong(SEQUENCE_OFFSET, sequence + 1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> finish = executor.submit(() -> {
+        TimeUnit.MILLISECONDS.sleep(20);
+        mapped.putLong(SEQUENCE_OFFSET, sequence + 2);
+        return null;
+      });
+      assertEquals(sequence + 2,
+          S3MetricsMmapReader.read(file.toPath()).getSequence());
+      finish.get();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // A writer which never finishes.
+    mapped.putLong(SEQUENCE_OFFSET, sequence + 3);
+    try {
+      S3MetricsMmapReader.read(file.toPath());
+      fail("Read a file which is always written");
+    } catch (IOException ex) {
+      assertTrue(ex.getMessage().contains("was written"));
+    }
+  }
+
+  private MappedByteBuffer map() throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedByteBuffer mapped =
+          channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+      mapped.order(ByteOrder.LITTLE_ENDIAN);
+      return mapped;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.hadoop.ozone.s3.metrics.S3RequestCostSampler.OZONE_S3G_REQUEST_COST_SAMPLE_RATIO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link S3RequestCostSampler}.
+ */
+public class TestS3RequestCostSampler {
+
+  private static final int ALLOCATION = 4 * 1024 * 1024;
+
+  private OzoneConfiguration conf;
+
+  private S3GatewayMetrics metrics;
+
+  @Before
+  public void setup() {
+    S3RequestCostSampler.reset();
+    conf = new OzoneConfiguration();
+    metrics = S3GatewayMetrics.create();
+  }
+
+  @After
+  public void cleanup() {
+    S3RequestCostSampler.reset();
+  }
+
+  @Test
+  public void testSampled() {
+    conf.setFloat(OZONE_S3G_REQUEST_COST_SAMPLE_RATIO, 1);
+    S3RequestCostSampler.create(conf);
+    LogHistogram cpu = metrics.getCpuNanos(S3Operation.PUT_OBJECT, false);
+    LogHistogram allocated =
+        metrics.getAllocatedBytes(S3Operation.PUT_OBJECT, false);
+    long cpuCount = cpu.getCount();
+    long allocatedCount = allocated.getCount();
+
+    S3RequestTimer timer =
+        S3RequestTimer.start(S3Operation.PUT_OBJECT, "bucket", "key");
+    byte[] data = new byte[ALLOCATION];
+    timer.setBytes(data.length);
+    timer.finish();
+
+    assertEquals(cpuCount + 1, cpu.getCount());
+    assertEquals(allocatedCount + 1, allocated.getCount());
+    assertTrue(allocated.getMax() >= ALLOCATION);
+  }
+
+  @Test
+  public void testSignedChunks() {
+    conf.setFloat(OZONE_S3G_REQUEST_COST_SAMPLE_RATIO, 1);
+    S3RequestCostSampler.create(conf);
+    LogHistogram plain = metrics.getCpuNanos(S3Operation.UPLOAD_PART, false);
+    LogHistogram signed = metrics.getCpuNanos(S3Operation.UPLOAD_PART, true);
+    long plainCount = plain.getCount();
+    long signedCount = signed.getCount();
+
+    S3RequestTimer timer =
+        S3RequestTimer.start(S3Operation.UPLOAD_PART, "bucket", "key");
+    timer.setSignedChunks();
+    timer.finish();
+
+    assertEquals(plainCount, plain.getCount());
+    assertEquals(signedCount + 1, signed.getCount());
+  }
+
+  @Test
+  public void testNotSampled() {
+    conf.setFloat(OZONE_S3G_REQUEST_COST_SAMPLE_RATIO, 0);
+    S3RequestCostSampler.create(conf);
+    LogHistogram cpu = metrics.getCpuNanos(S3Operation.GET_OBJECT, false);
+    long count = cpu.getCount();
+
+    S3RequestTimer.start(S3Operation.GET_OBJECT, "bucket", "key").finish();
+
+    assertEquals(count, cpu.getCount());
+  }
+}
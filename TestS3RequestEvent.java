@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.OM_CALL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link S3RequestEvent}.
+ */
+public class TestS3RequestEvent {
+
+  @Test
+  public void testDisabledByDefault() {
+    assertNull(S3RequestEvent.beginIfEnabled());
+  }
+
+  @Test
+  public void testRecorded() throws IOException {
+    Path file = Files.createTempFile("s3g", ".jfr");
+    try {
+      try (Recording recording = new Recording()) {
+        recording.enable(S3RequestEvent.NAME);
+        recording.start();
+
+        S3RequestTimer timer =
+            S3RequestTimer.start(S3Operation.GET_OBJECT, "bucket", "key");
+        timer.add(OM_CALL, 5_000_000);
+        timer.setBytes(100);
+        timer.setRange("bytes=0-9");
+        timer.addBytesStreamed(10);
+        timer.finish();
+        recording.stop();
+        recording.dump(file);
+      }
+
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+          .filter(e -> e.getEventType().getName().equals(S3RequestEvent.NAME))
+          .collect(Collectors.toList());
+      assertEquals(1, events.size());
+      RecordedEvent event = events.get(0);
+      assertEquals("GET_OBJECT", event.getString("operation"));
+      assertEquals("bucket", event.getString("bucket"));
+      assertEquals("key", event.getString("key"));
+      assertEquals(100, event.getLong("keySize"));
+      assertEquals("bytes=0-9", event.getString("range"));
+      assertEquals(10, event.getLong("bytesStreamed"));
+      assertEquals("OK", event.getString("result"));
+      assertEquals(5_000_000, event.getDuration("omCall").toNanos());
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
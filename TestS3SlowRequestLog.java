@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.metrics;
+
+import java.util.List;
+
+import org.apache.hadoop.hdds.conf.OzoneConfiguration;
+import org.apache.hadoop.ozone.om.exceptions.OMException;
+import org.apache.hadoop.ozone.om.exceptions.OMException.ResultCodes;
+import org.apache.hadoop.ozone.s3.util.S3Operation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.hadoop.ozone.s3.metrics.S3SlowRequestLog.OZONE_S3G_SLOW_REQUEST_BUFFER_SIZE;
+import static org.apache.hadoop.ozone.s3.metrics.S3SlowRequestLog.OZONE_S3G_SLOW_REQUEST_FLUSH_INTERVAL;
+import static org.apache.hadoop.ozone.s3.metrics.S3SlowRequestLog.OZONE_S3G_SLOW_REQUEST_SAMPLE_RATIO;
+import static org.apache.hadoop.ozone.s3.metrics.S3SlowRequestLog.OZONE_S3G_SLOW_REQUEST_THRESHOLD;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.KEY_LOOKUP;
+import static org.apache.hadoop.ozone.s3.util.S3RequestPhase.OM_CALL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link S3SlowRequestLog}.
+ */
+public class TestS3SlowRequestLog {
+
+  private OzoneConfiguration conf;
+
+  @Before
+  public void setup() {
+    S3SlowRequestLog.reset();
+    conf = new OzoneConfiguration();
+    // Every request is slow, flushed by the test only.
+    conf.set(OZONE_S3G_SLOW_REQUEST_THRESHOLD, "1ns");
+    conf.set(OZONE_S3G_SLOW_REQUEST_FLUSH_INTERVAL, "0s");
+    conf.setInt(OZONE_S3G_SLOW_REQUEST_BUFFER_SIZE, 2);
+  }
+
+  @After
+  public void cleanup() {
+    S3SlowRequestLog.reset();
+  }
+
+  @Test
+  public void testOldestOverwritten() {
+    S3SlowRequestLog log = S3SlowRequestLog.create(conf);
+    long slowRequests = S3GatewayMetrics.create().getSlowRequests();
+
+    request("key1").finish();
+    request("key2").finish();
+    request("key3").finish();
+
+    List<S3SlowRequestLog.Entry> entries = log.drain();
+    assertEquals(2, entries.size());
+    assertTrue(entries.get(0).toString().contains("bucket/key2"));
+    assertTrue(entries.get(1).toString().contains("bucket/key3"));
+    assertTrue(log.drain().isEmpty());
+    assertEquals(slowRequests + 3,
+        S3GatewayMetrics.create().getSlowRequests());
+  }
+
+  @Test
+  public void testDetail() {
+    S3SlowRequestLog log = S3SlowRequestLog.create(conf);
+
+    S3RequestTimer timer = request("key");
+    timer.add(OM_CALL, 5_000_000);
+    timer.setBytes(1024);
+    timer.fail(new OMException("timeout", ResultCodes.TIMEOUT));
+    timer.finish();
+
+    S3SlowRequestLog.Entry entry = log.drain().get(0);
+    assertEquals(S3Operation.GET_OBJECT, entry.getOperation());
+    assertEquals("TIMEOUT", entry.getResult());
+    assertEquals(5_000_000, entry.getPhaseNanos(OM_CALL));
+    assertEquals(-1, entry.getPhaseNanos(KEY_LOOKUP));
+    assertTrue(entry.toString().contains("bytes=1024"));
+    assertTrue(entry.toString().contains("om_call=5.0"));
+  }
+
+  @Test
+  public void testFastRequests() {
+    conf.set(OZONE_S3G_SLOW_REQUEST_THRESHOLD, "1h");
+    S3SlowRequestLog log = S3SlowRequestLog.create(conf);
+
+    request("key").finish();
+
+    assertTrue(log.drain().isEmpty());
+  }
+
+  @Test
+  public void testSampling() {
+    conf.setFloat(OZONE_S3G_SLOW_REQUEST_SAMPLE_RATIO, 0);
+    S3SlowRequestLog log = S3SlowRequestLog.create(conf);
+    long slowRequests = S3GatewayMetrics.create().getSlowRequests();
+
+    request("key").finish();
+
+    // Counted, without detail.
+    assertTrue(log.drain().isEmpty());
+    assertEquals(slowRequests + 1,
+        S3GatewayMetrics.create().getSlowRequests());
+  }
+
+  private static S3RequestTimer request(String key) {
+    return S3RequestTimer.start(S3Operation.GET_OBJECT, "bucket", key);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.endpoint;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.ozone.s3.exception.S3ErrorTable;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.hadoop.ozone.s3.exception.S3ErrorTable.newError;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link StreamingCopyOutput}.
+ */
+public class TestStreamingCopyOutput {
+
+  private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
+  @Test
+  public void testKeepAliveWhileCopyIsStalled() throws Exception {
+    // The copy makes no progress, as when it waits for a datanode or for
+    // the commit of the key.
+    StreamingCopyOutput output = new StreamingCopyOutput("b/k", INTERVAL,
+        () -> {
+          Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+          CopyObjectResponse response = new CopyObjectResponse();
+          response.setETag("\"etag\"");
+          return response;
+        });
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    output.write(out);
+
+    String body = out.toString(UTF_8.name());
+    int spaces = body.indexOf('<');
+    assertTrue(body, spaces > 2);
+    assertTrue(body, body.substring(0, spaces).trim().isEmpty());
+    assertTrue(body, body.contains("etag"));
+
+    // Nothing is written after the result.
+    int length = out.size();
+    Thread.sleep(50);
+    assertEquals(length, out.size());
+  }
+
+  @Test
+  public void testFailureAfterKeepAlive() throws Exception {
+    StreamingCopyOutput output = new StreamingCopyOutput("b/k", INTERVAL,
+        () -> {
+          throw newError(S3ErrorTable.NO_SUCH_KEY, "k");
+        });
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    output.write(out);
+
+    String body = out.toString(UTF_8.name());
+    assertTrue(body, body.startsWith(" "));
+    // No XML declaration after the whitespaces.
+    assertTrue(body, body.trim().startsWith("<Error>"));
+    assertTrue(body, body.contains("NoSuchKey"));
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.hadoop.ozone.s3.util;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link ThrottledLogger}.
+ */
+public class TestThrottledLogger {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(TestThrottledLogger.class);
+
+  @Test
+  public void testErrorsSuppressedInPeriod() {
+    ThrottledLogger log = new ThrottledLogger(LOG, 1, TimeUnit.HOURS);
+    log.error("First error", new IOException("first"));
+    assertEquals(0, log.getSuppressed());
+    log.error("Second error", new IOException("second"));
+    log.error("Third error {}", "key", new IOException("third"));
+    assertEquals(2, log.getSuppressed());
+  }
+
+  @Test
+  public void testSuppressedCountReset() {
+    AtomicLong clock = new AtomicLong();
+    ThrottledLogger log = new ThrottledLogger(LOG, 1, TimeUnit.HOURS,
+        clock::get);
+    log.error("First error");
+    log.error("Second error");
+    assertEquals(1, log.getSuppressed());
+    clock.addAndGet(TimeUnit.MINUTES.toNanos(59));
+    log.error("Third error");
+    assertEquals(2, log.getSuppressed());
+    clock.addAndGet(TimeUnit.MINUTES.toNanos(1));
+    // Logged with the count of the suppressed errors
+    log.error("Fourth error");
+    assertEquals(0, log.getSuppressed());
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ozone.s3.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+
+/**
+ * Logs the errors of one call site at most once per period.
+ * <p>
+ * When requests fail at a high rate, logging every failure adds load to
+ * the gateway when it is already in trouble. The errors of a period after
+ * the first one are only counted, and the count is reported with the next
+ * logged error. The check is lock free, the request threads never wait on
+ * each other to decide whether to log.
+ */
+public final class ThrottledLogger {
+
+  private final Logger log;
+
+  private final LongSupplier nanoClock;
+
+  private final long periodNanos;
+
+  private final AtomicLong nextLogNanos;
+
+  private final LongAdder suppressed = new LongAdder();
+
+  public ThrottledLogger(Logger log, long period, TimeUnit unit) {
+    this(log, period, unit, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  ThrottledLogger(Logger log, long period, TimeUnit unit,
+      LongSupplier nanoClock) {
+    this.log = log;
+    this.nanoClock = nanoClock;
+    this.periodNanos = unit.toNanos(period);
+    this.nextLogNanos = new AtomicLong(nanoClock.getAsLong());
+  }
+
+  /**
+   * Log the error with the arguments, if no error has been logged in the
+   * current period. The last argument can be a Throwable, as with slf4j.
+   */
+  public void error(String format, Object... args) {
+    if (!log.isErrorEnabled()) {
+      return;
+    }
+    long now = nanoClock.getAsLong();
+    long next = nextLogNanos.get();
+    if (now - next < 0
+        || !nextLogNanos.compareAndSet(next, now + periodNanos)) {
+      suppressed.increment();
+      return;
+    }
+    long count = suppressed.sumThenReset();
+    if (count > 0) {
+      log.error("{} similar errors were not logged since the previous one",
+          count);
+    }
+    log.error(format, args);
+  }
+
+  /**
+   * @return the number of errors not logged since the last logged one.
+   */
+  public long getSuppressed() {
+    return suppressed.sum();
+  }
+}